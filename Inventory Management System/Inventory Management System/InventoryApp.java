@@ -7,22 +7,92 @@ package NAMANPROJECTS;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.AbstractTableModel;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import java.awt.*;
 import java.awt.event.*;
-import java.awt.print.PrinterException;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.MappedByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
 
 public class InventoryApp {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--server")) { InventoryServer.run(args); return; }
         SwingUtilities.invokeLater(() -> {
             try { UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName()); } catch (Exception ignored) {}
-            LoginDialog login = new LoginDialog(null);
+            UserDirectory users;
+            try {
+                users = UserDirectory.open(dataDir().resolve("users.txt"));
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(null, "Cannot read the user accounts in " + dataDir() + ":\n" + ex.getMessage(), "Startup Failed", JOptionPane.ERROR_MESSAGE);
+                System.exit(1);
+                return;
+            }
+            LoginDialog login = new LoginDialog(null, users);
             login.setVisible(true);
             if (login.isAuthenticated()) {
-                MainFrame frame = new MainFrame(login.getAuthenticatedUser());
+                Warehouses warehouses;
+                try {
+                    warehouses = Warehouses.open(dataDir(), fsyncPolicy());
+                } catch (IOException ex) {
+                    JOptionPane.showMessageDialog(null, "Cannot open inventory data in " + dataDir() + ":\n" + ex.getMessage(), "Startup Failed", JOptionPane.ERROR_MESSAGE);
+                    System.exit(1);
+                    return;
+                }
+                Runtime.getRuntime().addShutdownHook(new Thread(warehouses::close));
+                warehouses.registerMetrics(Metrics.REGISTRY);
+                String metricsFile = System.getProperty("inventory.metricsFile");
+                if (metricsFile != null) Metrics.dumpPeriodically(Paths.get(metricsFile), metricsDumpSeconds());
+                Toolkit.getDefaultToolkit().getSystemEventQueue().push(new TimedEventQueue());
+                MainFrame frame = new MainFrame(login.getAuthenticatedUser(), warehouses, users);
                 frame.setVisible(true);
             } else {
                 System.exit(0);
@@ -30,6 +100,21 @@ public class InventoryApp {
         });
     }
 
+    // Data lives in ~/.inventory unless -Dinventory.dataDir says otherwise; -Dinventory.fsync picks NONE, BATCH or ALWAYS.
+    // -Dinventory.compactHistory=true moves aged transaction history into a HistoryStore.
+    static Path dataDir() {
+        return Paths.get(System.getProperty("inventory.dataDir", System.getProperty("user.home") + File.separator + ".inventory"));
+    }
+
+    static TxnJournal.FsyncPolicy fsyncPolicy() {
+        return TxnJournal.FsyncPolicy.valueOf(System.getProperty("inventory.fsync", "BATCH").toUpperCase(Locale.ROOT));
+    }
+
+    // -Dinventory.metricsFile=<path> rewrites a Prometheus text snapshot there every -Dinventory.metricsSeconds (15).
+    static long metricsDumpSeconds() {
+        return Long.getLong("inventory.metricsSeconds", 15);
+    }
+
     // ----------------------- Domain Models -----------------------
     static class User {
         String username;
@@ -37,19 +122,41 @@ public class InventoryApp {
         boolean isAdmin;
         public User(String username, String fullName, boolean isAdmin) {
             this.username = username; this.fullName = fullName; this.isAdmin = isAdmin; }
+        // Checked by the UI and the HTTP API alike.
+        boolean canDeleteItems() { return isAdmin; }
+        static final String DELETE_DENIED = "Only Admin can delete items";
     }
 
     static class InventoryItem {
         String sku; // unique id
         String name;
         String category;
-        int quantity;
+        volatile int quantity; // written under the SKU's stripe lock in InventoryModel, read without it
         double price;
+        int reorderPoint; // low-stock alert once quantity falls to this level, 0 for none
+        long version; // sequence number of the transaction that set these details (0 if loaded from a snapshot); stock movements keep it
         public InventoryItem(String sku, String name, String category, int quantity, double price) {
-            this.sku = sku; this.name = name; this.category = category; this.quantity = quantity; this.price = price; }
+            this(sku, name, category, quantity, price, 0); }
+        public InventoryItem(String sku, String name, String category, int quantity, double price, int reorderPoint) {
+            this.sku = sku; this.name = name; this.category = category; this.quantity = quantity; this.price = price; this.reorderPoint = reorderPoint; }
+        long priceMinor() { return Math.round(price * 100); } // paise, so running totals stay exact
+    }
+
+    // Item count, units and value (in paise) of a set of items.
+    static class Totals {
+        int items;
+        long units;
+        long valueMinor;
+        void add(int items, long units, long valueMinor) { this.items += items; this.units += units; this.valueMinor += valueMinor; }
+        public java.math.BigDecimal value() { return java.math.BigDecimal.valueOf(valueMinor, 2); }
+    }
+
+    static class TotalsSnapshot {
+        final Totals overall = new Totals();
+        final SortedMap<String, Totals> byCategory = new TreeMap<>();
     }
 
-    enum TxnType { ADD_STOCK, REMOVE_STOCK, NEW_ITEM, UPDATE_ITEM, DELETE_ITEM }
+    enum TxnType { ADD_STOCK, REMOVE_STOCK, NEW_ITEM, UPDATE_ITEM, DELETE_ITEM, TRANSFER_OUT, TRANSFER_IN }
 
     static class TransactionRec {
         String id;
@@ -60,473 +167,5732 @@ public class InventoryApp {
         int qtyDelta;
         String performedBy;
         String notes;
+        String category; // item details after the change, only set on NEW_ITEM / UPDATE_ITEM / TRANSFER_* so the journal can rebuild the item
+        double price;
+        int reorderPoint;
+        int groupSize; // > 1 on the first record of an all-or-nothing batch; the journal writes the batch as one frame
+        String location; // the shard that logged it, see Warehouses
+        String peerLocation; // TRANSFER_OUT / TRANSFER_IN: the other half's location and sequence number; a reversal names
+        long peerSeq;        // its own location and the half it reverses
         public TransactionRec(String id, LocalDateTime timestamp, String sku, String itemName, TxnType type, int qtyDelta, String performedBy, String notes) {
             this.id = id; this.timestamp = timestamp; this.sku = sku; this.itemName = itemName; this.type = type; this.qtyDelta = qtyDelta; this.performedBy = performedBy; this.notes = notes;
         }
+        TransactionRec withPeer(String location, long seq) { this.peerLocation = location; this.peerSeq = seq; return this; }
+        TransactionRec withDetails(InventoryItem item) { this.category = item.category; this.price = item.price; this.reorderPoint = item.reorderPoint; return this; }
+        long seq() { return Long.parseLong(id.substring(id.indexOf('-') + 1)); }
+    }
+
+    // An item crossed its reorder point: low is true when it fell to or below it, false once it is back above
+    // (or was deleted). quantity is the level that caused the crossing.
+    static class LowStockEvent {
+        final InventoryItem item;
+        final boolean low;
+        final int quantity;
+        LowStockEvent(InventoryItem item, boolean low, int quantity) { this.item = item; this.low = low; this.quantity = quantity; }
+    }
+
+    // Called on the mutating thread while it holds the SKU's stripe lock: hand off anything slow, and never call back into the model.
+    interface LowStockListener {
+        void lowStockChanged(LowStockEvent event);
+    }
+
+    // Told of each change to an InventoryModel's row order as it happens, under the model's rows monitor, so a view
+    // can replay them in order; keep it short. Rows are only ever appended, or removed by moving the last into the gap.
+    interface RowsListener {
+        void rowAdded(int row);
+        void rowRemoved(int row, int last); // the item at last now sits at row, unless row == last
+    }
+
+    // Filters for InventoryModel.queryTransactions; null fields match anything, from and to are inclusive.
+    static class TxnQuery {
+        static final TxnQuery ALL = new TxnQuery(null, null, null, null, null);
+        final LocalDateTime from;
+        final LocalDateTime to;
+        final String sku;
+        final String user;
+        final TxnType type;
+        public TxnQuery(LocalDateTime from, LocalDateTime to, String sku, String user, TxnType type) {
+            this.from = from; this.to = to; this.sku = sku; this.user = user; this.type = type; }
+        boolean matches(TransactionRec r) {
+            return (type == null || r.type == type)
+                    && (user == null || user.equalsIgnoreCase(r.performedBy))
+                    && (sku == null || sku.equals(r.sku))
+                    && (from == null || !r.timestamp.isBefore(from))
+                    && (to == null || !r.timestamp.isAfter(to));
+        }
+    }
+
+    // One page of transactions, newest first; next is the cursor for the following (older) page, 0 when there is none.
+    static class TxnPage {
+        final java.util.List<TransactionRec> rows;
+        final long next;
+        TxnPage(java.util.List<TransactionRec> rows, long next) { this.rows = rows; this.next = next; }
+    }
+
+    // One line of a goods receipt (positive delta) or pick list (negative delta).
+    static class StockLine {
+        final String sku;
+        final int delta;
+        final String notes;
+        public StockLine(String sku, int delta, String notes) { this.sku = sku; this.delta = delta; this.notes = notes; }
+    }
+
+    static class BatchResult {
+        final boolean ok;
+        final String error; // why nothing was applied, null when ok
+        final int lines;
+        private BatchResult(boolean ok, String error, int lines) { this.ok = ok; this.error = error; this.lines = lines; }
+        static BatchResult applied(int lines) { return new BatchResult(true, null, lines); }
+        static BatchResult rejected(String error) { return new BatchResult(false, error, 0); }
+    }
+
+    // Outcome of InventoryModel.importItems: how many SKUs were new and how many replaced an existing item.
+    static class ImportResult {
+        final int created;
+        final int updated;
+        ImportResult(int created, int updated) { this.created = created; this.updated = updated; }
     }
 
     // ----------------------- In-Memory Data Store -----------------------
+    // Mutations of one SKU serialize on that SKU's stripe lock and never block other stripes; readers of
+    // items and quantities take no lock at all. Structural changes to the table row order additionally take
+    // the short rows monitor, and transaction sequence numbers come from the lock-free TxnLog.
     static class InventoryModel {
-        private final Map<String, InventoryItem> items = new LinkedHashMap<>();
-        private final java.util.List<TransactionRec> transactions = new ArrayList<>();
+        static final String MAIN = "Main"; // the location a single-site installation has always had
+        // A snapshot is taken once this many transactions have been logged since the last one; the Transactions
+        // tab lists what was replayed since the newest snapshot, older history stays in the archived segments.
+        private static final long SNAPSHOT_EVERY = Long.getLong("inventory.snapshotEvery", 50_000L);
+        private static final long SNAPSHOT_CHECK_SECONDS = 30;
+        private static final int STRIPES = 64; // power of two
+        private static final int IMPORT_GROUP = 4096; // items per lock hold and journal frame in importItems
+        private static final int REINDEX_OVER = 50_000; // imports at least this large, and half the catalog, rebuild the search index
+
+        private final ConcurrentHashMap<String, InventoryItem> items;
+        private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+        // Row order for table views, guarded by its own monitor; deletes swap the last row into the hole so every mutation is O(1).
+        private final java.util.List<InventoryItem> rows;
+        private final java.util.List<RowsListener> rowsListeners = new CopyOnWriteArrayList<>();
+        private final Map<String, Integer> rowIndex;
+        private final TxnLog txnLog;
+        private final TxnIndex txnIndex;
+        // Running totals per stripe, each guarded by its stripe lock and updated in O(1) by every mutation.
+        private final Totals[] stripeTotals = new Totals[STRIPES];
+        // The same overall figures in adders, for readers that must not take the stripe locks; see liveTotals().
+        private final LongAdder liveItems = new LongAdder(), liveUnits = new LongAdder(), liveValue = new LongAdder();
+        private final java.util.List<Map<String, Totals>> stripeCategories = new ArrayList<>(STRIPES);
+        private final InventoryIndex index = new InventoryIndex();
+        private final ReorderTracker reorder = new ReorderTracker();
         private final DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+        private final HistoryStore history; // null unless -Dinventory.compactHistory=true
+        final String location;
+        private final java.util.List<TransactionRec> replayedTransfers = new ArrayList<>(); // for Warehouses to reconcile after open
+
+        private static final OpMetrics ADD_ITEM = new OpMetrics("addItem"), UPDATE_ITEM = new OpMetrics("updateItem"),
+                DELETE_ITEM = new OpMetrics("deleteItem"), ADD_STOCK = new OpMetrics("addStock"), REMOVE_STOCK = new OpMetrics("removeStock"),
+                APPLY_BATCH = new OpMetrics("applyBatch"), SEARCH = new OpMetrics("search"), QUERY_TXNS = new OpMetrics("queryTransactions"),
+                TOTALS = new OpMetrics("totals"), SNAPSHOT = new OpMetrics("snapshot"), IMPORT_ITEMS = new OpMetrics("importItems"),
+                TRANSFER = new OpMetrics("transfer");
+        private static final LongAdder UPDATE_CONFLICTS = Metrics.REGISTRY.counter("inventory_update_conflicts_total", "",
+                "Conditional item updates refused because another session had changed the item's details first.");
+        private static final LongAdder LOCKS_ACQUIRED = Metrics.REGISTRY.counter("inventory_lock_acquisitions_total", "", "Stripe lock acquisitions.");
+        private static final LatencyHistogram LOCK_WAIT = Metrics.REGISTRY.histogram("inventory_lock_wait_seconds", "", "Time spent waiting for a stripe lock another thread held.");
+        private static final LatencyHistogram DURABLE_WAIT = Metrics.REGISTRY.histogram("inventory_journal_wait_seconds", "", "Time mutators wait, after releasing their lock, for the journal to make them durable.");
+        private TxnJournal journal; // null for a purely in-memory model
+        private Path dir;
+        private FileChannel dirLock; // holds dir's .lock exclusively until close, so one process at a time writes the journal
+        private volatile long snapshotSeq;
+        private ScheduledExecutorService snapshotter;
+        private StockAnalytics analytics; // started by the first caller of analytics()
+        private ChangeStream changes; // started by the first caller of changes()
+        private ChangeFileSink changeFeed; // null unless -Dinventory.changeFeed=true
+        // The other locations by name, set by Warehouses, so a snapshot can wait for transfer partners; null when alone.
+        volatile java.util.function.Function<String, InventoryModel> peers;
 
         public InventoryModel() {
-            // Seed demo data
-            addItem(new InventoryItem("SKU-1001", "USB-C Cable 1m", "Accessories", 120, 199.00), "system");
-            addItem(new InventoryItem("SKU-1002", "Wireless Mouse", "Peripherals", 45, 899.00), "system");
-            addItem(new InventoryItem("SKU-1003", "Mechanical Keyboard", "Peripherals", 22, 3499.00), "system");
-            addStock("SKU-1002", 10, "system", "Initial stock top-up");
-            removeStock("SKU-1001", 5, "system", "Damaged pieces");
+            this(MAIN);
+            seedDemoData();
         }
 
-        public synchronized java.util.List<InventoryItem> getAllItems() {
-            return new ArrayList<>(items.values());
+        // An empty in-memory shard for one location.
+        InventoryModel(String location) {
+            this(location, 16, 0, HistoryStore.enabled() ? new HistoryStore(null, location) : null);
         }
-        public synchronized java.util.List<TransactionRec> getAllTransactions() {
-            return new ArrayList<>(transactions);
+
+        private InventoryModel(String location, int expectedItems, long baseSeq, HistoryStore history) {
+            this.location = location;
+            int capacity = Math.max(16, (int) (expectedItems / 0.75f) + 1);
+            items = new ConcurrentHashMap<>(capacity);
+            rows = new ArrayList<>(expectedItems);
+            rowIndex = new HashMap<>(capacity);
+            this.history = history;
+            txnLog = new TxnLog(baseSeq, history);
+            txnIndex = new TxnIndex(txnLog);
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new ReentrantLock();
+                stripeTotals[i] = new Totals();
+                stripeCategories.add(new HashMap<>());
+            }
         }
 
-        public synchronized boolean addItem(InventoryItem item, String by) {
-            if (items.containsKey(item.sku)) return false;
-            items.put(item.sku, item);
-            log(new TransactionRec(newTxnId(), LocalDateTime.now(), item.sku, item.name, TxnType.NEW_ITEM, item.quantity, by, "Created item"));
-            return true;
+        private InventoryModel(String location, TxnJournal.FsyncPolicy policy, Path dir, FileChannel dirLock, SnapshotStore.Snapshot snap) throws IOException {
+            this(location, snap == null ? 16 : snap.items.size(), snap == null ? 0 : snap.seq,
+                    HistoryStore.enabled() ? HistoryStore.open(dir.resolve("history"), location) : null);
+            this.dir = dir;
+            this.dirLock = dirLock;
+            index.suspend();
+            if (snap != null) {
+                for (InventoryItem it : snap.items) putRow(it, 0);
+                snapshotSeq = snap.seq;
+            }
+            journal = TxnJournal.open(dir.resolve("journal"), policy, txnLog.lastSeq(), this::replay);
+            journal.attach(txnLog);
+            buildIndexInBackground();
+            if (txnLog.lastSeq() == 0 && MAIN.equals(location)) seedDemoData();
+            snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "snapshotter");
+                t.setDaemon(true);
+                return t;
+            });
+            snapshotter.scheduleWithFixedDelay(this::maybeSnapshot, SNAPSHOT_CHECK_SECONDS, SNAPSHOT_CHECK_SECONDS, TimeUnit.SECONDS);
+            if (ChangeFileSink.enabled()) {
+                try {
+                    changeFeed = ChangeFileSink.start(changes(), dir.resolve("changes.jsonl"));
+                } catch (IOException ex) {
+                    System.err.println(location + ": change feed not written: " + ex.getMessage());
+                }
+            }
         }
 
-        public synchronized boolean updateItem(InventoryItem item, String by) {
-            InventoryItem existing = items.get(item.sku);
-            if (existing == null) return false;
-            int qtyDelta = item.quantity - existing.quantity;
-            items.put(item.sku, item);
-            log(new TransactionRec(newTxnId(), LocalDateTime.now(), item.sku, item.name, TxnType.UPDATE_ITEM, qtyDelta, by, "Updated item details"));
-            return true;
+        // Indexing a large catalog takes seconds, so open() and large imports leave it to a background thread: mutations keep the
+        // index current from here on, and each loaded item is posted under its stripe lock unless it has since
+        // been replaced. Searches scan the catalog until the build completes. The same thread then summarizes
+        // the replayed transaction history so the first time-range query does not have to.
+        private void buildIndexInBackground() {
+            int generation = index.generation();
+            index.resume();
+            java.util.List<InventoryItem> loaded = getAllItems();
+            Thread t = new Thread(() -> {
+                for (InventoryItem it : loaded) {
+                    ReentrantLock lock = stripeFor(it.sku);
+                    acquire(lock);
+                    try {
+                        if (items.get(it.sku) == it) index.add(it);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                index.markComplete(generation);
+                txnIndex.summarizeFullChunks();
+            }, "indexer");
+            t.setDaemon(true);
+            t.start();
         }
 
-        public synchronized boolean deleteItem(String sku, String by) {
-            InventoryItem removed = items.remove(sku);
-            if (removed == null) return false;
-            log(new TransactionRec(newTxnId(), LocalDateTime.now(), removed.sku, removed.name, TxnType.DELETE_ITEM, -removed.quantity, by, "Deleted item"));
-            return true;
+        // Loads the newest snapshot in dir and replays only the journal tail after it (seeding demo data into a
+        // fresh Main directory). Every later mutation is journaled and a background snapshotter keeps the tail short.
+        public static InventoryModel open(Path dir, TxnJournal.FsyncPolicy policy) throws IOException {
+            return open(dir, MAIN, policy);
         }
 
-        public synchronized boolean addStock(String sku, int qty, String by, String notes) {
-            InventoryItem item = items.get(sku);
-            if (item == null) return false;
-            item.quantity += qty;
-            log(new TransactionRec(newTxnId(), LocalDateTime.now(), item.sku, item.name, TxnType.ADD_STOCK, qty, by, notes));
-            return true;
+        // Fails if another process (the desktop app or the server), or another open here, has dir open already.
+        public static InventoryModel open(Path dir, String location, TxnJournal.FsyncPolicy policy) throws IOException {
+            Files.createDirectories(dir);
+            FileChannel lock = lockDir(dir);
+            try {
+                migrateSingleFileJournal(dir);
+                return new InventoryModel(location, policy, dir, lock, SnapshotStore.loadLatest(dir));
+            } catch (IOException | RuntimeException ex) {
+                lock.close();
+                throw ex;
+            }
         }
 
-        public synchronized boolean removeStock(String sku, int qty, String by, String notes) {
-            InventoryItem item = items.get(sku);
-            if (item == null || qty > item.quantity) return false;
-            item.quantity -= qty;
-            log(new TransactionRec(newTxnId(), LocalDateTime.now(), item.sku, item.name, TxnType.REMOVE_STOCK, -qty, by, notes));
-            return true;
+        // The OS drops the lock if the process dies, so a crash never leaves the directory locked.
+        private static FileChannel lockDir(Path dir) throws IOException {
+            FileChannel ch = FileChannel.open(dir.resolve(".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                if (ch.tryLock() != null) return ch;
+            } catch (java.nio.channels.OverlappingFileLockException alreadyOpenHere) {
+                // reported below, as for another process
+            } catch (IOException | RuntimeException ex) {
+                ch.close();
+                throw ex;
+            }
+            ch.close();
+            throw new IOException(dir + " is already open, in the desktop app, the server or this process");
         }
 
-        public synchronized InventoryItem findBySku(String sku) {
-            return items.get(sku);
+        // Directories written before journals were segmented hold a single journal.log starting at TXN-1.
+        private static void migrateSingleFileJournal(Path dir) throws IOException {
+            Path legacy = dir.resolve("journal.log");
+            if (!Files.exists(legacy) || Files.exists(dir.resolve("journal"))) return;
+            Files.createDirectories(dir.resolve("journal"));
+            Files.move(legacy, dir.resolve("journal").resolve(String.format("segment-%020d.log", 1L)));
         }
 
-        private String newTxnId() {
-            return "TXN-" + (transactions.size() + 1);
+        private void seedDemoData() {
+            addItem(new InventoryItem("SKU-1001", "USB-C Cable 1m", "Accessories", 120, 199.00, 40), "system");
+            addItem(new InventoryItem("SKU-1002", "Wireless Mouse", "Peripherals", 45, 899.00, 15), "system");
+            addItem(new InventoryItem("SKU-1003", "Mechanical Keyboard", "Peripherals", 22, 3499.00, 25), "system");
+            addStock("SKU-1002", 10, "system", "Initial stock top-up");
+            removeStock("SKU-1001", 5, "system", "Damaged pieces");
         }
 
-        private void log(TransactionRec rec) { transactions.add(rec); }
+        public java.util.List<InventoryItem> getAllItems() {
+            synchronized (rows) { return new ArrayList<>(rows); }
+        }
 
-        public String now() { return LocalDateTime.now().format(fmt); }
+        public int itemCount() {
+            synchronized (rows) { return rows.size(); }
+        }
+        public InventoryItem itemAt(int row) {
+            synchronized (rows) { return row < rows.size() ? rows.get(row) : null; }
+        }
+        public int indexOfSku(String sku) {
+            synchronized (rows) {
+                Integer row = rowIndex.get(sku);
+                return row == null ? -1 : row;
+            }
+        }
+        public int transactionCount() { return (int) txnLog.size(); }
+        public TransactionRec transactionAt(int index) { return txnLog.get(txnLog.firstSeq() + index); }
 
-        public double totalInventoryValue() {
-            return items.values().stream().mapToDouble(i -> i.price * i.quantity).sum();
+        // Newest first, at most limit transactions older than the cursor before (Long.MAX_VALUE for the newest).
+        public TxnPage queryTransactions(TxnQuery q, long before, int limit) {
+            long start = System.nanoTime();
+            TxnPage page = txnIndex.query(q, before, limit);
+            QUERY_TXNS.record(start);
+            return page;
         }
 
-        public int totalUnits() {
-            return items.values().stream().mapToInt(i -> i.quantity).sum();
+        // Mutators log under the SKU's stripe lock but wait for durability after releasing it, so fsyncs of concurrent callers share a batch.
+        public boolean addItem(InventoryItem item, String by) {
+            long start = System.nanoTime();
+            long seq;
+            ReentrantLock lock = stripeFor(item.sku);
+            acquire(lock);
+            try {
+                if (items.containsKey(item.sku)) return ADD_ITEM.rejected(start);
+                seq = txnLog.claim();
+                putRow(item, seq);
+                log(seq, item, TxnType.NEW_ITEM, item.quantity, by, "Created item");
+            } finally {
+                lock.unlock();
+            }
+            awaitDurable(seq);
+            return ADD_ITEM.ok(start);
         }
-    }
 
-    // ----------------------- Authentication -----------------------
-    static class LoginDialog extends JDialog {
-        private boolean authenticated = false;
-        private User user;
-        private final JTextField tfUser = new JTextField(15);
-        private final JPasswordField pfPass = new JPasswordField(15);
-        private final Map<String, String> userPass = new HashMap<>();
-        private final Map<String, User> userInfo = new HashMap<>();
+        // Replaces the item outright, quantity included, whatever changed since the caller read it.
+        public boolean updateItem(InventoryItem item, String by) {
+            long start = System.nanoTime();
+            long seq;
+            ReentrantLock lock = stripeFor(item.sku);
+            acquire(lock);
+            try {
+                InventoryItem existing = items.get(item.sku);
+                if (existing == null) return UPDATE_ITEM.rejected(start);
+                int qtyDelta = item.quantity - existing.quantity;
+                seq = txnLog.claim();
+                putRow(item, seq);
+                log(seq, item, TxnType.UPDATE_ITEM, qtyDelta, by, "Updated item details");
+            } finally {
+                lock.unlock();
+            }
+            awaitDurable(seq);
+            return UPDATE_ITEM.ok(start);
+        }
 
-        public LoginDialog(Frame owner) {
-            super(owner, "Login", true);
-            seedUsers();
-            buildUI();
+        // Replaces an item's details only if they are still at the version the caller read, and moves its stock by
+        // qtyDelta from whatever it holds now. Stock movements leave the version alone, so a clerk's receipt and
+        // another's rename both land instead of one overwriting the other; only two edits of the details conflict.
+        // The check is made under the SKU's stripe lock, which every writer of the item already takes.
+        public BatchResult updateItem(InventoryItem details, long expectedVersion, int qtyDelta, String by) {
+            long start = System.nanoTime();
+            long seq;
+            ReentrantLock lock = stripeFor(details.sku);
+            acquire(lock);
+            try {
+                InventoryItem existing = items.get(details.sku);
+                if (existing == null) {
+                    UPDATE_ITEM.rejected(start);
+                    return BatchResult.rejected("Unknown SKU " + details.sku);
+                }
+                if (existing.version != expectedVersion) {
+                    UPDATE_CONFLICTS.increment();
+                    UPDATE_ITEM.rejected(start);
+                    return BatchResult.rejected(details.sku + " was changed by someone else after it was read");
+                }
+                if (existing.quantity + (long) qtyDelta < 0) {
+                    UPDATE_ITEM.rejected(start);
+                    return BatchResult.rejected("Not enough stock for " + details.sku + ": have " + existing.quantity + ", edit removes " + (-qtyDelta));
+                }
+                InventoryItem item = new InventoryItem(details.sku, details.name, details.category, existing.quantity + qtyDelta, details.price, details.reorderPoint);
+                seq = txnLog.claim();
+                putRow(item, seq);
+                log(seq, item, TxnType.UPDATE_ITEM, qtyDelta, by, "Updated item details");
+            } finally {
+                lock.unlock();
+            }
+            awaitDurable(seq);
+            UPDATE_ITEM.ok(start);
+            return BatchResult.applied(1);
         }
 
-        private void seedUsers() {
-            // demo users
-            userPass.put("admin", "admin123");
-            userInfo.put("admin", new User("admin", "Administrator", true));
-            userPass.put("staff", "staff123");
-            userInfo.put("staff", new User("staff", "Store Staff", false));
+        // The transaction that last set the item's details, or null if that is older than this log.
+        public TransactionRec lastEdit(InventoryItem item) {
+            return item.version == 0 ? null : txnLog.get(item.version);
         }
 
-        private void buildUI() {
-            JPanel form = new JPanel(new GridBagLayout());
-            form.setBorder(new EmptyBorder(12, 12, 12, 12));
-            GridBagConstraints gc = new GridBagConstraints();
-            gc.insets = new Insets(6,6,6,6);
-            gc.fill = GridBagConstraints.HORIZONTAL;
-            gc.gridx = 0; gc.gridy = 0; form.add(new JLabel("Username"), gc);
-            gc.gridx = 1; form.add(tfUser, gc);
-            gc.gridx = 0; gc.gridy = 1; form.add(new JLabel("Password"), gc);
-            gc.gridx = 1; form.add(pfPass, gc);
+        public boolean deleteItem(String sku, String by) {
+            long start = System.nanoTime();
+            long seq;
+            ReentrantLock lock = stripeFor(sku);
+            acquire(lock);
+            try {
+                InventoryItem removed = removeRow(sku);
+                if (removed == null) return DELETE_ITEM.rejected(start);
+                seq = log(removed, TxnType.DELETE_ITEM, -removed.quantity, by, "Deleted item");
+            } finally {
+                lock.unlock();
+            }
+            awaitDurable(seq);
+            return DELETE_ITEM.ok(start);
+        }
 
-            JButton btnLogin = new JButton("Login");
-            JButton btnCancel = new JButton("Cancel");
-            JPanel actions = new JPanel();
-            actions.add(btnLogin); actions.add(btnCancel);
-            gc.gridx = 0; gc.gridy = 2; gc.gridwidth = 2; form.add(actions, gc);
+        public boolean addStock(String sku, int qty, String by, String notes) {
+            long start = System.nanoTime();
+            long seq;
+            ReentrantLock lock = stripeFor(sku);
+            acquire(lock);
+            try {
+                InventoryItem item = items.get(sku);
+                if (item == null) return ADD_STOCK.rejected(start);
+                adjust(item, qty);
+                seq = log(item, TxnType.ADD_STOCK, qty, by, notes);
+            } finally {
+                lock.unlock();
+            }
+            awaitDurable(seq);
+            return ADD_STOCK.ok(start);
+        }
 
-            btnLogin.addActionListener(e -> authenticate());
-            btnCancel.addActionListener(e -> { authenticated = false; dispose(); });
-            getRootPane().setDefaultButton(btnLogin);
+        public boolean removeStock(String sku, int qty, String by, String notes) {
+            long start = System.nanoTime();
+            long seq;
+            ReentrantLock lock = stripeFor(sku);
+            acquire(lock);
+            try {
+                InventoryItem item = items.get(sku);
+                if (item == null || qty > item.quantity) return REMOVE_STOCK.rejected(start);
+                adjust(item, -qty);
+                seq = log(item, TxnType.REMOVE_STOCK, -qty, by, notes);
+            } finally {
+                lock.unlock();
+            }
+            awaitDurable(seq);
+            return REMOVE_STOCK.ok(start);
+        }
 
-            setContentPane(form);
-            pack();
-            setLocationRelativeTo(getOwner());
+        // Applies a receipt or pick list atomically: every line's SKU must exist and no item may end below zero,
+        // otherwise nothing is applied. Each stripe involved is locked once, the lines get one contiguous block
+        // of sequence numbers sharing a timestamp, and the journal writes them as a single frame.
+        public BatchResult applyBatch(java.util.List<StockLine> lines, String by) {
+            long start = System.nanoTime();
+            BatchResult result = doApplyBatch(lines, by);
+            if (result.ok) APPLY_BATCH.record(start); else APPLY_BATCH.rejected(start);
+            return result;
         }
 
-        private void authenticate() {
-            String u = tfUser.getText().trim();
-            String p = new String(pfPass.getPassword());
-            if (userPass.containsKey(u) && Objects.equals(userPass.get(u), p)) {
-                authenticated = true;
-                user = userInfo.get(u);
-                dispose();
-            } else {
-                JOptionPane.showMessageDialog(this, "Invalid credentials", "Login Failed", JOptionPane.ERROR_MESSAGE);
+        private BatchResult doApplyBatch(java.util.List<StockLine> lines, String by) {
+            if (lines.isEmpty()) return BatchResult.rejected("Batch has no lines");
+            boolean[] needed = new boolean[STRIPES];
+            for (int i = 0; i < lines.size(); i++) {
+                StockLine line = lines.get(i);
+                if (line.sku == null || line.delta == 0) return BatchResult.rejected("Line " + (i + 1) + ": SKU and a non-zero quantity are required");
+                needed[stripeIndex(line.sku)] = true;
+            }
+            long last;
+            for (int s = 0; s < STRIPES; s++) if (needed[s]) acquire(stripes[s]);
+            try {
+                InventoryItem[] resolved = new InventoryItem[lines.size()];
+                Map<String, Long> net = new HashMap<>();
+                for (int i = 0; i < lines.size(); i++) {
+                    StockLine line = lines.get(i);
+                    resolved[i] = items.get(line.sku);
+                    if (resolved[i] == null) return BatchResult.rejected("Line " + (i + 1) + ": unknown SKU " + line.sku);
+                    net.merge(line.sku, (long) line.delta, Long::sum);
+                }
+                for (Map.Entry<String, Long> e : net.entrySet()) {
+                    InventoryItem item = items.get(e.getKey());
+                    if (item.quantity + e.getValue() < 0)
+                        return BatchResult.rejected("Not enough stock for " + item.sku + ": have " + item.quantity + ", batch removes " + (-e.getValue()));
+                }
+                long first = txnLog.claim(lines.size());
+                LocalDateTime now = LocalDateTime.now();
+                for (int i = 0; i < lines.size(); i++) {
+                    StockLine line = lines.get(i);
+                    InventoryItem item = resolved[i];
+                    adjust(item, line.delta);
+                    TransactionRec rec = new TransactionRec("TXN-" + (first + i), now, item.sku, item.name,
+                            line.delta > 0 ? TxnType.ADD_STOCK : TxnType.REMOVE_STOCK, line.delta, by, line.notes);
+                    if (i == 0) rec.groupSize = lines.size();
+                    publish(first + i, rec);
+                }
+                last = first + lines.size() - 1;
+            } finally {
+                for (int s = STRIPES - 1; s >= 0; s--) if (needed[s]) stripes[s].unlock();
             }
+            awaitDurable(last);
+            return BatchResult.applied(lines.size());
         }
 
-        public boolean isAuthenticated() { return authenticated; }
-        public User getAuthenticatedUser() { return user; }
-    }
-
-    // ----------------------- Main UI -----------------------
-    static class MainFrame extends JFrame {
-        private final InventoryModel model = new InventoryModel();
-        private final User currentUser;
-        private final JTable tblItems = new JTable();
-        private final JTable tblTxns = new JTable();
-        private final DefaultTableModel itemsModel = new DefaultTableModel(new Object[]{"SKU", "Name", "Category", "Qty", "Price"}, 0) {
-            @Override public boolean isCellEditable(int row, int col) { return false; }
-        };
-        private final DefaultTableModel txnsModel = new DefaultTableModel(new Object[]{"ID", "Time", "SKU", "Item", "Type", "QtyΔ", "By", "Notes"}, 0) {
-            @Override public boolean isCellEditable(int row, int col) { return false; }
-        };
+        // Creates or replaces every item of a bulk import, in list order: SKUs not in the catalog get a NEW_ITEM
+        // record, the rest an UPDATE_ITEM carrying the quantity change. The list must not repeat a SKU (CatalogImport
+        // checks). Items are applied IMPORT_GROUP at a time, each group under its stripes with one block of sequence
+        // numbers and one journal frame, so other writers get a turn in between and a crash keeps whole groups only.
+        // Waits for the journal once, after the last group. An import that replaces much of a large catalog drops
+        // the search index and rebuilds it in the background afterwards, which costs far less than updating it item by item.
+        public ImportResult importItems(java.util.List<InventoryItem> catalog, String by, ReportProgress progress) {
+            long start = System.nanoTime();
+            int created = 0;
+            long last = 0;
+            if (progress != null) { progress.unit = "items applied"; progress.done = 0; progress.total = catalog.size(); }
+            boolean reindex = catalog.size() >= REINDEX_OVER && catalog.size() >= items.size() / 2;
+            if (reindex) index.reset();
+            for (int from = 0; from < catalog.size(); from += IMPORT_GROUP) {
+                java.util.List<InventoryItem> group = catalog.subList(from, Math.min(catalog.size(), from + IMPORT_GROUP));
+                boolean[] needed = new boolean[STRIPES];
+                for (InventoryItem item : group) needed[stripeIndex(item.sku)] = true;
+                for (int s = 0; s < STRIPES; s++) if (needed[s]) acquire(stripes[s]);
+                try {
+                    long first = txnLog.claim(group.size());
+                    LocalDateTime now = LocalDateTime.now();
+                    for (int i = 0; i < group.size(); i++) {
+                        InventoryItem item = group.get(i);
+                        InventoryItem existing = items.get(item.sku);
+                        putRow(item, first + i);
+                        TransactionRec rec = existing == null
+                                ? new TransactionRec("TXN-" + (first + i), now, item.sku, item.name, TxnType.NEW_ITEM, item.quantity, by, "Imported item")
+                                : new TransactionRec("TXN-" + (first + i), now, item.sku, item.name, TxnType.UPDATE_ITEM, item.quantity - existing.quantity, by, "Updated by import");
+                        rec.withDetails(item);
+                        if (i == 0) rec.groupSize = group.size();
+                        if (existing == null) created++;
+                        publish(first + i, rec);
+                    }
+                    last = first + group.size() - 1;
+                } finally {
+                    for (int s = STRIPES - 1; s >= 0; s--) if (needed[s]) stripes[s].unlock();
+                }
+                if (progress != null) progress.done = from + group.size();
+            }
+            if (reindex) buildIndexInBackground();
+            awaitDurable(last);
+            IMPORT_ITEMS.record(start);
+            return new ImportResult(created, catalog.size() - created);
+        }
 
-        // Form fields
-        private final JTextField tfSku = new JTextField(12);
-        private final JTextField tfName = new JTextField(18);
-        private final JTextField tfCat = new JTextField(12);
-        private final JSpinner spQty = new JSpinner(new SpinnerNumberModel(0, 0, 1_000_000, 1));
-        private final JSpinner spPrice = new JSpinner(new SpinnerNumberModel(0.0, 0.0, 1_000_000.0, 1.0));
+        // Moves qty units of sku between two locations as a TRANSFER_OUT / TRANSFER_IN pair, each naming the other.
+        // The SKU's stripe is held in both shards (in location order, so opposite transfers cannot deadlock) while
+        // both halves are applied and published, so neither shard shows one half without the other. The destination
+        // takes on the source's item details if it does not stock the SKU yet. Callers go through Warehouses.transfer,
+        // which waits for durability with the sequence numbers left in seqs (out, in) once it holds no lock.
+        static BatchResult transfer(InventoryModel from, InventoryModel to, String sku, int qty, String by, String notes, long[] seqs) {
+            long start = System.nanoTime();
+            BatchResult result = doTransfer(from, to, sku, qty, by, notes, seqs);
+            if (result.ok) TRANSFER.record(start); else TRANSFER.rejected(start);
+            return result;
+        }
 
-        private final JLabel lblSummary = new JLabel();
+        private static BatchResult doTransfer(InventoryModel from, InventoryModel to, String sku, int qty, String by, String notes, long[] seqs) {
+            if (from == to) return BatchResult.rejected("Pick a different destination");
+            if (qty <= 0) return BatchResult.rejected("Transfer quantity must be positive");
+            boolean fromFirst = from.location.compareTo(to.location) < 0;
+            ReentrantLock first = (fromFirst ? from : to).stripeFor(sku), second = (fromFirst ? to : from).stripeFor(sku);
+            long outSeq, inSeq;
+            acquire(first);
+            acquire(second);
+            try {
+                InventoryItem item = from.items.get(sku);
+                if (item == null) return BatchResult.rejected("Unknown SKU " + sku + " at " + from.location);
+                if (qty > item.quantity) return BatchResult.rejected("Not enough stock at " + from.location + ": have " + item.quantity + ", transfer needs " + qty);
+                InventoryItem dest = to.items.get(sku);
+                outSeq = from.txnLog.claim();
+                inSeq = to.txnLog.claim();
+                LocalDateTime now = LocalDateTime.now();
+                from.adjust(item, -qty);
+                if (dest == null) to.putRow(dest = new InventoryItem(sku, item.name, item.category, qty, item.price, item.reorderPoint), inSeq);
+                else to.adjust(dest, qty);
+                from.publish(outSeq, new TransactionRec("TXN-" + outSeq, now, sku, item.name, TxnType.TRANSFER_OUT, -qty, by, notes)
+                        .withDetails(item).withPeer(to.location, inSeq));
+                to.publish(inSeq, new TransactionRec("TXN-" + inSeq, now, sku, dest.name, TxnType.TRANSFER_IN, qty, by, notes)
+                        .withDetails(dest).withPeer(from.location, outSeq));
+            } finally {
+                second.unlock();
+                first.unlock();
+            }
+            seqs[0] = outSeq;
+            seqs[1] = inSeq;
+            return BatchResult.applied(2);
+        }
 
-        public MainFrame(User user) {
-            super("Inventory Management System");
-            this.currentUser = user;
-            setDefaultCloseOperation(EXIT_ON_CLOSE);
-            setSize(1000, 650);
-            setLocationRelativeTo(null);
-            buildMenuBar();
-            buildContent();
-            refreshTables();
-            updateSummary();
+        // Undoes a transfer half whose partner the other location's journal lost in a crash, with a stock movement
+        // that names the half (see Warehouses.reconcile). Stock put back is capped at what is on hand.
+        void reverseTransfer(TransactionRec half) {
+            long seq;
+            ReentrantLock lock = stripeFor(half.sku);
+            acquire(lock);
+            try {
+                InventoryItem item = items.get(half.sku);
+                int delta = item == null ? 0 : half.qtyDelta < 0 ? -half.qtyDelta : -Math.min(half.qtyDelta, item.quantity);
+                if (item != null) adjust(item, delta);
+                seq = txnLog.claim();
+                publish(seq, new TransactionRec("TXN-" + seq, LocalDateTime.now(), half.sku, half.itemName,
+                        half.qtyDelta < 0 ? TxnType.ADD_STOCK : TxnType.REMOVE_STOCK, delta, "system",
+                        "Reversed " + half.id + ": " + half.peerLocation + " lost its half of the transfer").withPeer(location, half.seq()));
+            } finally {
+                lock.unlock();
+            }
+            awaitDurable(seq);
         }
 
-        private void buildMenuBar() {
-            JMenuBar bar = new JMenuBar();
-            JMenu file = new JMenu("File");
-            JMenuItem printItems = new JMenuItem("Print Items Table...");
-            JMenuItem printTxns = new JMenuItem("Print Transactions Table...");
-            JMenuItem exit = new JMenuItem("Exit");
-            printItems.addActionListener(e -> printTable(tblItems, "Inventory Items"));
-            printTxns.addActionListener(e -> printTable(tblTxns, "Transactions"));
-            exit.addActionListener(e -> dispose());
-            file.add(printItems); file.add(printTxns); file.addSeparator(); file.add(exit);
+        long lastSeq() { return txnLog.lastSeq(); }
 
-            JMenu help = new JMenu("Help");
-            JMenuItem about = new JMenuItem("About");
-            about.addActionListener(e -> JOptionPane.showMessageDialog(this,
-                    "Inventory Management System\nCRUD + Auth + Printable Reports\nLogged in as: " + currentUser.fullName,
-                    "About", JOptionPane.INFORMATION_MESSAGE));
-            help.add(about);
+        // Transfer halves and reversals replayed by open(); handed out once.
+        java.util.List<TransactionRec> takeReplayedTransfers() {
+            java.util.List<TransactionRec> out = new ArrayList<>(replayedTransfers);
+            replayedTransfers.clear();
+            return out;
+        }
 
-            bar.add(file);
-            bar.add(Box.createHorizontalGlue());
-            bar.add(new JLabel("  User: " + currentUser.fullName + (currentUser.isAdmin?" (Admin)":"")));
-            bar.add(help);
-            setJMenuBar(bar);
+        public InventoryItem findBySku(String sku) {
+            return items.get(sku);
         }
 
-        private void buildContent() {
-            JTabbedPane tabs = new JTabbedPane();
-            tabs.addTab("Inventory", inventoryPanel());
-            tabs.addTab("Transactions", transactionsPanel());
-            tabs.addTab("Reports", reportsPanel());
-            add(tabs, BorderLayout.CENTER);
+        // Index-backed search; see InventoryIndex.search for the query syntax.
+        public java.util.List<InventoryItem> search(String query, int limit) {
+            long start = System.nanoTime();
+            java.util.List<InventoryItem> found = index.search(query, limit, items);
+            SEARCH.record(start);
+            return found;
         }
 
-        private JPanel inventoryPanel() {
-            JPanel root = new JPanel(new BorderLayout(8,8));
-            root.setBorder(new EmptyBorder(10,10,10,10));
+        public boolean isIndexed() { return index.isComplete(); }
 
-            // Table
-            tblItems.setModel(itemsModel);
-            tblItems.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-            JScrollPane sp = new JScrollPane(tblItems);
+        // Items with quantity below threshold, lowest first.
+        public java.util.List<InventoryItem> lowStock(int threshold, int limit) {
+            return index.search("qty<" + threshold, limit, items);
+        }
 
-            // Form
-            JPanel form = new JPanel(new GridBagLayout());
-            form.setBorder(BorderFactory.createTitledBorder("Item Details"));
-            GridBagConstraints gc = new GridBagConstraints();
-            gc.insets = new Insets(4,4,4,4);
-            gc.fill = GridBagConstraints.HORIZONTAL;
-            gc.gridx = 0; gc.gridy = 0; form.add(new JLabel("SKU"), gc);
-            gc.gridx = 1; form.add(tfSku, gc);
-            gc.gridx = 0; gc.gridy = 1; form.add(new JLabel("Name"), gc);
-            gc.gridx = 1; form.add(tfName, gc);
-            gc.gridx = 0; gc.gridy = 2; form.add(new JLabel("Category"), gc);
-            gc.gridx = 1; form.add(tfCat, gc);
-            gc.gridx = 0; gc.gridy = 3; form.add(new JLabel("Quantity"), gc);
-            gc.gridx = 1; form.add(spQty, gc);
-            gc.gridx = 0; gc.gridy = 4; form.add(new JLabel("Price"), gc);
-            gc.gridx = 1; form.add(spPrice, gc);
+        // Items at or below their reorder point, most urgent first; O(n) however large the catalog is.
+        public java.util.List<InventoryItem> mostUrgent(int n) {
+            java.util.List<InventoryItem> out = new ArrayList<>();
+            for (String sku : reorder.mostUrgent(n)) {
+                InventoryItem it = items.get(sku);
+                if (it != null) out.add(it);
+            }
+            return out;
+        }
 
-            JButton btnNew = new JButton("Create");
-            JButton btnUpdate = new JButton("Update");
-            JButton btnDelete = new JButton("Delete");
-            JButton btnClear = new JButton("Clear");
-            JPanel actions = new JPanel();
-            actions.add(btnNew); actions.add(btnUpdate); actions.add(btnDelete); actions.add(btnClear);
+        // Size and growth gauges, labelled with the location; a model registering again replaces its own.
+        public void registerMetrics(Metrics m) {
+            String labels = "location=\"" + location + "\"";
+            m.gauge("inventory_items", labels, "Items in the catalog.", () -> items.size());
+            m.gauge("inventory_low_stock_items", labels, "Items at or below their reorder point.", () -> reorder.lowCount());
+            m.counterFunction("inventory_transactions_total", labels, "Transactions appended to the log since it began.", txnLog::lastSeq);
+            m.gauge("inventory_transactions_in_memory", labels, "Transactions held by the in-memory log.", txnLog::size);
+            if (history != null) m.gauge("inventory_history_bytes", labels, "Bytes of transaction history sealed off the heap.", history::bytes);
+        }
 
-            gc.gridx = 0; gc.gridy = 5; gc.gridwidth = 2; form.add(actions, gc);
+        public int lowStockCount() { return reorder.lowCount(); }
+        public void addLowStockListener(LowStockListener l) { reorder.addListener(l); }
+        public void removeLowStockListener(LowStockListener l) { reorder.removeListener(l); }
 
-            // Stock adjustments
-            JPanel stock = new JPanel();
-            stock.setBorder(BorderFactory.createTitledBorder("Stock"));
-            JSpinner spAdj = new JSpinner(new SpinnerNumberModel(1, 1, 1_000_000, 1));
-            JTextField tfNotes = new JTextField(16);
-            JButton btnAdd = new JButton("Add Stock");
-            JButton btnRemove = new JButton("Remove Stock");
-            stock.add(new JLabel("Qty:")); stock.add(spAdj);
-            stock.add(new JLabel("Notes:")); stock.add(tfNotes);
-            stock.add(btnAdd); stock.add(btnRemove);
+        // Returns the row count the listener's calls start from.
+        public int addRowsListener(RowsListener l) {
+            synchronized (rows) {
+                rowsListeners.add(l);
+                return rows.size();
+            }
+        }
+        public void removeRowsListener(RowsListener l) { rowsListeners.remove(l); }
 
-            JPanel right = new JPanel(new BorderLayout(8,8));
-            right.add(form, BorderLayout.CENTER);
-            right.add(stock, BorderLayout.SOUTH);
+        private ReentrantLock stripeFor(String sku) {
+            return stripes[stripeIndex(sku)];
+        }
 
-            // Events
-            btnNew.addActionListener(e -> doCreate());
-            btnUpdate.addActionListener(e -> doUpdate());
-            btnDelete.addActionListener(e -> doDelete());
-            btnClear.addActionListener(e -> clearForm());
-            btnAdd.addActionListener(e -> doAdjustStock(true, (Integer) spAdj.getValue(), tfNotes.getText()));
-            btnRemove.addActionListener(e -> doAdjustStock(false, (Integer) spAdj.getValue(), tfNotes.getText()));
+        // Waits are only timed when tryLock fails, so an uncontended acquisition costs one counter bump.
+        private static void acquire(ReentrantLock lock) {
+            LOCKS_ACQUIRED.increment();
+            if (lock.tryLock()) return;
+            long start = System.nanoTime();
+            lock.lock();
+            LOCK_WAIT.record(System.nanoTime() - start);
+        }
 
-            tblItems.getSelectionModel().addListSelectionListener(e -> {
-                if (!e.getValueIsAdjusting()) fillFormFromSelection();
-            });
+        private static int stripeIndex(String sku) {
+            int h = sku.hashCode();
+            return (h ^ (h >>> 16)) & (STRIPES - 1);
+        }
 
-            root.add(sp, BorderLayout.CENTER);
-            root.add(right, BorderLayout.EAST);
-            return root;
+        // Takes every stripe in index order, which freezes all mutations for a consistent cut.
+        private void lockAll() { for (ReentrantLock l : stripes) acquire(l); }
+        private void unlockAll() { for (int i = STRIPES - 1; i >= 0; i--) stripes[i].unlock(); }
+
+        // Callers hold the SKU's stripe lock.
+        // Publishes item as the SKU's current row; version is the sequence number of the transaction it comes from.
+        private void putRow(InventoryItem item, long version) {
+            item.version = version;
+            synchronized (rows) {
+                Integer row = rowIndex.get(item.sku);
+                if (row == null) {
+                    rowIndex.put(item.sku, rows.size());
+                    rows.add(item);
+                    for (RowsListener l : rowsListeners) l.rowAdded(rows.size() - 1);
+                } else {
+                    rows.set(row, item);
+                }
+            }
+            InventoryItem previous = items.put(item.sku, item);
+            if (previous != null) { account(previous, -1); index.remove(previous); }
+            account(item, 1);
+            index.add(item);
+            reorder.update(previous, previous == null ? 0 : previous.quantity, item);
         }
 
-        private JPanel transactionsPanel() {
-            JPanel root = new JPanel(new BorderLayout(8,8));
-            root.setBorder(new EmptyBorder(10,10,10,10));
-            tblTxns.setModel(txnsModel);
-            tblTxns.setAutoCreateRowSorter(true);
-            JScrollPane sp = new JScrollPane(tblTxns);
+        private InventoryItem removeRow(String sku) {
+            InventoryItem removed = items.remove(sku);
+            if (removed == null) return null;
+            account(removed, -1);
+            index.remove(removed);
+            reorder.update(removed, removed.quantity, null);
+            synchronized (rows) {
+                int row = rowIndex.remove(sku);
+                InventoryItem last = rows.remove(rows.size() - 1);
+                if (last != removed) { rows.set(row, last); rowIndex.put(last.sku, row); }
+                for (RowsListener l : rowsListeners) l.rowRemoved(row, rows.size());
+            }
+            return removed;
+        }
 
-            JButton btnPrint = new JButton("Print Transactions...");
-            btnPrint.addActionListener(e -> printTable(tblTxns, "Transactions"));
-            JPanel south = new JPanel(new BorderLayout());
-            south.add(btnPrint, BorderLayout.EAST);
+        private void adjust(InventoryItem item, int delta) {
+            int old = item.quantity;
+            item.quantity = old + delta;
+            index.quantityChanged(item, old);
+            reorder.update(item, old, item);
+            int s = stripeIndex(item.sku);
+            long value = delta * item.priceMinor();
+            stripeTotals[s].add(0, delta, value);
+            categoryTotals(s, item.category).add(0, delta, value);
+            liveUnits.add(delta);
+            liveValue.add(value);
+        }
 
-            root.add(sp, BorderLayout.CENTER);
-            root.add(south, BorderLayout.SOUTH);
-            return root;
+        // Adds (sign 1) or takes away (sign -1) an item's whole contribution to the running totals.
+        private void account(InventoryItem item, int sign) {
+            int s = stripeIndex(item.sku);
+            long units = sign * (long) item.quantity;
+            long value = units * item.priceMinor();
+            stripeTotals[s].add(sign, units, value);
+            liveItems.add(sign);
+            liveUnits.add(units);
+            liveValue.add(value);
+            Totals category = categoryTotals(s, item.category);
+            category.add(sign, units, value);
+            if (category.items == 0) stripeCategories.get(s).remove(categoryKey(item.category));
         }
 
-        private JPanel reportsPanel() {
-            JPanel root = new JPanel(new BorderLayout(8,8));
-            root.setBorder(new EmptyBorder(10,10,10,10));
-            JPanel card = new JPanel();
-            card.setLayout(new BoxLayout(card, BoxLayout.Y_AXIS));
-            JLabel title = new JLabel("Inventory Summary Report");
-            title.setFont(title.getFont().deriveFont(Font.BOLD, 18f));
-            title.setAlignmentX(Component.LEFT_ALIGNMENT);
+        private Totals categoryTotals(int stripe, String category) {
+            return stripeCategories.get(stripe).computeIfAbsent(categoryKey(category), k -> new Totals());
+        }
 
-            lblSummary.setAlignmentX(Component.LEFT_ALIGNMENT);
-            JButton btnRefresh = new JButton("Refresh");
-            btnRefresh.addActionListener(e -> updateSummary());
-            JButton btnPrintReport = new JButton("Print This Report...");
-            btnPrintReport.addActionListener(e -> printComponent(card));
+        private static String categoryKey(String category) { return category == null ? "" : category; }
 
-            JPanel header = new JPanel(new FlowLayout(FlowLayout.LEFT));
-            header.add(btnRefresh);
-            header.add(btnPrintReport);
-            header.setAlignmentX(Component.LEFT_ALIGNMENT);
+        // A consistent cut of the running totals: O(stripes + categories), independent of the number of items.
+        public TotalsSnapshot totals() {
+            long start = System.nanoTime();
+            TotalsSnapshot out = new TotalsSnapshot();
+            lockAll();
+            try {
+                for (int s = 0; s < STRIPES; s++) {
+                    Totals t = stripeTotals[s];
+                    out.overall.add(t.items, t.units, t.valueMinor);
+                    for (Map.Entry<String, Totals> e : stripeCategories.get(s).entrySet()) {
+                        Totals c = e.getValue();
+                        out.byCategory.computeIfAbsent(e.getKey(), k -> new Totals()).add(c.items, c.units, c.valueMinor);
+                    }
+                }
+            } finally {
+                unlockAll();
+            }
+            TOTALS.record(start);
+            return out;
+        }
 
-            JTable tbl = tblItems; // reuse items table view in a read-only way for report printing if needed.
+        // The overall running totals without taking a lock, in O(1): for views refreshed many times a second. The three
+        // figures are read one after another, so they may straddle a mutation in flight; totals() is the consistent cut.
+        public Totals liveTotals() {
+            Totals out = new Totals();
+            out.add((int) liveItems.sum(), liveUnits.sum(), liveValue.sum());
+            return out;
+        }
 
-            card.add(title);
-            card.add(Box.createVerticalStrut(6));
-            card.add(lblSummary);
-            card.add(Box.createVerticalStrut(10));
+        // Applies a journaled transaction without logging it again; runs single-threaded while the model opens.
+        private void replay(TransactionRec rec) {
+            InventoryItem item = items.get(rec.sku);
+            switch (rec.type) {
+                case NEW_ITEM: putRow(new InventoryItem(rec.sku, rec.itemName, rec.category, rec.qtyDelta, rec.price, rec.reorderPoint), rec.seq()); break;
+                case UPDATE_ITEM: putRow(new InventoryItem(rec.sku, rec.itemName, rec.category, (item == null ? 0 : item.quantity) + rec.qtyDelta, rec.price, rec.reorderPoint), rec.seq()); break;
+                case DELETE_ITEM: removeRow(rec.sku); break;
+                case TRANSFER_IN:
+                    if (item == null) { putRow(new InventoryItem(rec.sku, rec.itemName, rec.category, rec.qtyDelta, rec.price, rec.reorderPoint), rec.seq()); break; }
+                    adjust(item, rec.qtyDelta);
+                    break;
+                default: if (item != null) adjust(item, rec.qtyDelta);
+            }
+            long seq = txnLog.claim();
+            if (seq != rec.seq()) throw new IllegalStateException("Journal gap: expected TXN-" + seq + " but found " + rec.id);
+            if (rec.peerLocation != null) replayedTransfers.add(rec);
+            publish(seq, rec);
+        }
 
-            JTextArea tips = new JTextArea("Tips:\n- Use File > Print Items Table to get a tabular items report.\n- Use File > Print Transactions Table to get a movement/transactions report.\n- This summary card itself can be printed using the button above.");
-            tips.setEditable(false);
-            tips.setOpaque(false);
-            tips.setAlignmentX(Component.LEFT_ALIGNMENT);
-            card.add(tips);
+        // Claims the next sequence number and publishes the record; callers hold the SKU's stripe lock,
+        // so records of one SKU are always numbered in the order they were applied.
+        private long log(InventoryItem item, TxnType type, int qtyDelta, String by, String notes) {
+            long seq = txnLog.claim();
+            log(seq, item, type, qtyDelta, by, notes);
+            return seq;
+        }
 
-            root.add(card, BorderLayout.CENTER);
-            return root;
+        private void log(long seq, InventoryItem item, TxnType type, int qtyDelta, String by, String notes) {
+            TransactionRec rec = new TransactionRec("TXN-" + seq, LocalDateTime.now(), item.sku, item.name, type, qtyDelta, by, notes);
+            if (type == TxnType.NEW_ITEM || type == TxnType.UPDATE_ITEM) rec.withDetails(item);
+            publish(seq, rec);
         }
 
-        // ----------------------- Actions -----------------------
-        private void doCreate() {
-            String sku = tfSku.getText().trim();
-            String name = tfName.getText().trim();
-            String cat = tfCat.getText().trim();
-            int qty = (Integer) spQty.getValue();
-            double price = ((Number) spPrice.getValue()).doubleValue();
-            if (sku.isEmpty() || name.isEmpty()) { toast("SKU and Name are required"); return; }
-            boolean ok = model.addItem(new InventoryItem(sku, name, cat, qty, price), currentUser.username);
-            if (!ok) { toast("Item with SKU already exists"); return; }
-            refreshTables(); clearForm();
-            toast("Item created");
+        // Stamps the record with this location, indexes it and makes it visible; seq was claimed by the caller.
+        private void publish(long seq, TransactionRec rec) {
+            rec.location = location;
+            txnIndex.add(seq, rec.sku);
+            txnLog.publish(seq, rec);
         }
 
-        private void doUpdate() {
-            String sku = tfSku.getText().trim();
-            if (model.findBySku(sku) == null) { toast("Item not found"); return; }
-            String name = tfName.getText().trim();
-            String cat = tfCat.getText().trim();
-            int qty = (Integer) spQty.getValue();
-            double price = ((Number) spPrice.getValue()).doubleValue();
-            boolean ok = model.updateItem(new InventoryItem(sku, name, cat, qty, price), currentUser.username);
-            if (!ok) { toast("Update failed"); return; }
-            refreshTables();
-            toast("Item updated");
+        private void maybeSnapshot() {
+            if (txnLog.lastSeq() - snapshotSeq < SNAPSHOT_EVERY) return;
+            try {
+                snapshotNow();
+            } catch (IOException | RuntimeException ex) {
+                System.err.println("Snapshot failed: " + ex);
+            }
         }
 
-        private void doDelete() {
-            if (!currentUser.isAdmin) { toast("Only Admin can delete items"); return; }
-            String sku = tfSku.getText().trim();
-            if (sku.isEmpty()) { toast("Enter SKU to delete"); return; }
-            int res = JOptionPane.showConfirmDialog(this, "Delete item " + sku + "?", "Confirm", JOptionPane.YES_NO_OPTION);
-            if (res == JOptionPane.YES_OPTION) {
-                boolean ok = model.deleteItem(sku, currentUser.username);
-                if (!ok) { toast("Delete failed"); return; }
-                refreshTables(); clearForm();
-                toast("Item deleted");
+        // Writes a snapshot of the current items and archives journal segments that the retained snapshots cover.
+        // The image is copied with every stripe held; encoding and I/O happen after they are released. It is only
+        // written once the journal holds every record it covers, and the other locations' journals every partner of
+        // a transfer half it covers, so a crash can never lose history a snapshot has folded away.
+        public void snapshotNow() throws IOException {
+            if (journal == null) return;
+            long start = System.nanoTime();
+            long seq;
+            InventoryItem[] image;
+            lockAll();
+            try {
+                seq = txnLog.lastSeq();
+                if (seq == snapshotSeq) return;
+                synchronized (rows) {
+                    image = new InventoryItem[rows.size()];
+                    for (int i = 0; i < image.length; i++) {
+                        InventoryItem it = rows.get(i);
+                        image[i] = new InventoryItem(it.sku, it.name, it.category, it.quantity, it.price, it.reorderPoint);
+                    }
+                }
+            } finally {
+                unlockAll();
             }
+            journal.awaitWritten(seq);
+            awaitTransferPartners(snapshotSeq, seq);
+            SnapshotStore.write(dir, seq, image);
+            snapshotSeq = seq;
+            journal.requestRoll();
+            journal.archiveThrough(SnapshotStore.prune(dir));
+            SNAPSHOT.record(start);
         }
 
-        private void doAdjustStock(boolean add, int qty, String notes) {
-            String sku = tfSku.getText().trim();
-            if (model.findBySku(sku) == null) { toast("Select or enter a valid SKU first"); return; }
-            boolean ok;
-            if (add) ok = model.addStock(sku, qty, currentUser.username, notes);
-            else ok = model.removeStock(sku, qty, currentUser.username, notes);
-            if (!ok) { toast("Stock adjustment failed"); return; }
-            refreshTables();
-            toast((add?"Added ":"Removed ") + qty + " units");
+        // Waits for the journal of each location a transfer half in (after, through] names to hold that half's partner.
+        private void awaitTransferPartners(long after, long through) {
+            java.util.function.Function<String, InventoryModel> locations = peers;
+            if (locations == null) return;
+            Map<String, Long> partners = new HashMap<>();
+            for (long seq = Math.max(after, txnLog.firstSeq() - 1) + 1; seq <= through; seq++) {
+                TransactionRec r = txnLog.get(seq);
+                if (r.type == TxnType.TRANSFER_OUT || r.type == TxnType.TRANSFER_IN) partners.merge(r.peerLocation, r.peerSeq, Math::max);
+            }
+            for (Map.Entry<String, Long> e : partners.entrySet()) {
+                InventoryModel peer = locations.apply(e.getKey());
+                if (peer != null && peer.journal != null) peer.journal.awaitWritten(e.getValue());
+            }
         }
 
-        private void fillFormFromSelection() {
-            int row = tblItems.getSelectedRow();
-            if (row < 0) return;
-            int modelRow = tblItems.convertRowIndexToModel(row);
-            tfSku.setText(String.valueOf(itemsModel.getValueAt(modelRow, 0)));
-            tfName.setText(String.valueOf(itemsModel.getValueAt(modelRow, 1)));
-            tfCat.setText(String.valueOf(itemsModel.getValueAt(modelRow, 2)));
-            spQty.setValue(Integer.parseInt(String.valueOf(itemsModel.getValueAt(modelRow, 3))));
-            spPrice.setValue(Double.parseDouble(String.valueOf(itemsModel.getValueAt(modelRow, 4))));
+        private void awaitDurable(long seq) {
+            if (journal == null) return;
+            long start = System.nanoTime();
+            journal.awaitDurable(seq);
+            DURABLE_WAIT.record(System.nanoTime() - start);
         }
 
-        private void clearForm() {
-            tfSku.setText(""); tfName.setText(""); tfCat.setText(""); spQty.setValue(0); spPrice.setValue(0.0);
-            tblItems.clearSelection();
+        // Stops the change subscribers and the snapshotter, then flushes and closes the journal; the in-memory state stays readable.
+        public void close() {
+            synchronized (this) {
+                if (analytics != null) analytics.close();
+                if (changeFeed != null) changeFeed.close();
+                if (changes != null) changes.close();
+            }
+            if (journal != null) {
+                snapshotter.shutdown();
+                try { snapshotter.awaitTermination(1, TimeUnit.MINUTES); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+                try { journal.close(); } catch (IOException ex) { System.err.println("Failed to close journal: " + ex.getMessage()); }
+            }
+            if (history != null) {
+                try { history.close(); } catch (IOException ex) { System.err.println("Failed to close history store: " + ex.getMessage()); }
+            }
+            if (dirLock != null) {
+                try { dirLock.close(); } catch (IOException ex) { System.err.println("Failed to release " + dir + ": " + ex.getMessage()); }
+            }
         }
 
-        private void refreshTables() {
-            // items
-            itemsModel.setRowCount(0);
-            for (InventoryItem it : model.getAllItems()) {
-                itemsModel.addRow(new Object[]{it.sku, it.name, it.category, it.quantity, String.format(Locale.US, "%.2f", it.price)});
+        public String now() { return LocalDateTime.now().format(fmt); }
+
+        // Sell-through analytics for this location, started on first use so headless runs never pay for them.
+        public synchronized StockAnalytics analytics() {
+            if (analytics == null) {
+                analytics = new StockAnalytics(this);
+                analytics.start();
             }
-            // txns
-            txnsModel.setRowCount(0);
-            DateTimeFormatter tfmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
-            for (TransactionRec t : model.getAllTransactions()) {
-                txnsModel.addRow(new Object[]{t.id, t.timestamp.format(tfmt), t.sku, t.itemName, t.type, t.qtyDelta, t.performedBy, t.notes});
+            return analytics;
+        }
+
+        // The stream of transactions this location commits, started on first use like analytics().
+        public synchronized ChangeStream changes() {
+            if (changes == null) {
+                changes = new ChangeStream(txnLog, dir == null ? null : dir.resolve("journal"), location);
+                changes.start();
             }
-            updateSummary();
+            return changes;
         }
 
-        private void updateSummary() {
-            String text = String.format("<html><body>Generated: %s<br>Total Items: %d<br>Total Units in Stock: %d<br>Total Inventory Value: ₹%,.2f</body></html>",
-                    model.now(), model.getAllItems().size(), model.totalUnits(), model.totalInventoryValue());
-            lblSummary.setText(text);
+        public java.math.BigDecimal totalInventoryValue() {
+            return totals().overall.value();
         }
 
-        private void toast(String msg) {
-            JOptionPane.showMessageDialog(this, msg);
+        public long totalUnits() {
+            return totals().overall.units;
         }
+    }
 
-        private void printTable(JTable table, String title) {
+    // Every store or warehouse is an InventoryModel shard of its own, with its own stripes, transaction log,
+    // journal and snapshots, so a busy location never contends with another. Main keeps the data directory
+    // itself, as a single-site installation always has; other locations live in locations/<name>/ beneath it.
+    // Only transfers touch two shards, and only network-wide totals wait for transfers in flight.
+    static class Warehouses implements Closeable {
+        private static final java.util.regex.Pattern NAME = java.util.regex.Pattern.compile("[A-Za-z0-9]([A-Za-z0-9 _-]{0,38}[A-Za-z0-9])?");
+
+        private final ConcurrentSkipListMap<String, InventoryModel> shards = new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER);
+        private final Path dir; // null for in-memory shards
+        private final TxnJournal.FsyncPolicy policy;
+        // Transfers share it; network totals take it exclusively, so they never count a transfer half done.
+        private final ReentrantReadWriteLock transfers = new ReentrantReadWriteLock();
+        private volatile Metrics metrics;
+
+        private Warehouses(Path dir, TxnJournal.FsyncPolicy policy) { this.dir = dir; this.policy = policy; }
+
+        // Opens Main and every location under dir, then reconciles transfers a crash left half journaled.
+        public static Warehouses open(Path dir, TxnJournal.FsyncPolicy policy) throws IOException {
+            Warehouses w = new Warehouses(dir, policy);
             try {
-                boolean done = table.print(JTable.PrintMode.FIT_WIDTH, new MessageFormatSafe(title), new MessageFormatSafe("Page - {0}"));
-                if (!done) toast("Print canceled");
-            } catch (PrinterException ex) {
-                toast("Printing failed: " + ex.getMessage());
+                w.shards.put(InventoryModel.MAIN, InventoryModel.open(dir, policy));
+                Path root = dir.resolve("locations");
+                if (Files.isDirectory(root)) {
+                    try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root, Files::isDirectory)) {
+                        for (Path d : dirs) {
+                            String name = d.getFileName().toString();
+                            if (NAME.matcher(name).matches() && !w.shards.containsKey(name)) w.shards.put(name, InventoryModel.open(d, name, policy));
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException ex) {
+                w.close();
+                throw ex;
             }
+            for (InventoryModel m : w.shards.values()) m.peers = w.shards::get;
+            w.reconcile();
+            return w;
         }
 
-        private void printComponent(JComponent comp) {
+        // Main with the demo catalog, plus empty locations; nothing is journaled.
+        public static Warehouses inMemory(String... locations) {
+            Warehouses w = new Warehouses(null, null);
+            w.shards.put(InventoryModel.MAIN, new InventoryModel());
+            for (String l : locations) w.shards.put(l, new InventoryModel(l));
+            return w;
+        }
+
+        public java.util.List<String> locations() { return new ArrayList<>(shards.keySet()); }
+
+        public InventoryModel at(String location) { return shards.get(location); }
+
+        // Creates an empty location, or returns null if the name is taken or unusable as a directory name.
+        public synchronized InventoryModel addLocation(String name) throws IOException {
+            if (name == null || !NAME.matcher(name).matches() || shards.containsKey(name)) return null;
+            InventoryModel m = dir == null ? new InventoryModel(name) : InventoryModel.open(dir.resolve("locations").resolve(name), name, policy);
+            if (metrics != null) m.registerMetrics(metrics);
+            m.peers = shards::get;
+            shards.put(name, m);
+            return m;
+        }
+
+        public BatchResult transfer(String sku, int qty, String from, String to, String by, String notes) {
+            InventoryModel source = shards.get(from), dest = shards.get(to);
+            if (source == null || dest == null) return BatchResult.rejected("Unknown location " + (source == null ? from : to));
+            long[] seqs = new long[2];
+            BatchResult result;
+            transfers.readLock().lock();
             try {
-                java.awt.print.PrinterJob job = java.awt.print.PrinterJob.getPrinterJob();
-                job.setJobName("Print Component");
+                result = InventoryModel.transfer(source, dest, sku, qty, by, notes, seqs);
+            } finally {
+                transfers.readLock().unlock();
+            }
+            // Outside the lock, so a consistent totals cut never waits for a transfer's fsync.
+            if (result.ok) {
+                source.awaitDurable(seqs[0]);
+                dest.awaitDurable(seqs[1]);
+            }
+            return result;
+        }
 
-                job.setPrintable((graphics, pageFormat, pageIndex) -> {
-                    if (pageIndex > 0) return java.awt.print.Printable.NO_SUCH_PAGE;
+        // Every location's running totals, computed in parallel with no transfer half applied. Takes every stripe of
+        // every location, so views refreshed often use liveTotals() instead.
+        public SortedMap<String, TotalsSnapshot> totalsByLocation() {
+            java.util.List<InventoryModel> all = new ArrayList<>(shards.values());
+            java.util.List<TotalsSnapshot> parts;
+            transfers.writeLock().lock();
+            try {
+                parts = all.parallelStream().map(InventoryModel::totals).collect(Collectors.toList());
+            } finally {
+                transfers.writeLock().unlock();
+            }
+            SortedMap<String, TotalsSnapshot> out = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 0; i < all.size(); i++) out.put(all.get(i).location, parts.get(i));
+            return out;
+        }
 
-                    Graphics2D g2 = (Graphics2D) graphics;
-                    g2.translate(pageFormat.getImageableX(), pageFormat.getImageableY());
-                    comp.printAll(g2);
-                    return java.awt.print.Printable.PAGE_EXISTS;
+        // Every location's lock-free running totals added up; a transfer in flight may count on one side only.
+        public Totals liveTotals() {
+            Totals out = new Totals();
+            for (InventoryModel shard : shards.values()) {
+                Totals t = shard.liveTotals();
+                out.add(t.items, t.units, t.valueMinor);
+            }
+            return out;
+        }
+
+        public void registerMetrics(Metrics m) {
+            metrics = m;
+            for (InventoryModel shard : shards.values()) shard.registerMetrics(m);
+        }
+
+        // A transfer's halves are journaled by two shards independently, so a crash can keep one and lose the other.
+        // Each half names its partner's location and sequence number, and every journal replays a gap-free prefix,
+        // so a half whose partner's shard came back short of that number lost its partner: it is reversed where it
+        // survived, and the reversal names it so later opens leave it alone. Halves a snapshot already covers are
+        // not rechecked: snapshotNow waits for their partners to be journaled before it writes.
+        private void reconcile() {
+            Map<String, Long> recovered = new HashMap<>();
+            for (InventoryModel m : shards.values()) recovered.put(m.location, m.lastSeq());
+            for (InventoryModel m : shards.values()) {
+                java.util.List<TransactionRec> replayed = m.takeReplayedTransfers();
+                Set<Long> reversed = new HashSet<>();
+                for (TransactionRec r : replayed) if (m.location.equals(r.peerLocation)) reversed.add(r.peerSeq);
+                for (TransactionRec r : replayed) {
+                    if (r.type != TxnType.TRANSFER_OUT && r.type != TxnType.TRANSFER_IN) continue;
+                    Long peerLast = recovered.get(r.peerLocation);
+                    if (peerLast == null || peerLast >= r.peerSeq || reversed.contains(r.seq())) continue;
+                    System.err.println(m.location + ": reversing " + r.id + ", whose other half " + r.peerLocation + " lost");
+                    m.reverseTransfer(r);
+                }
+            }
+        }
+
+        @Override public void close() {
+            for (InventoryModel shard : shards.values()) shard.close();
+        }
+    }
+
+    // Lock-free multi-producer transaction log. A producer claims the next sequence number, fills its slot
+    // and then helps advance the published cursor across every contiguous filled slot, so readers only ever
+    // see a gap-free prefix in sequence order. Storage is a directory of fixed-size chunks grown copy-on-write.
+    // With a HistoryStore attached, each chunk is handed to it once the chunk after it has filled, and the
+    // directory slot is swapped for the compact copy; get() reads either kind.
+    static class TxnLog {
+        private static final int CHUNK_BITS = 14;
+        private static final int CHUNK = 1 << CHUNK_BITS;
+
+        private final long base; // sequence number just before the first record held here
+        private final AtomicLong claimed;
+        private final AtomicLong published;
+        private final HistoryStore history; // null keeps every record as an object
+        volatile Thread waiter; // set while a follower (the change stream dispatcher) is parked for the next record
+        volatile Thread journalWaiter; // set while the journal writer is parked for the rest of a group
+        // Each slot holds an AtomicReferenceArray<TransactionRec> while live, or a HistoryStore.Chunk once sealed.
+        private volatile AtomicReferenceArray<Object> chunks = new AtomicReferenceArray<>(64);
+
+        TxnLog(long base) { this(base, null); }
+
+        TxnLog(long base, HistoryStore history) {
+            this.base = base;
+            this.claimed = new AtomicLong(base);
+            this.published = new AtomicLong(base);
+            this.history = history;
+        }
+
+        long claim() { return claimed.incrementAndGet(); }
+
+        // Claims n consecutive sequence numbers and returns the first.
+        long claim(int n) { return claimed.getAndAdd(n) + 1; }
+
+        void publish(long seq, TransactionRec rec) {
+            long index = seq - base - 1;
+            chunkFor(index).set((int) (index & (CHUNK - 1)), rec);
+            while (true) {
+                long p = published.get();
+                if (peek(p + 1) == null) { // whoever fills p + 1 carries the cursor on from there
+                    Thread w = waiter, j = journalWaiter; // read after the cursor moved, so a waiter either sees the record or is woken
+                    if (w != null) LockSupport.unpark(w);
+                    if (j != null) LockSupport.unpark(j);
+                    return;
+                }
+                if (published.compareAndSet(p, p + 1) && history != null && ((p + 1 - base) & (CHUNK - 1)) == 0) {
+                    long filled = (p + 1 - base - 1) >>> CHUNK_BITS;
+                    if (filled > 0) history.sealLater(this, (int) filled - 1); // the newest full chunk stays live
+                }
+            }
+        }
+
+        long firstSeq() { return base + 1; }
+        long lastSeq() { return published.get(); }
+        long size() { return published.get() - base; }
+
+        // Returns the published record with this sequence number, or null if it is not (yet) visible here.
+        TransactionRec get(long seq) {
+            return seq <= published.get() ? peek(seq) : null;
+        }
+
+        @SuppressWarnings("unchecked")
+        private TransactionRec peek(long seq) {
+            long index = seq - base - 1;
+            if (index < 0) return null;
+            AtomicReferenceArray<Object> dir = chunks;
+            long c = index >>> CHUNK_BITS;
+            if (c >= dir.length()) return null;
+            Object chunk = dir.get((int) c);
+            if (chunk instanceof HistoryStore.Chunk) return ((HistoryStore.Chunk) chunk).get(seq, (int) (index & (CHUNK - 1)));
+            return chunk == null ? null : ((AtomicReferenceArray<TransactionRec>) chunk).get((int) (index & (CHUNK - 1)));
+        }
+
+        @SuppressWarnings("unchecked")
+        private AtomicReferenceArray<TransactionRec> chunkFor(long index) {
+            int c = (int) (index >>> CHUNK_BITS);
+            AtomicReferenceArray<Object> dir = chunks;
+            Object chunk = c < dir.length() ? dir.get(c) : null;
+            return chunk != null ? (AtomicReferenceArray<TransactionRec>) chunk : allocate(c); // only full chunks are ever sealed
+        }
+
+        @SuppressWarnings("unchecked")
+        private synchronized AtomicReferenceArray<TransactionRec> allocate(int c) {
+            AtomicReferenceArray<Object> dir = chunks;
+            if (c >= dir.length()) {
+                AtomicReferenceArray<Object> grown = new AtomicReferenceArray<>(Math.max(c + 1, dir.length() * 2));
+                for (int i = 0; i < dir.length(); i++) grown.set(i, dir.get(i));
+                chunks = dir = grown;
+            }
+            Object chunk = dir.get(c);
+            if (chunk == null) dir.set(c, chunk = new AtomicReferenceArray<TransactionRec>(CHUNK));
+            return (AtomicReferenceArray<TransactionRec>) chunk;
+        }
+
+        // The full, live chunk c, or null if it has already been sealed.
+        @SuppressWarnings("unchecked")
+        AtomicReferenceArray<TransactionRec> liveChunk(int c) {
+            Object chunk = chunks.get(c);
+            return chunk instanceof AtomicReferenceArray ? (AtomicReferenceArray<TransactionRec>) chunk : null;
+        }
+
+        long chunkFirstSeq(int c) { return base + 1 + ((long) c << CHUNK_BITS); }
+
+        // Under the monitor so a concurrent allocate() cannot copy the directory around the swap.
+        synchronized void replace(int c, HistoryStore.Chunk sealed) { chunks.set(c, sealed); }
+    }
+
+    // Compact home for aged TxnLog chunks, enabled with -Dinventory.compactHistory=true. A sealed chunk holds no
+    // objects: ids follow from the sequence number, timestamps are epoch millis, deltas, types and string ids sit
+    // in primitive columns, and sku, item name, user and category are interned in one dictionary shared by every
+    // chunk. Notes get a per-chunk table, and the item details, batch sizes and transfer peers only a few records
+    // carry are kept as sparse (row, value) columns. Columns live off the heap: in a memory-mapped file under
+    // history/ for a journaled model (a cache that replay rebuilds, so it is cleared on open), in a direct buffer
+    // otherwise.
+    // Each get() decodes a fresh TransactionRec, which dies young instead of being tenured for the life of the log.
+    static class HistoryStore implements Closeable {
+        private static final int HEADER = 20; // records, notes, details, groups, peers
+        private static final TxnType[] TYPES = TxnType.values();
+
+        static boolean enabled() { return Boolean.getBoolean("inventory.compactHistory"); }
+
+        static HistoryStore open(Path dir, String location) throws IOException {
+            if (Files.exists(dir)) deleteTree(dir);
+            Files.createDirectories(dir);
+            return new HistoryStore(dir, location);
+        }
+
+        // Deletes a directory and everything under it, deepest first.
+        static void deleteTree(Path dir) throws IOException {
+            try (java.util.stream.Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+            }
+        }
+
+        private final Path dir; // null: direct buffers
+        private final String location; // of every record, since a store serves one shard
+        private final Strings strings = new Strings();
+        private final ZoneId zone = ZoneId.systemDefault(); // looked up once: systemDefault() clones the TimeZone on every call
+        private final ExecutorService sealer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "history-sealer");
+            t.setDaemon(true);
+            return t;
+        });
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong records = new AtomicLong();
+
+        HistoryStore(Path dir, String location) { this.dir = dir; this.location = location; }
+
+        long bytes() { return bytes.get(); }
+        long records() { return records.get(); }
+
+        // Called by whichever producer published the last record of the chunk after c.
+        void sealLater(TxnLog log, int c) {
+            try {
+                sealer.execute(() -> {
+                    AtomicReferenceArray<TransactionRec> live = log.liveChunk(c);
+                    if (live == null) return;
+                    try {
+                        log.replace(c, seal(log.chunkFirstSeq(c), live));
+                    } catch (IOException | RuntimeException ex) {
+                        System.err.println("Failed to compact transaction history: " + ex.getMessage()); // the chunk stays live
+                    }
                 });
+            } catch (RejectedExecutionException ignored) {} // closed: the chunk stays live
+        }
 
-                if (job.printDialog()) {
-                    job.print();
+        // Waits for every chunk handed over so far to be sealed.
+        void awaitSealed() throws InterruptedException {
+            try { sealer.submit(() -> {}).get(); } catch (ExecutionException | RejectedExecutionException ignored) {}
+        }
+
+        Chunk seal(long firstSeq, AtomicReferenceArray<TransactionRec> live) throws IOException {
+            int n = live.length();
+            int[] sku = new int[n], name = new int[n], user = new int[n], note = new int[n];
+            Map<String, Integer> noteIds = new HashMap<>();
+            java.util.List<byte[]> notes = new ArrayList<>();
+            int noteBytes = 0, details = 0, groups = 0, peers = 0;
+            for (int i = 0; i < n; i++) {
+                TransactionRec r = live.get(i);
+                sku[i] = strings.idOf(r.sku);
+                name[i] = strings.idOf(r.itemName);
+                user[i] = strings.idOf(r.performedBy);
+                if (r.notes != null) {
+                    Integer id = noteIds.get(r.notes);
+                    if (id == null) {
+                        byte[] b = r.notes.getBytes(StandardCharsets.UTF_8);
+                        noteIds.put(r.notes, id = notes.size() + 1);
+                        notes.add(b);
+                        noteBytes += b.length;
+                    }
+                    note[i] = id;
                 }
-            } catch (Exception ex) {
-                toast("Printing failed: " + ex.getMessage());
+                if (hasDetails(r.type)) details++;
+                if (r.groupSize > 1) groups++;
+                if (r.peerLocation != null) peers++;
+            }
+            int size = HEADER + n * (8 + 4 * 5 + 1) + notes.size() * 4 + noteBytes + details * 20 + groups * 8 + peers * 16;
+            ByteBuffer b;
+            if (dir == null) {
+                b = ByteBuffer.allocateDirect(size);
+            } else {
+                try (FileChannel ch = FileChannel.open(dir.resolve(String.format("chunk-%020d.bin", firstSeq)),
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    b = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                }
+            }
+            b.putInt(n).putInt(notes.size()).putInt(details).putInt(groups).putInt(peers);
+            for (int i = 0; i < n; i++) b.putLong(live.get(i).timestamp.atZone(zone).toInstant().toEpochMilli());
+            for (int i = 0; i < n; i++) b.putInt(live.get(i).qtyDelta);
+            for (int v : sku) b.putInt(v);
+            for (int v : name) b.putInt(v);
+            for (int v : user) b.putInt(v);
+            for (int v : note) b.putInt(v);
+            for (int i = 0; i < n; i++) b.put((byte) live.get(i).type.ordinal());
+            int end = 0;
+            for (byte[] s : notes) b.putInt(end += s.length);
+            for (byte[] s : notes) b.put(s);
+            for (int i = 0; i < n; i++) if (hasDetails(live.get(i).type)) b.putInt(i);
+            for (int i = 0; i < n; i++) if (hasDetails(live.get(i).type)) b.putInt(strings.idOf(live.get(i).category));
+            for (int i = 0; i < n; i++) if (hasDetails(live.get(i).type)) b.putInt(live.get(i).reorderPoint);
+            for (int i = 0; i < n; i++) if (hasDetails(live.get(i).type)) b.putDouble(live.get(i).price);
+            for (int i = 0; i < n; i++) if (live.get(i).groupSize > 1) b.putInt(i);
+            for (int i = 0; i < n; i++) if (live.get(i).groupSize > 1) b.putInt(live.get(i).groupSize);
+            for (int i = 0; i < n; i++) if (live.get(i).peerLocation != null) b.putInt(i);
+            for (int i = 0; i < n; i++) if (live.get(i).peerLocation != null) b.putInt(strings.idOf(live.get(i).peerLocation));
+            for (int i = 0; i < n; i++) if (live.get(i).peerLocation != null) b.putLong(live.get(i).peerSeq);
+            bytes.addAndGet(size);
+            records.addAndGet(n);
+            return new Chunk(b, strings, zone, location);
+        }
+
+        private static boolean hasDetails(TxnType type) { return TxnJournal.hasDetails(type); }
+
+        // Mapped files stay readable after they are unlinked, so a log still in use keeps working.
+        @Override public void close() throws IOException {
+            sealer.shutdownNow();
+            try { sealer.awaitTermination(1, TimeUnit.MINUTES); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            if (dir != null && Files.exists(dir)) deleteTree(dir);
+        }
+
+        // Append-only dictionary; id 0 is null. Only the sealer adds, and every chunk is published after the strings it uses.
+        static final class Strings {
+            private final Map<String, Integer> ids = new HashMap<>();
+            private volatile String[] values = new String[1024];
+            private int size = 1;
+
+            int idOf(String s) {
+                if (s == null) return 0;
+                Integer id = ids.get(s);
+                if (id != null) return id;
+                String[] v = values;
+                if (size == v.length) v = Arrays.copyOf(v, size * 2);
+                v[size] = s;
+                values = v;
+                ids.put(s, size);
+                return size++;
+            }
+
+            String get(int id) { return values[id]; }
+        }
+
+        // Read-only view over one sealed chunk; absolute reads only, so any number of threads can share it.
+        static final class Chunk {
+            private final ByteBuffer b;
+            private final Strings strings;
+            private final ZoneId zone;
+            private final String location;
+            private final int n, details, groups, peers;
+            private final int qty, sku, name, user, note, type, noteEnd, noteData, detailRow, groupRow, peerRow;
+
+            Chunk(ByteBuffer b, Strings strings, ZoneId zone, String location) {
+                this.b = b;
+                this.strings = strings;
+                this.zone = zone;
+                this.location = location;
+                n = b.getInt(0);
+                int notes = b.getInt(4);
+                details = b.getInt(8);
+                groups = b.getInt(12);
+                peers = b.getInt(16);
+                qty = HEADER + 8 * n;
+                sku = qty + 4 * n;
+                name = sku + 4 * n;
+                user = name + 4 * n;
+                note = user + 4 * n;
+                type = note + 4 * n;
+                noteEnd = type + n;
+                noteData = noteEnd + 4 * notes;
+                detailRow = noteData + (notes == 0 ? 0 : b.getInt(noteEnd + 4 * (notes - 1)));
+                groupRow = detailRow + 20 * details;
+                peerRow = groupRow + 8 * groups;
+            }
+
+            TransactionRec get(long seq, int i) {
+                TransactionRec r = new TransactionRec("TXN-" + seq,
+                        LocalDateTime.ofInstant(Instant.ofEpochMilli(b.getLong(HEADER + 8 * i)), zone),
+                        strings.get(b.getInt(sku + 4 * i)), strings.get(b.getInt(name + 4 * i)), TYPES[b.get(type + i)],
+                        b.getInt(qty + 4 * i), strings.get(b.getInt(user + 4 * i)), noteOf(b.getInt(note + 4 * i)));
+                int d = find(detailRow, details, i);
+                if (d >= 0) {
+                    r.category = strings.get(b.getInt(detailRow + 4 * details + 4 * d));
+                    r.reorderPoint = b.getInt(detailRow + 8 * details + 4 * d);
+                    r.price = b.getDouble(detailRow + 12 * details + 8 * d);
+                }
+                int g = find(groupRow, groups, i);
+                if (g >= 0) r.groupSize = b.getInt(groupRow + 4 * groups + 4 * g);
+                int p = find(peerRow, peers, i);
+                if (p >= 0) r.withPeer(strings.get(b.getInt(peerRow + 4 * peers + 4 * p)), b.getLong(peerRow + 8 * peers + 8 * p));
+                r.location = location;
+                return r;
+            }
+
+            private String noteOf(int id) {
+                if (id == 0) return null;
+                int from = id == 1 ? 0 : b.getInt(noteEnd + 4 * (id - 2)), to = b.getInt(noteEnd + 4 * (id - 1));
+                byte[] s = new byte[to - from];
+                for (int k = 0; k < s.length; k++) s[k] = b.get(noteData + from + k);
+                return new String(s, StandardCharsets.UTF_8);
+            }
+
+            // Position of row in the ascending int column at offset, or -1.
+            private int find(int offset, int count, int row) {
+                int lo = 0, hi = count - 1;
+                while (lo <= hi) {
+                    int mid = (lo + hi) >>> 1, v = b.getInt(offset + 4 * mid);
+                    if (v < row) lo = mid + 1; else if (v > row) hi = mid - 1; else return mid;
+                }
+                return -1;
+            }
+        }
+    }
+
+    // Query side of the TxnLog. The log's fixed-size chunks double as time-ordered segments: once a chunk is
+    // full its earliest and latest timestamps are computed and cached, along with the latest timestamp of any
+    // chunk up to it, so a time-bounded scan skips chunks outside the range and stops at the first chunk whose
+    // history all lies before it, even if clocks made a few timestamps run backwards. Each SKU has a posting list
+    // of its records' log offsets in ascending order, appended by InventoryModel under the SKU's stripe lock.
+    static class TxnIndex {
+        // Single writer (the SKU's stripe holder), any number of readers: the array is replaced before size moves past it.
+        static final class Postings {
+            private volatile int[] offsets = new int[4];
+            private volatile int size;
+
+            void add(int offset) {
+                int[] a = offsets;
+                if (size == a.length) offsets = a = Arrays.copyOf(a, a.length * 2);
+                a[size] = offset;
+                size = size + 1;
+            }
+
+            // Index of the last offset <= max, or -1.
+            int lastAtMost(int[] a, int n, long max) {
+                int lo = 0, hi = n - 1;
+                while (lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (a[mid] <= max) lo = mid + 1; else hi = mid - 1;
+                }
+                return hi;
+            }
+        }
+
+        private final TxnLog log;
+        private final ConcurrentHashMap<String, Postings> bySku = new ConcurrentHashMap<>();
+        // Per full chunk: earliest and latest timestamp, and the latest of chunks 0..c. Written under this monitor;
+        // entries below chunksSummarized never change, so readers that saw summarized(c) read them directly.
+        private volatile LocalDateTime[] chunkMin = new LocalDateTime[16], chunkMax = new LocalDateTime[16], upToMax = new LocalDateTime[16];
+        private int chunksSummarized;
+
+        TxnIndex(TxnLog log) { this.log = log; }
+
+        // Callers hold the SKU's stripe lock (or are replaying single-threaded).
+        void add(long seq, String sku) {
+            bySku.computeIfAbsent(sku, k -> new Postings()).add((int) (seq - log.firstSeq()));
+        }
+
+        // Newest first, records with seq < before that match every set field of q; the page's cursor continues from there.
+        TxnPage query(TxnQuery q, long before, int limit) {
+            long last = Math.min(before - 1, log.lastSeq());
+            java.util.List<TransactionRec> out = new ArrayList<>(Math.min(limit, 1024));
+            long first = log.firstSeq();
+            if (q.sku != null) {
+                Postings p = bySku.get(q.sku);
+                if (p == null) return new TxnPage(out, 0);
+                int n = p.size;
+                int[] a = p.offsets;
+                int checked = -1;
+                for (int i = p.lastAtMost(a, n, last - first); i >= 0; i--) {
+                    long seq = first + a[i];
+                    int c = chunkOf(seq);
+                    if (c != checked) {
+                        checked = c;
+                        if (q.from != null && summarized(c) && upToMax[c].isBefore(q.from)) break;
+                    }
+                    TransactionRec rec = log.get(seq);
+                    if (rec != null && q.matches(rec) && out.add(rec) && out.size() == limit) return new TxnPage(out, i > 0 ? seq : 0);
+                }
+                return new TxnPage(out, 0);
             }
+            long seq = last;
+            while (seq >= first) {
+                int c = chunkOf(seq);
+                long chunkStart = first + ((long) c << TxnLog.CHUNK_BITS);
+                if (summarized(c)) {
+                    if (q.from != null && upToMax[c].isBefore(q.from)) break;
+                    if ((q.from != null && chunkMax[c].isBefore(q.from)) || (q.to != null && chunkMin[c].isAfter(q.to))) {
+                        seq = chunkStart - 1;
+                        continue;
+                    }
+                }
+                for (; seq >= chunkStart; seq--) {
+                    TransactionRec rec = log.get(seq);
+                    if (rec != null && q.matches(rec) && out.add(rec) && out.size() == limit) return new TxnPage(out, seq > first ? seq : 0);
+                }
+            }
+            return new TxnPage(out, 0);
+        }
+
+        void summarizeFullChunks() {
+            long published = log.lastSeq() - log.firstSeq() + 1;
+            int full = (int) (published >>> TxnLog.CHUNK_BITS);
+            if (full > 0) summarized(full - 1);
+        }
+
+        private int chunkOf(long seq) { return (int) ((seq - log.firstSeq()) >>> TxnLog.CHUNK_BITS); }
+
+        // Summarizes every full chunk up to c on first use; false while c is still filling.
+        private synchronized boolean summarized(int c) {
+            if (c < chunksSummarized) return true;
+            long published = log.lastSeq() - log.firstSeq() + 1;
+            if (((long) c + 1) << TxnLog.CHUNK_BITS > published) return false;
+            if (c >= chunkMin.length) {
+                int n = Math.max(c + 1, chunkMin.length * 2);
+                chunkMin = Arrays.copyOf(chunkMin, n); chunkMax = Arrays.copyOf(chunkMax, n); upToMax = Arrays.copyOf(upToMax, n);
+            }
+            for (int k = chunksSummarized; k <= c; k++) {
+                long first = log.firstSeq() + ((long) k << TxnLog.CHUNK_BITS);
+                LocalDateTime min = null, max = null;
+                for (long s = first; s < first + TxnLog.CHUNK; s++) {
+                    LocalDateTime t = log.get(s).timestamp;
+                    if (min == null || t.isBefore(min)) min = t;
+                    if (max == null || t.isAfter(max)) max = t;
+                }
+                chunkMin[k] = min;
+                chunkMax[k] = max;
+                upToMax[k] = k == 0 || max.isAfter(upToMax[k - 1]) ? max : upToMax[k - 1];
+            }
+            chunksSummarized = c + 1;
+            return true;
         }
     }
 
-    // Helper for printing to avoid java.text.MessageFormat import clash in this single file
-    static class MessageFormatSafe extends java.text.MessageFormat {
-        public MessageFormatSafe(String pattern) { super(pattern); }
+    // Secondary indexes over the catalog, kept in sync by InventoryModel under the SKU's stripe lock.
+    //   category -> SKUs      exact category lookups
+    //   word -> SKUs          sorted by lower-cased word from item names, for word and word-prefix lookups
+    //   suffix -> words       every suffix of every word above, for substring lookups; it grows with the vocabulary,
+    //                         not the catalog, as a fragment finds the words holding it and those words the SKUs
+    //   sku                   sorted lower-cased SKUs, for SKU prefix lookups
+    //   quantity -> SKUs      sorted by quantity, for "low stock below N" and other ranges
+    // A posting is the lone SKU string until a second SKU arrives, then a concurrent set; most words in a
+    // real catalog belong to one item, so this keeps the index at a few dozen bytes per word.
+    static class InventoryIndex {
+        private static final int LOCKS = 64;
+        private final Object[] locks = new Object[LOCKS]; // serializes posting updates per key across stripes
+        private final Object[] suffixLocks = new Object[LOCKS]; // taken inside a word's lock, never the other way round
+        private static final String[] QTY_OPS = {"<=", ">=", "<", ">", "="};
+        private static final java.util.regex.Pattern WHOLE_NUMBER = java.util.regex.Pattern.compile("[+-]?\\d+");
+        private final ConcurrentHashMap<String, Object> byCategory = new ConcurrentHashMap<>();
+        private final ConcurrentSkipListMap<String, Object> byWord = new ConcurrentSkipListMap<>();
+        private final ConcurrentSkipListMap<String, Object> bySuffix = new ConcurrentSkipListMap<>(); // postings hold words
+        private final ConcurrentSkipListMap<String, String> bySku = new ConcurrentSkipListMap<>();
+        private final ConcurrentSkipListMap<Integer, Object> byQuantity = new ConcurrentSkipListMap<>();
+        private volatile boolean maintained = true; // mutations update the index
+        private volatile boolean complete = true;   // every live item is indexed, so searches may rely on it
+        private int generation; // bumped by reset(), so a build that a later reset overtook cannot mark the index complete
+
+        InventoryIndex() {
+            for (int i = 0; i < LOCKS; i++) { locks[i] = new Object(); suffixLocks[i] = new Object(); }
+        }
+
+        void suspend() { maintained = false; complete = false; }
+        void resume() { maintained = true; }
+        synchronized int generation() { return generation; }
+        synchronized void markComplete(int generation) { if (this.generation == generation) complete = true; }
+
+        // Drops every posting ahead of a full rebuild; mutations leave the index alone until resume().
+        synchronized void reset() {
+            suspend();
+            generation++;
+            byCategory.clear(); byWord.clear(); bySuffix.clear(); bySku.clear(); byQuantity.clear();
+        }
+        boolean isComplete() { return complete; }
+
+        void add(InventoryItem item) {
+            if (!maintained) return;
+            post(byCategory, lower(item.category), item.sku);
+            for (String w : wordsOf(item.name)) postWord(w, item.sku);
+            bySku.put(lower(item.sku), item.sku);
+            post(byQuantity, item.quantity, item.sku);
+        }
+
+        void remove(InventoryItem item) {
+            if (!maintained) return;
+            unpost(byCategory, lower(item.category), item.sku);
+            for (String w : wordsOf(item.name)) unpostWord(w, item.sku);
+            bySku.remove(lower(item.sku));
+            unpost(byQuantity, item.quantity, item.sku);
+        }
+
+        void quantityChanged(InventoryItem item, int oldQty) {
+            if (!maintained) return;
+            unpost(byQuantity, oldQty, item.sku);
+            post(byQuantity, item.quantity, item.sku);
+        }
+
+        // Query terms are ANDed: "cat:<category>", "qty<N", "qty<=N", "qty>N", "qty>=N", "qty=N"; everything else is
+        // free text that must appear anywhere in the name, or start the SKU. A qty term whose N is not a whole number
+        // counts as free text, so a typo finds nothing rather than a range nobody asked for.
+        // Returns at most limit live items.
+        java.util.List<InventoryItem> search(String query, int limit, Map<String, InventoryItem> items) {
+            String text = "";
+            String category = null;
+            long lo = Integer.MIN_VALUE, hi = Integer.MAX_VALUE; // long, so N-1 and N+1 cannot wrap around
+            for (String part : query.trim().split("\\s+")) {
+                String p = lower(part);
+                String op = qtyOp(p);
+                Long n = op == null ? null : qtyBound(p.substring(3 + op.length()));
+                if (p.startsWith("cat:")) category = lower(part.substring(4));
+                else if (n != null) {
+                    switch (op) {
+                        case "<=": hi = Math.min(hi, n); break;
+                        case ">=": lo = Math.max(lo, n); break;
+                        case "<": hi = Math.min(hi, n - 1); break;
+                        case ">": lo = Math.max(lo, n + 1); break;
+                        default: lo = Math.max(lo, n); hi = Math.min(hi, n);
+                    }
+                } else if (!p.isEmpty()) text = text.isEmpty() ? p : text + " " + p;
+            }
+            if (lo > hi) return Collections.emptyList(); // also covers bounds past either end of int
+
+            // Drive the scan from the most selective source, then check every term on each candidate.
+            Iterator<String> candidates;
+            if (!complete) {
+                candidates = items.keySet().iterator();
+            } else if (!text.isEmpty()) {
+                candidates = concat(skuPrefix(text), textCandidates(text, items));
+            } else if (category != null) {
+                candidates = iterate(byCategory.get(category));
+            } else if (lo > Integer.MIN_VALUE || hi < Integer.MAX_VALUE) {
+                candidates = flatten(byQuantity.subMap((int) lo, true, (int) hi, true).values().iterator());
+            } else {
+                candidates = items.keySet().iterator();
+            }
+
+            java.util.List<InventoryItem> out = new ArrayList<>();
+            Set<String> seen = new HashSet<>();
+            while (candidates.hasNext() && out.size() < limit) {
+                String sku = candidates.next();
+                InventoryItem it = items.get(sku);
+                if (it == null || !seen.add(sku)) continue;
+                if (!text.isEmpty() && !matchesText(it, text)) continue;
+                if (category != null && !lower(it.category).equals(category)) continue;
+                int q = it.quantity;
+                if (q < lo || q > hi) continue;
+                out.add(it);
+            }
+            return out;
+        }
+
+        // A lone query word may sit anywhere inside a name word. With more than one, the first ends a name word, the
+        // last starts one and those between are whole words. Each gives the postings every match is in; whichever
+        // holds the fewest SKUs drives the scan, and matchesText checks the rest.
+        private Iterator<String> textCandidates(String text, Map<String, InventoryItem> items) {
+            java.util.List<String> words = wordsOf(text);
+            if (words.isEmpty()) return items.keySet().iterator();
+            String first = words.get(0), last = words.get(words.size() - 1);
+            if (words.size() == 1) return flatten(postingsOf(flatten(bySuffix.subMap(first, true, first + '\uffff', true).values().iterator())));
+            java.util.List<Iterable<Object>> sources = new ArrayList<>();
+            sources.add(() -> postingsOf(iterate(bySuffix.get(first))));
+            for (int i = 1; i < words.size() - 1; i++) {
+                Object p = byWord.get(words.get(i));
+                if (p == null) return Collections.<String>emptyIterator();
+                sources.add(Collections.singletonList(p));
+            }
+            sources.add(byWord.subMap(last, true, last + '\uffff', true).values());
+            Iterable<Object> best = null;
+            long bestSize = Long.MAX_VALUE;
+            for (Iterable<Object> source : sources) {
+                long size = 0;
+                for (Iterator<Object> it = source.iterator(); it.hasNext() && size < bestSize; ) size += sizeOf(it.next());
+                if (size < bestSize) { best = source; bestSize = size; }
+            }
+            return flatten(best.iterator());
+        }
+
+        // The SKU postings of each word, skipping words no item has any longer.
+        private Iterator<Object> postingsOf(Iterator<String> words) {
+            return new Iterator<Object>() {
+                Object next;
+                public boolean hasNext() {
+                    while (next == null && words.hasNext()) next = byWord.get(words.next());
+                    return next != null;
+                }
+                public Object next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    Object p = next;
+                    next = null;
+                    return p;
+                }
+            };
+        }
+
+        private Iterator<String> skuPrefix(String text) {
+            return bySku.subMap(text, true, text + '\uffff', true).values().iterator();
+        }
+
+        private static boolean matchesText(InventoryItem it, String text) {
+            return lower(it.sku).startsWith(text) || lower(it.name).contains(text);
+        }
+
+        // A word's suffixes are posted when its first SKU arrives and unposted with its last, under the word's lock,
+        // so the suffix index always lists exactly the words byWord has.
+        private void postWord(String word, String sku) {
+            synchronized (locks[word.hashCode() & (LOCKS - 1)]) {
+                if (post(byWord, word, sku, locks)) for (int i = 0; i < word.length(); i++) post(bySuffix, word.substring(i), word, suffixLocks);
+            }
+        }
+
+        private void unpostWord(String word, String sku) {
+            synchronized (locks[word.hashCode() & (LOCKS - 1)]) {
+                if (unpost(byWord, word, sku, locks)) for (int i = 0; i < word.length(); i++) unpost(bySuffix, word.substring(i), word, suffixLocks);
+            }
+        }
+
+        private <K> void post(Map<K, Object> map, K key, String sku) { post(map, key, sku, locks); }
+
+        private <K> void unpost(Map<K, Object> map, K key, String sku) { unpost(map, key, sku, locks); }
+
+        // Returns whether key was new.
+        private static <K> boolean post(Map<K, Object> map, K key, String value, Object[] locks) {
+            synchronized (locks[key.hashCode() & (LOCKS - 1)]) {
+                Object v = map.get(key);
+                if (v == null) {
+                    map.put(key, value);
+                    return true;
+                } else if (v instanceof String) {
+                    if (v.equals(value)) return false;
+                    Set<String> set = ConcurrentHashMap.newKeySet();
+                    set.add((String) v);
+                    set.add(value);
+                    map.put(key, set);
+                } else {
+                    asSet(v).add(value);
+                }
+                return false;
+            }
+        }
+
+        // Returns whether key is gone.
+        private static <K> boolean unpost(Map<K, Object> map, K key, String value, Object[] locks) {
+            synchronized (locks[key.hashCode() & (LOCKS - 1)]) {
+                Object v = map.get(key);
+                if (v == null) return false;
+                if (v instanceof String) {
+                    if (!v.equals(value)) return false;
+                } else {
+                    Set<String> set = asSet(v);
+                    set.remove(value);
+                    if (!set.isEmpty()) return false;
+                }
+                map.remove(key);
+                return true;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Set<String> asSet(Object posting) { return (Set<String>) posting; }
+
+        private static int sizeOf(Object posting) {
+            return posting == null ? 0 : posting instanceof String ? 1 : asSet(posting).size();
+        }
+
+        private static Iterator<String> iterate(Object posting) {
+            if (posting == null) return Collections.<String>emptyIterator();
+            return posting instanceof String ? Collections.singleton((String) posting).iterator() : asSet(posting).iterator();
+        }
+
+        private static Iterator<String> flatten(Iterator<Object> postings) {
+            return new Iterator<String>() {
+                Iterator<String> cur = Collections.<String>emptyIterator();
+                public boolean hasNext() {
+                    while (!cur.hasNext() && postings.hasNext()) cur = iterate(postings.next());
+                    return cur.hasNext();
+                }
+                public String next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    return cur.next();
+                }
+            };
+        }
+
+        private static Iterator<String> concat(Iterator<String> a, Iterator<String> b) {
+            return new Iterator<String>() {
+                public boolean hasNext() { return a.hasNext() || b.hasNext(); }
+                public String next() { return a.hasNext() ? a.next() : b.next(); }
+            };
+        }
+
+        // Lower-cased runs of letters and digits, without duplicates.
+        private static java.util.List<String> wordsOf(String s) {
+            java.util.List<String> out = new ArrayList<>(4);
+            if (s == null) return out;
+            String l = lower(s);
+            for (int i = 0, n = l.length(); i < n; ) {
+                while (i < n && !Character.isLetterOrDigit(l.charAt(i))) i++;
+                int start = i;
+                while (i < n && Character.isLetterOrDigit(l.charAt(i))) i++;
+                if (i > start) {
+                    String w = l.substring(start, i);
+                    if (!out.contains(w)) out.add(w);
+                }
+            }
+            return out;
+        }
+
+        private static String lower(String s) { return s == null ? "" : s.toLowerCase(Locale.ROOT); }
+
+        // "<=", ">=", "<", ">" or "=" if term is "qty" followed by one of them, else null.
+        private static String qtyOp(String term) {
+            if (!term.startsWith("qty")) return null;
+            for (String op : QTY_OPS) if (term.startsWith(op, 3)) return op;
+            return null;
+        }
+
+        // N of a qty term, held to +-2^40 (past either end of int, short of either end of long), or null if it is
+        // not a whole number.
+        private static Long qtyBound(String s) {
+            if (!WHOLE_NUMBER.matcher(s).matches()) return null;
+            long limit = 1L << 40;
+            try {
+                return Math.max(-limit, Math.min(limit, Long.parseLong(s)));
+            } catch (NumberFormatException pastLong) {
+                return s.startsWith("-") ? -limit : limit;
+            }
+        }
+    }
+
+    // Items at or below their reorder point, most urgent first, plus the listeners told when an item crosses it.
+    // Urgency is stock relative to reorder point; keys compare by cross-multiplying, so 3 of 10 ranks ahead of 2 of 5.
+    // InventoryModel calls update() under the SKU's stripe lock, so events of one SKU arrive in order.
+    static class ReorderTracker {
+        static final class Urgency implements Comparable<Urgency> {
+            final int qty;
+            final int reorderPoint;
+            final String sku;
+            Urgency(int qty, int reorderPoint, String sku) { this.qty = qty; this.reorderPoint = reorderPoint; this.sku = sku; }
+            @Override public int compareTo(Urgency o) {
+                int c = Long.compare((long) qty * o.reorderPoint, (long) o.qty * reorderPoint);
+                return c != 0 ? c : sku.compareTo(o.sku);
+            }
+            @Override public boolean equals(Object o) { return o instanceof Urgency && compareTo((Urgency) o) == 0; }
+            @Override public int hashCode() { return sku.hashCode(); }
+        }
+
+        private final ConcurrentSkipListSet<Urgency> low = new ConcurrentSkipListSet<>();
+        private final AtomicInteger lowCount = new AtomicInteger();
+        private final java.util.List<LowStockListener> listeners = new CopyOnWriteArrayList<>();
+
+        static boolean isLow(int qty, int reorderPoint) { return reorderPoint > 0 && qty <= reorderPoint; }
+
+        // before is the item as it was (null if it did not exist) with its quantity then; after is null once deleted.
+        void update(InventoryItem before, int beforeQty, InventoryItem after) {
+            boolean wasLow = before != null && isLow(beforeQty, before.reorderPoint);
+            boolean nowLow = after != null && isLow(after.quantity, after.reorderPoint);
+            if (!wasLow && !nowLow) return;
+            if (wasLow) low.remove(new Urgency(beforeQty, before.reorderPoint, before.sku));
+            if (nowLow) low.add(new Urgency(after.quantity, after.reorderPoint, after.sku));
+            if (wasLow == nowLow) return;
+            lowCount.addAndGet(nowLow ? 1 : -1);
+            LowStockEvent event = new LowStockEvent(after != null ? after : before, nowLow, after != null ? after.quantity : beforeQty);
+            for (LowStockListener l : listeners) {
+                try {
+                    l.lowStockChanged(event);
+                } catch (RuntimeException ex) {
+                    System.err.println("Low-stock listener failed: " + ex);
+                }
+            }
+        }
+
+        // The first n SKUs in urgency order; a snapshot, so callers re-read the items for current figures.
+        java.util.List<String> mostUrgent(int n) {
+            java.util.List<String> out = new ArrayList<>(Math.min(n, 64));
+            for (Iterator<Urgency> it = low.iterator(); it.hasNext() && out.size() < n; ) out.add(it.next().sku);
+            return out;
+        }
+
+        int lowCount() { return lowCount.get(); }
+        void addListener(LowStockListener l) { listeners.add(l); }
+        void removeListener(LowStockListener l) { listeners.remove(l); }
+    }
+
+    // ----------------------- Change Stream -----------------------
+    // Hands every transaction a model commits to in-process subscribers, in sequence order, each on a thread and at
+    // a cursor of its own. One dispatcher thread is the only writer of a bounded ring of the newest records: it copies
+    // them in as the TxnLog publishes them, so the mutators that logged them never touch the ring or wait for a
+    // subscriber. Subscribers read up to the ring's head, never past it. A gating subscriber holds the dispatcher back,
+    // which never overwrites a slot that subscriber has not read; meanwhile the records wait in the TxnLog. A
+    // subscriber that falls more than a ring behind, or starts from a transaction the ring no longer holds, reads the
+    // TxnLog instead (and the journal, for records older than the log's first) until it is back within the ring.
+    // Nothing is skipped either way.
+    static class ChangeStream implements Closeable {
+        private static final int RING = Integer.highestOneBit(Math.max(64, Integer.getInteger("inventory.changeRing", 1 << 14)));
+        private static final int BATCH = 1024; // most records handed to a subscriber at once
+        private static final String LAG = "inventory_change_stream_lag";
+        // Parked threads are only woken explicitly: the dispatcher by TxnLog.publish, a gating subscriber moving on or
+        // closing, subscribers as the head advances; each rechecks after announcing itself, so no wake-up is missed.
+        private static final int MAX_FAILURES = 10; // in a row, a second apart, before a subscription is dropped
+        private static final LongAdder STALLS = Metrics.REGISTRY.counter("inventory_change_stream_stalls_total", "",
+                "Times the change stream dispatcher waited for a gating subscriber to read the ring.");
+        private static final LongAdder LOG_READS = Metrics.REGISTRY.counter("inventory_change_stream_log_reads_total", "",
+                "Records a subscriber read from the transaction log because the ring did not hold them.");
+        private static final LongAdder DROPPED = Metrics.REGISTRY.counter("inventory_change_stream_dropped_total", "",
+                "Subscriptions closed because their subscriber failed the same batch " + MAX_FAILURES + " times in a row.");
+
+        // Called on the subscription's own thread with records in sequence order. Throwing hands the same batch
+        // over again a second later, so a subscriber never misses a record; after MAX_FAILURES in a row the
+        // subscription is closed instead, so a broken gating subscriber cannot hold the stream back for good.
+        // The list is reused: copy what you keep.
+        interface Subscriber {
+            void onChanges(java.util.List<TransactionRec> batch) throws Exception;
+        }
+
+        final class Subscription implements Closeable {
+            final String name;
+            final boolean gating;
+            private final Subscriber subscriber;
+            private final Thread thread;
+            private final LongSupplier lagGauge = this::lag;
+            private volatile long position; // the last sequence number delivered
+            private volatile boolean closed;
+
+            private Subscription(String name, long fromSeq, boolean gating, Subscriber subscriber) {
+                this.name = name;
+                this.gating = gating;
+                this.subscriber = subscriber;
+                this.position = Math.max(0, fromSeq - 1);
+                thread = new Thread(() -> follow(this), "changes-" + location + "-" + name);
+                thread.setDaemon(true);
+            }
+
+            public long position() { return position; }
+
+            public long lag() { return closed ? 0 : Math.max(0, log.lastSeq() - position); }
+
+            // Stops delivery after the batch in hand, if any; a gating subscription stops holding the ring at once.
+            @Override public void close() {
+                closed = true;
+                subscriptions.remove(this);
+                Metrics.REGISTRY.removeGauge(LAG, lagLabels(name), lagGauge);
+                LockSupport.unpark(thread);
+                if (gating) LockSupport.unpark(dispatcher);
+            }
+        }
+
+        private final TxnLog log;
+        private final Path journalDir; // null for an in-memory model, which has no older history
+        private final String location;
+        private final AtomicReferenceArray<TransactionRec> ring = new AtomicReferenceArray<>(RING);
+        private final long origin;       // the log's last record when the stream started; the ring holds only later ones
+        private volatile long head;      // the newest record in the ring
+        private volatile long claimedTo; // the newest the dispatcher has begun to write: slots up to claimedTo - RING are overwritten
+        private final java.util.List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+        private final Thread dispatcher;
+        private volatile boolean closed;
+
+        ChangeStream(TxnLog log, Path journalDir, String location) {
+            this.log = log;
+            this.journalDir = journalDir;
+            this.location = location;
+            origin = head = claimedTo = log.lastSeq();
+            dispatcher = new Thread(this::dispatch, "changes-" + location);
+            dispatcher.setDaemon(true);
+        }
+
+        void start() { dispatcher.start(); }
+
+        // Delivers every transaction from fromSeq on (1 replays all the history still on disk) to subscriber.
+        public Subscription subscribe(String name, long fromSeq, boolean gating, Subscriber subscriber) {
+            Subscription s = new Subscription(name, fromSeq, gating, subscriber);
+            subscriptions.add(s);
+            Metrics.REGISTRY.gauge(LAG, lagLabels(name), "Committed transactions a change stream subscriber has yet to receive.", s.lagGauge);
+            s.thread.start();
+            return s;
+        }
+
+        private String lagLabels(String subscriber) { return "location=\"" + location + "\",subscriber=\"" + subscriber + "\""; }
+
+        private void dispatch() {
+            while (!closed) {
+                long from = head, to = Math.min(log.lastSeq(), from + BATCH);
+                long limit = Long.MAX_VALUE;
+                for (Subscription s : subscriptions) if (s.gating) limit = Math.min(limit, s.position + RING);
+                boolean gated = false;
+                if (to > limit) {
+                    to = limit;
+                    gated = to <= from;
+                    if (gated) STALLS.increment();
+                }
+                if (to <= from) {
+                    log.waiter = dispatcher;
+                    if (gated || log.lastSeq() <= from) LockSupport.park(this); // rechecked once publish can see us
+                    log.waiter = null;
+                    continue;
+                }
+                claimedTo = to;
+                for (long seq = from + 1; seq <= to; seq++) ring.set((int) (seq & (RING - 1)), log.get(seq));
+                head = to;
+                for (Subscription s : subscriptions) LockSupport.unpark(s.thread);
+            }
+        }
+
+        // The ring's copy if it still holds seq: claimedTo is read after the slot, so a slot overwritten in between is noticed.
+        private TransactionRec read(long seq) {
+            if (seq <= head && seq > origin) {
+                TransactionRec rec = ring.get((int) (seq & (RING - 1)));
+                if (claimedTo - RING < seq) return rec;
+            }
+            LOG_READS.increment();
+            return log.get(seq);
+        }
+
+        private void follow(Subscription s) {
+            java.util.List<TransactionRec> batch = new ArrayList<>(BATCH);
+            if (s.position + 1 < log.firstSeq()) replayHistory(s, batch);
+            while (!s.closed && !closed) {
+                long from = s.position, to = Math.min(head, from + BATCH);
+                if (to <= from) {
+                    LockSupport.park(this); // the dispatcher unparks us after moving head, so a move since we read it is not missed
+                    continue;
+                }
+                batch.clear();
+                for (long seq = from + 1; seq <= to; seq++) batch.add(read(seq));
+                deliver(s, batch, to);
+            }
+        }
+
+        // Records older than the log's first are read back from the journal, oldest first.
+        private void replayHistory(Subscription s, java.util.List<TransactionRec> batch) {
+            long first = log.firstSeq();
+            if (journalDir != null) {
+                try {
+                    TxnJournal.readHistory(journalDir, first, r -> {
+                        if (s.closed || r.seq() <= s.position) return;
+                        batch.add(r);
+                        if (batch.size() == BATCH) deliver(s, batch, r.seq());
+                    });
+                    if (!batch.isEmpty()) deliver(s, batch, batch.get(batch.size() - 1).seq());
+                } catch (IOException ex) {
+                    System.err.println(location + ": change subscriber " + s.name + " could not read older history: " + ex.getMessage());
+                }
+            }
+            if (s.position < first - 1) s.position = first - 1;
+        }
+
+        private void deliver(Subscription s, java.util.List<TransactionRec> batch, long through) {
+            for (int failures = 0; !s.closed; ) {
+                try {
+                    s.subscriber.onChanges(batch);
+                    s.position = through;
+                    if (s.gating) LockSupport.unpark(dispatcher); // it may be waiting for this subscriber to free ring slots
+                    break;
+                } catch (Exception ex) {
+                    if (++failures == MAX_FAILURES) {
+                        System.err.println(location + ": change subscriber " + s.name + " failed " + failures + " times in a row, dropping it: " + ex);
+                        DROPPED.increment();
+                        s.close();
+                        break;
+                    }
+                    System.err.println(location + ": change subscriber " + s.name + " failed, retrying: " + ex);
+                    // A back-off, cut short only if the subscription closes: the dispatcher unparks us whenever head moves.
+                    long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+                    for (long left; !s.closed && (left = until - System.nanoTime()) > 0; ) LockSupport.parkNanos(this, left);
+                }
+            }
+            batch.clear();
+        }
+
+        @Override public void close() {
+            closed = true;
+            for (Subscription s : subscriptions) s.close();
+            LockSupport.unpark(dispatcher);
+        }
+    }
+
+    // Appends every transaction of one location to changes.jsonl in its data directory, one JSON object per line as
+    // the HTTP API renders them; enabled with -Dinventory.changeFeed=true. It picks up after the last complete line,
+    // so a restart neither repeats nor skips a record, and it gates the stream rather than fall back on the log.
+    static class ChangeFileSink implements ChangeStream.Subscriber, Closeable {
+        private static final int TAIL = 64 * 1024; // a line is far shorter
+
+        private final java.io.Writer out;
+        private final StringBuilder line = new StringBuilder(256);
+        private ChangeStream.Subscription subscription;
+        private boolean closed; // guarded by this
+
+        private ChangeFileSink(Path file) throws IOException {
+            out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        static boolean enabled() { return Boolean.getBoolean("inventory.changeFeed"); }
+
+        static ChangeFileSink start(ChangeStream stream, Path file) throws IOException {
+            ChangeFileSink sink = new ChangeFileSink(file);
+            sink.subscription = stream.subscribe("file", lastSeqIn(file) + 1, true, sink);
+            return sink;
+        }
+
+        // The sequence number on the file's last complete line, 0 for a new file; a line cut short by a crash is dropped.
+        static long lastSeqIn(Path file) throws IOException {
+            if (!Files.exists(file)) return 0;
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long size = ch.size();
+                int n = (int) Math.min(size, TAIL);
+                ByteBuffer tail = ByteBuffer.allocate(n);
+                while (tail.hasRemaining() && ch.read(tail, size - n + tail.position()) > 0) { }
+                byte[] b = tail.array();
+                int end = n - 1;
+                while (end >= 0 && b[end] != '\n') end--;
+                if (end < n - 1) {
+                    if (end < 0 && size > n) throw new IOException(file + " does not end with a complete line");
+                    ch.truncate(size - n + end + 1);
+                }
+                if (end < 0) return 0;
+                int start = end - 1;
+                while (start >= 0 && b[start] != '\n') start--;
+                Object last = Json.parse(new String(b, start + 1, end - start - 1, StandardCharsets.UTF_8));
+                Object id = last instanceof Map ? ((Map<?, ?>) last).get("id") : null;
+                if (!(id instanceof String)) throw new IOException(file + " ends with a line that has no transaction id");
+                String s = (String) id;
+                return Long.parseLong(s.substring(s.indexOf('-') + 1));
+            } catch (IllegalArgumentException ex) {
+                throw new IOException(file + " ends with a line that is not a transaction: " + ex.getMessage());
+            }
+        }
+
+        @Override public synchronized void onChanges(java.util.List<TransactionRec> batch) throws IOException {
+            if (closed) return;
+            for (TransactionRec r : batch) {
+                line.setLength(0);
+                Json.txn(line, r).append('\n');
+                out.append(line);
+            }
+            out.flush();
+        }
+
+        @Override public void close() {
+            if (subscription != null) subscription.close();
+            synchronized (this) {
+                closed = true;
+                try { out.close(); } catch (IOException ex) { System.err.println("Failed to close change feed: " + ex.getMessage()); }
+            }
+        }
+    }
+
+    // ----------------------- Metrics -----------------------
+    // Process-wide registry of counters, gauges and latency histograms. Instruments are created once, up front,
+    // and held in static fields; recording only bumps LongAdders and atomic bucket counts, so it never allocates
+    // or blocks. writePrometheus renders everything in the Prometheus text format.
+    static final class Metrics {
+        static final Metrics REGISTRY = new Metrics();
+
+        static final class Instrument {
+            final String name, labels, type, help;
+            final Object source; // LongAdder, LatencyHistogram or LongSupplier
+            Instrument(String name, String labels, String type, String help, Object source) {
+                this.name = name; this.labels = labels; this.type = type; this.help = help; this.source = source;
+            }
+            String key() { return labels.isEmpty() ? name : name + "{" + labels + "}"; }
+        }
+
+        private final Map<String, Instrument> instruments = new LinkedHashMap<>(); // guarded by this
+
+        // labels is a Prometheus label list without braces, e.g. op="addStock", or "" for none.
+        synchronized LongAdder counter(String name, String labels, String help) {
+            return (LongAdder) getOrAdd(name, labels, "counter", help, new LongAdder()).source;
+        }
+
+        synchronized LatencyHistogram histogram(String name, String labels, String help) {
+            return (LatencyHistogram) getOrAdd(name, labels, "summary", help, new LatencyHistogram()).source;
+        }
+
+        // Read on demand; registering the same name and labels again replaces the previous supplier.
+        synchronized void gauge(String name, String labels, String help, LongSupplier value) {
+            Instrument i = new Instrument(name, labels, "gauge", help, value);
+            instruments.put(i.key(), i);
+        }
+
+        // Drops a gauge, unless the same name and labels have since been registered with another supplier.
+        synchronized void removeGauge(String name, String labels, LongSupplier value) {
+            String key = new Instrument(name, labels, "gauge", "", value).key();
+            Instrument i = instruments.get(key);
+            if (i != null && i.source == value) instruments.remove(key);
+        }
+
+        // A monotonic value something else already keeps, exposed as a counter.
+        synchronized void counterFunction(String name, String labels, String help, LongSupplier value) {
+            Instrument i = new Instrument(name, labels, "counter", help, value);
+            instruments.put(i.key(), i);
+        }
+
+        private Instrument getOrAdd(String name, String labels, String type, String help, Object source) {
+            Instrument i = new Instrument(name, labels, type, help, source);
+            Instrument existing = instruments.putIfAbsent(i.key(), i);
+            return existing != null ? existing : i;
+        }
+
+        synchronized java.util.List<Instrument> instruments() { return new ArrayList<>(instruments.values()); }
+
+        static long valueOf(Instrument i) {
+            if (i.source instanceof LongAdder) return ((LongAdder) i.source).sum();
+            if (i.source instanceof LongSupplier) return ((LongSupplier) i.source).getAsLong();
+            return ((LatencyHistogram) i.source).count();
+        }
+
+        // Histograms are written as summaries in seconds; each family is grouped under one HELP/TYPE header.
+        void writePrometheus(Appendable out) throws IOException {
+            Map<String, java.util.List<Instrument>> families = new LinkedHashMap<>();
+            for (Instrument i : instruments()) families.computeIfAbsent(i.name, k -> new ArrayList<>()).add(i);
+            for (java.util.List<Instrument> family : families.values()) {
+                Instrument first = family.get(0);
+                out.append("# HELP ").append(first.name).append(' ').append(first.help).append('\n');
+                out.append("# TYPE ").append(first.name).append(' ').append(first.type).append('\n');
+                for (Instrument i : family) {
+                    if (!(i.source instanceof LatencyHistogram)) {
+                        out.append(i.key()).append(' ').append(Long.toString(valueOf(i))).append('\n');
+                        continue;
+                    }
+                    LatencyHistogram.Snapshot s = ((LatencyHistogram) i.source).snapshot();
+                    String sep = i.labels.isEmpty() ? "" : i.labels + ",";
+                    for (double q : new double[] {0.5, 0.9, 0.99, 0.999}) {
+                        out.append(i.name).append('{').append(sep).append("quantile=\"").append(Double.toString(q)).append("\"} ")
+                                .append(s.count == 0 ? "NaN" : Double.toString(s.percentile(q * 100) / 1e9)).append('\n');
+                    }
+                    String labels = i.labels.isEmpty() ? "" : "{" + i.labels + "}";
+                    out.append(i.name).append("_sum").append(labels).append(' ').append(Double.toString(s.sum / 1e9)).append('\n');
+                    out.append(i.name).append("_count").append(labels).append(' ').append(Long.toString(s.count)).append('\n');
+                }
+            }
+        }
+
+        // Rewrites the file every period seconds; the new text is moved into place so readers never see half a dump.
+        static ScheduledExecutorService dumpPeriodically(Path file, long periodSeconds) {
+            ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics-dump");
+                t.setDaemon(true);
+                return t;
+            });
+            exec.scheduleWithFixedDelay(() -> {
+                try {
+                    REGISTRY.writeTo(file);
+                } catch (IOException | RuntimeException ex) {
+                    System.err.println("Failed to write metrics to " + file + ": " + ex.getMessage());
+                }
+            }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+            return exec;
+        }
+
+        void writeTo(Path file) throws IOException {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            StringBuilder text = new StringBuilder();
+            writePrometheus(text);
+            Files.write(tmp, text.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    // HDR-style log-linear histogram of nanosecond latencies: values below 32 get a bucket each, and every power
+    // of two above that is split into 32 linear sub-buckets, so any recorded value is reported within about 3%.
+    // Values past 2^41 ns (about 36 minutes) share the last bucket.
+    static final class LatencyHistogram {
+        private static final int SUB_BITS = 5, SUB = 1 << SUB_BITS, MAX_EXP = 40;
+        private final AtomicLongArray counts = new AtomicLongArray((MAX_EXP - SUB_BITS + 2) * SUB);
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            if (nanos < 0) nanos = 0; // nanoTime is monotonic, but be safe
+            counts.incrementAndGet(bucket(nanos));
+            sum.add(nanos);
+            long m;
+            while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) { }
+        }
+
+        long count() {
+            long n = 0;
+            for (int i = 0; i < counts.length(); i++) n += counts.get(i);
+            return n;
+        }
+
+        static int bucket(long v) {
+            if (v < SUB) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            if (exp > MAX_EXP) return (MAX_EXP - SUB_BITS + 2) * SUB - 1;
+            return (exp - SUB_BITS + 1) * SUB + (int) ((v >>> (exp - SUB_BITS)) & (SUB - 1));
+        }
+
+        // Largest value that falls into bucket b.
+        static long highestIn(int b) {
+            if (b < SUB) return b;
+            int shift = b / SUB - 1;
+            return ((long) (SUB + b % SUB) << shift) + (1L << shift) - 1;
+        }
+
+        // Buckets are read one at a time while recording continues, so a snapshot is close to, not exactly, a cut.
+        Snapshot snapshot() {
+            long[] c = new long[counts.length()];
+            long n = 0;
+            for (int i = 0; i < c.length; i++) n += c[i] = counts.get(i);
+            return new Snapshot(c, n, sum.sum(), max.get());
+        }
+
+        static final class Snapshot {
+            final long[] counts;
+            final long count, sum, max;
+            Snapshot(long[] counts, long count, long sum, long max) { this.counts = counts; this.count = count; this.sum = sum; this.max = max; }
+
+            double mean() { return count == 0 ? 0 : (double) sum / count; }
+
+            // Value at or below which p percent of recordings fall, 0 if nothing was recorded.
+            long percentile(double p) {
+                if (count == 0) return 0;
+                long rank = Math.max(1, (long) Math.ceil(p / 100 * count)), seen = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    seen += counts[i];
+                    if (seen >= rank) return Math.min(highestIn(i), max);
+                }
+                return max;
+            }
+        }
+    }
+
+    // Latency and refusals of one public InventoryModel operation.
+    static final class OpMetrics {
+        final LatencyHistogram latency;
+        final LongAdder rejected;
+
+        OpMetrics(String op) {
+            String labels = "op=\"" + op + "\"";
+            latency = Metrics.REGISTRY.histogram("inventory_op_seconds", labels, "Latency of InventoryModel operations, including any wait for the journal.");
+            rejected = Metrics.REGISTRY.counter("inventory_op_rejected_total", labels, "InventoryModel operations refused, e.g. for an unknown SKU or too little stock.");
+        }
+
+        void record(long start) { latency.record(System.nanoTime() - start); }
+        boolean ok(long start) { record(start); return true; }
+        boolean rejected(long start) { rejected.increment(); record(start); return false; }
+    }
+
+    // Times every event the EDT dispatches, whatever posted it: timers, invokeLater refreshes, input and paints.
+    static final class TimedEventQueue extends EventQueue {
+        private static final LatencyHistogram DISPATCH = Metrics.REGISTRY.histogram("inventory_edt_dispatch_seconds", "",
+                "Time the event dispatch thread spends on each event.");
+
+        @Override protected void dispatchEvent(AWTEvent event) {
+            long start = System.nanoTime();
+            try {
+                super.dispatchEvent(event);
+            } finally {
+                DISPATCH.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    // ----------------------- Persistence -----------------------
+    // Append-only binary journal of TransactionRec entries, split into segment files named after the first
+    // sequence number they hold. A single writer thread tails the model's TxnLog and writes whatever has been
+    // published since its last pass as one batch (group commit), so mutators never touch the disk. Only the
+    // ALWAYS policy makes a caller wait, and then only for the fsync of the batch its record landed in.
+    //
+    // Segment: int magic, short version, then frames
+    // Frame:   int payloadLength, payload, int crc32(payload)                     a single record
+    //          int -groupLength, groupLength x (int payloadLength, payload), int crc32   a batch, replayed all-or-nothing
+    // Payload: long seq, long epochMillis, byte type, int qtyDelta, str sku, str itemName, str performedBy, str notes
+    //          [+ str category, double price, int reorderPoint (since version 3) for NEW_ITEM / UPDATE_ITEM / TRANSFER_*]
+    //          [+ str peerLocation, and long peerSeq unless it is null (since version 4)]
+    //          where str is a varint (byteLength + 1, 0 for null) followed by UTF-8 bytes.
+    // A record's location is the shard whose journal holds it, so it is not written.
+    static class TxnJournal implements Closeable {
+        enum FsyncPolicy { NONE, BATCH, ALWAYS }
+
+        private static final int MAGIC = 0x494E564A; // "INVJ"
+        private static final short VERSION = 4; // 1 had no group frames, 2 no reorder points, 3 no transfers
+        private static final int HEADER_BYTES = 6;
+        private static final int BUFFER_BYTES = 1 << 20;
+        private static final long SEGMENT_BYTES = 64L << 20;
+        private static final long FLUSH_INTERVAL_MS = 20;
+
+        private final Path dir;
+        private final FsyncPolicy policy;
+        private final CRC32 crc = new CRC32();
+        private final Object durableMonitor = new Object(); // notified after every batch, and when the writer stops
+        private FileChannel channel;  // current segment, only touched by the writer once attached
+        private volatile long segmentFirstSeq; // first sequence number of the current segment
+        private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        private ByteBuffer scratch = ByteBuffer.allocate(1 << 16); // one frame while it is encoded
+        private TxnLog source;
+        private Thread writer;
+        private volatile long durable; // highest sequence number written, and fsynced unless the policy is NONE
+        private volatile boolean rollRequested;
+        private volatile boolean closed;
+        private volatile IOException failure;
+
+        private TxnJournal(Path dir, FileChannel channel, long segmentFirstSeq, FsyncPolicy policy, long lastSeq) {
+            this.dir = dir;
+            this.channel = channel;
+            this.segmentFirstSeq = segmentFirstSeq;
+            this.policy = policy;
+            this.durable = lastSeq;
+        }
+
+        // Replays every intact record after afterSeq (the point a snapshot already covers), then truncates a torn
+        // or corrupt tail the last crash left in the newest segment. Damage in an older segment is an error.
+        public static TxnJournal open(Path dir, FsyncPolicy policy, long afterSeq, java.util.function.Consumer<TransactionRec> replay) throws IOException {
+            Files.createDirectories(dir);
+            java.util.List<Path> segments = segments(dir);
+            long lastSeq = afterSeq;
+            for (int i = 0; i < segments.size(); i++) {
+                boolean newest = i == segments.size() - 1;
+                if (!newest && firstSeqOf(segments.get(i + 1)) - 1 <= afterSeq) continue; // wholly covered by the snapshot
+                lastSeq = Math.max(lastSeq, replaySegment(segments.get(i), newest, afterSeq, replay));
+            }
+            Path current = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (current != null && versionOf(current) < VERSION) { // never mix formats in one segment
+                if (Files.size(current) <= HEADER_BYTES) Files.delete(current); // empty, and named for the sequence the new one starts at
+                current = null;
+            }
+            if (current == null) current = createSegment(dir, lastSeq + 1);
+            FileChannel ch = FileChannel.open(current, StandardOpenOption.WRITE);
+            ch.position(ch.size());
+            return new TxnJournal(dir, ch, firstSeqOf(current), policy, lastSeq);
+        }
+
+        private static long replaySegment(Path segment, boolean newest, long afterSeq, java.util.function.Consumer<TransactionRec> replay) throws IOException {
+            long lastSeq = 0;
+            try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long size = ch.size();
+                if (size < HEADER_BYTES && newest) { // crashed while creating the segment
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putShort(VERSION);
+                    header.flip();
+                    ch.truncate(0);
+                    ch.write(header, 0);
+                    return 0;
+                }
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), 1 << 16));
+                if (size < HEADER_BYTES || in.readInt() != MAGIC) throw new IOException(segment + " is not an inventory journal segment");
+                short version = in.readShort();
+                if (version < 1 || version > VERSION) throw new IOException("Unsupported journal version " + version + " in " + segment);
+                long[] last = {0};
+                long good = readFrames(in, size, version, afterSeq, last, replay);
+                lastSeq = last[0];
+                if (good < size) {
+                    if (!newest) throw new IOException("Journal segment " + segment + " is damaged at byte " + good);
+                    System.err.println("Journal " + segment + ": discarding " + (size - good) + " bytes of incomplete tail");
+                    ch.truncate(good);
+                }
+            }
+            return lastSeq;
+        }
+
+        // Passes on the records of every intact frame after the header and returns the offset just past the last
+        // one; lastSeq[0] is set to the sequence number of the last record read.
+        private static long readFrames(DataInputStream in, long size, short version, long afterSeq, long[] lastSeq,
+                                       java.util.function.Consumer<TransactionRec> replay) throws IOException {
+            long good = HEADER_BYTES;
+            CRC32 check = new CRC32();
+            byte[] frame = new byte[256];
+            while (good < size) {
+                int header = in.readInt();
+                int len = header < 0 ? -header : header;
+                if (len <= 0 || good + 8 + len > size) break;
+                if (frame.length < len) frame = new byte[len];
+                in.readFully(frame, 0, len);
+                int stored = in.readInt();
+                check.reset();
+                check.update(frame, 0, len);
+                if ((int) check.getValue() != stored) break;
+                if (header > 0) {
+                    lastSeq[0] = replayRecord(frame, 0, len, version, afterSeq, replay);
+                } else {
+                    ByteBuffer group = ByteBuffer.wrap(frame, 0, len);
+                    while (group.hasRemaining()) {
+                        int recordLen = group.getInt();
+                        lastSeq[0] = replayRecord(frame, group.position(), recordLen, version, afterSeq, replay);
+                        group.position(group.position() + recordLen);
+                    }
+                }
+                good += 8 + len;
+            }
+            return good;
+        }
+
+        // Reads every record numbered below beforeSeq that is still on disk under dir, archived segments included,
+        // oldest first, for consumers rebuilding what the snapshot folded away. Only reads: a frame that fails its
+        // checksum ends its segment quietly, as only the live segment's tail can be half written.
+        static void readHistory(Path dir, long beforeSeq, java.util.function.Consumer<TransactionRec> out) throws IOException {
+            java.util.List<Path> all = new ArrayList<>();
+            if (Files.isDirectory(dir.resolve("archive"))) all.addAll(segments(dir.resolve("archive")));
+            all.addAll(segments(dir));
+            java.util.function.Consumer<TransactionRec> older = r -> { if (r.seq() < beforeSeq) out.accept(r); };
+            for (Path segment : all) {
+                if (firstSeqOf(segment) >= beforeSeq) break;
+                // A snapshot may archive a live segment after it was listed.
+                if (!Files.exists(segment)) segment = dir.resolve("archive").resolve(segment.getFileName());
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment), 1 << 16))) {
+                    long size = Files.size(segment);
+                    if (size < HEADER_BYTES || in.readInt() != MAGIC) continue;
+                    short version = in.readShort();
+                    if (version < 1 || version > VERSION) throw new IOException("Unsupported journal version " + version + " in " + segment);
+                    readFrames(in, size, version, 0, new long[1], older);
+                }
+            }
+        }
+
+        // Records the snapshot already covers are only checksummed, never decoded.
+        private static long replayRecord(byte[] frame, int offset, int len, short version, long afterSeq, java.util.function.Consumer<TransactionRec> replay) {
+            ByteBuffer record = ByteBuffer.wrap(frame, offset, len);
+            long seq = record.getLong(offset);
+            if (seq > afterSeq) replay.accept(decode(record, version));
+            return seq;
+        }
+
+        private static short versionOf(Path segment) throws IOException {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(segment))) {
+                in.readInt();
+                return in.readShort();
+            }
+        }
+
+        private static Path createSegment(Path dir, long firstSeq) throws IOException {
+            Path segment = dir.resolve(String.format("segment-%020d.log", firstSeq));
+            try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putShort(VERSION);
+                header.flip();
+                ch.write(header);
+            }
+            return segment;
+        }
+
+        static java.util.List<Path> segments(Path dir) throws IOException {
+            java.util.List<Path> out = new ArrayList<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "segment-*.log")) {
+                for (Path f : files) out.add(f);
+            }
+            out.sort(Comparator.comparingLong(TxnJournal::firstSeqOf));
+            return out;
+        }
+
+        private static long firstSeqOf(Path segment) {
+            String name = segment.getFileName().toString();
+            return Long.parseLong(name.substring("segment-".length(), name.length() - ".log".length()));
+        }
+
+        // Moves closed segments whose records are all <= seq into archive/; they are kept for audit but never replayed.
+        public void archiveThrough(long seq) throws IOException {
+            long current = segmentFirstSeq;
+            java.util.List<Path> segments = segments(dir);
+            Path archive = dir.resolve("archive");
+            for (int i = 0; i + 1 < segments.size(); i++) {
+                long next = firstSeqOf(segments.get(i + 1));
+                if (next > seq + 1 || next > current) break;
+                Files.createDirectories(archive);
+                Files.move(segments.get(i), archive.resolve(segments.get(i).getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        // Starts a new segment after the next batch, so a fresh snapshot leaves the older segments archivable.
+        public void requestRoll() { rollRequested = true; }
+
+        public Path dir() { return dir; }
+
+        // Starts the writer thread, which journals every record the log publishes after the last one on disk.
+        public void attach(TxnLog log) {
+            source = log;
+            writer = new Thread(this::runWriter, "journal-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        // Under ALWAYS, waits until the batch holding this sequence number has been fsynced; otherwise returns immediately.
+        public void awaitDurable(long seq) {
+            if (policy == FsyncPolicy.ALWAYS) awaitWritten(seq);
+        }
+
+        // Whatever the policy, waits until the writer has written this sequence number out (and fsynced it, unless
+        // the policy is NONE). An interrupt does not cut the wait short; it is passed on once the record is written.
+        void awaitWritten(long seq) {
+            if (durable >= seq) return;
+            LockSupport.unpark(writer);
+            boolean interrupted = false;
+            try {
+                synchronized (durableMonitor) {
+                    while (durable < seq) {
+                        checkOpen();
+                        try { durableMonitor.wait(); } catch (InterruptedException e) { interrupted = true; }
+                    }
+                }
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+        }
+
+        // Writes out everything published so far, then closes the current segment.
+        @Override public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            if (writer != null) {
+                LockSupport.unpark(writer);
+                try { writer.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+                synchronized (durableMonitor) { durableMonitor.notifyAll(); } // anyone still waiting now sees checkOpen fail
+            }
+            try {
+                if (failure != null) throw failure;
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void runWriter() {
+            long written = durable;
+            while (true) {
+                long target = source.lastSeq();
+                if (target == written) {
+                    if (closed) return;
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS)); // ALWAYS callers unpark us early
+                    continue;
+                }
+                long seq = written + 1;
+                try {
+                    while (seq <= target) {
+                        int n = Math.max(1, source.get(seq).groupSize);
+                        if (seq + n - 1 > target) break; // rest of the batch is still being published
+                        writeFrame(seq, n);
+                        seq += n;
+                    }
+                    if (seq == written + 1) { // the first group is still being published: park until publish moves the cursor
+                        source.journalWaiter = writer;
+                        if (source.lastSeq() == target) LockSupport.park(this);
+                        source.journalWaiter = null;
+                        continue;
+                    }
+                    target = seq - 1;
+                    drain();
+                    if (policy != FsyncPolicy.NONE) channel.force(false);
+                    if (rollRequested || channel.size() >= SEGMENT_BYTES) {
+                        rollRequested = false;
+                        roll(target + 1);
+                    }
+                } catch (IOException ex) {
+                    failure = ex;
+                    synchronized (durableMonitor) { durableMonitor.notifyAll(); }
+                    return;
+                }
+                written = target;
+                durable = target;
+                synchronized (durableMonitor) { durableMonitor.notifyAll(); }
+            }
+        }
+
+        // Encodes records first..first+n-1 as one frame; a batch gets a single checksum so replay takes all of it or none.
+        private void writeFrame(long first, int n) throws IOException {
+            while (true) {
+                try {
+                    scratch.clear();
+                    for (int i = 0; i < n; i++) putRecord(scratch, first + i, source.get(first + i));
+                    break;
+                } catch (java.nio.BufferOverflowException ex) {
+                    scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+                }
+            }
+            scratch.flip();
+            int size = scratch.remaining() + (n > 1 ? 8 : 4);
+            if (buffer.remaining() < size) drain();
+            if (buffer.capacity() < size) buffer = ByteBuffer.allocate(size);
+            crc.reset();
+            if (n == 1) {
+                ByteBuffer payload = scratch.duplicate();
+                payload.position(4);
+                crc.update(payload);
+            } else {
+                buffer.putInt(-scratch.remaining());
+                crc.update(scratch.duplicate());
+            }
+            buffer.put(scratch);
+            buffer.putInt((int) crc.getValue());
+        }
+
+        // Writes int payloadLength followed by the payload.
+        private static void putRecord(ByteBuffer b, long seq, TransactionRec rec) {
+            int start = b.position();
+            b.putInt(0);
+            b.putLong(seq);
+            b.putLong(rec.timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+            b.put((byte) rec.type.ordinal());
+            b.putInt(rec.qtyDelta);
+            putStr(b, utf8(rec.sku)); putStr(b, utf8(rec.itemName)); putStr(b, utf8(rec.performedBy)); putStr(b, utf8(rec.notes));
+            if (hasDetails(rec.type)) { putStr(b, utf8(rec.category)); b.putDouble(rec.price); b.putInt(rec.reorderPoint); }
+            putStr(b, utf8(rec.peerLocation));
+            if (rec.peerLocation != null) b.putLong(rec.peerSeq);
+            b.putInt(start, b.position() - start - 4);
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        // Runs on the writer thread between batches, so every record >= firstSeq lands in the new segment.
+        private void roll(long firstSeq) throws IOException {
+            Path next = createSegment(dir, firstSeq);
+            channel.force(true);
+            channel.close();
+            channel = FileChannel.open(next, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+            segmentFirstSeq = firstSeq;
+        }
+
+        private void checkOpen() {
+            if (failure != null) throw new UncheckedIOException("Journal write failed: " + dir, failure);
+            if (closed && durable < source.lastSeq() && !writer.isAlive()) throw new IllegalStateException("Journal is closed: " + dir);
+        }
+
+        private static TransactionRec decode(ByteBuffer b, short version) {
+            long seq = b.getLong();
+            LocalDateTime ts = LocalDateTime.ofInstant(Instant.ofEpochMilli(b.getLong()), ZoneId.systemDefault());
+            TxnType type = TxnType.values()[b.get()];
+            int qtyDelta = b.getInt();
+            String sku = getStr(b), name = getStr(b), by = getStr(b), notes = getStr(b);
+            TransactionRec rec = new TransactionRec("TXN-" + seq, ts, sku, name, type, qtyDelta, by, notes);
+            if (hasDetails(type)) {
+                rec.category = getStr(b);
+                rec.price = b.getDouble();
+                if (version >= 3) rec.reorderPoint = b.getInt();
+            }
+            if (version >= 4 && (rec.peerLocation = getStr(b)) != null) rec.peerSeq = b.getLong();
+            return rec;
+        }
+
+        // Records that carry the item's details, so replay can rebuild the item from them.
+        static boolean hasDetails(TxnType type) {
+            return type == TxnType.NEW_ITEM || type == TxnType.UPDATE_ITEM || type == TxnType.TRANSFER_OUT || type == TxnType.TRANSFER_IN;
+        }
+
+        static byte[] utf8(String s) { return s == null ? null : s.getBytes(StandardCharsets.UTF_8); }
+
+        static int strBytes(byte[] s) {
+            int n = s == null ? 0 : s.length + 1, size = 1;
+            while ((n >>>= 7) != 0) size++;
+            return size + (s == null ? 0 : s.length);
+        }
+
+        static void putStr(ByteBuffer b, byte[] s) {
+            int n = s == null ? 0 : s.length + 1;
+            while ((n & ~0x7F) != 0) { b.put((byte) ((n & 0x7F) | 0x80)); n >>>= 7; }
+            b.put((byte) n);
+            if (s != null) b.put(s);
+        }
+
+        static String getStr(ByteBuffer b) {
+            int n = 0, shift = 0, x;
+            do { x = b.get(); n |= (x & 0x7F) << shift; shift += 7; } while ((x & 0x80) != 0);
+            if (n == 0) return null;
+            byte[] bytes;
+            int off;
+            if (b.hasArray()) { bytes = b.array(); off = b.arrayOffset() + b.position(); b.position(b.position() + n - 1); }
+            else { bytes = new byte[n - 1]; off = 0; b.get(bytes); }
+            return new String(bytes, off, n - 1, StandardCharsets.UTF_8);
+        }
+    }
+
+    // Point-in-time images of the item catalog, tagged with the last transaction sequence they cover.
+    // Written through a memory-mapped temp file and renamed into place, so a crash never leaves a partial snapshot.
+    //
+    // File: int magic, short version, long seq, int count, count x (str sku, str name, str category, int qty, double price
+    //       [, int reorderPoint since version 2]), int crc32
+    static class SnapshotStore {
+        static final class Snapshot {
+            final long seq;
+            final java.util.List<InventoryItem> items;
+            Snapshot(long seq, java.util.List<InventoryItem> items) { this.seq = seq; this.items = items; }
+        }
+
+        private static final int MAGIC = 0x494E5653; // "INVS"
+        private static final short VERSION = 2; // 1 had no reorder points
+        private static final int KEEP = 2; // the previous snapshot stays as a fallback if the newest is unreadable
+
+        static Path write(Path dir, long seq, InventoryItem[] image) throws IOException {
+            byte[][] strings = new byte[image.length * 3][];
+            long size = 4 + 2 + 8 + 4 + 4;
+            for (int i = 0; i < image.length; i++) {
+                strings[3 * i] = TxnJournal.utf8(image[i].sku);
+                strings[3 * i + 1] = TxnJournal.utf8(image[i].name);
+                strings[3 * i + 2] = TxnJournal.utf8(image[i].category);
+                size += TxnJournal.strBytes(strings[3 * i]) + TxnJournal.strBytes(strings[3 * i + 1]) + TxnJournal.strBytes(strings[3 * i + 2]) + 4 + 8 + 4;
+            }
+            if (size > Integer.MAX_VALUE) throw new IOException("Snapshot of " + image.length + " items exceeds 2 GB");
+            Path target = dir.resolve(String.format("snapshot-%020d.snap", seq));
+            Path tmp = dir.resolve(target.getFileName() + ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buf.putInt(MAGIC).putShort(VERSION).putLong(seq).putInt(image.length);
+                for (int i = 0; i < image.length; i++) {
+                    TxnJournal.putStr(buf, strings[3 * i]);
+                    TxnJournal.putStr(buf, strings[3 * i + 1]);
+                    TxnJournal.putStr(buf, strings[3 * i + 2]);
+                    buf.putInt(image[i].quantity).putDouble(image[i].price).putInt(image[i].reorderPoint);
+                }
+                CRC32 crc = new CRC32();
+                ByteBuffer body = buf.duplicate();
+                body.flip();
+                crc.update(body);
+                buf.putInt((int) crc.getValue());
+                buf.force();
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return target;
+        }
+
+        // Maps the newest readable snapshot, or returns null when there is none.
+        static Snapshot loadLatest(Path dir) throws IOException {
+            java.util.List<Path> files = snapshots(dir);
+            for (int i = files.size() - 1; i >= 0; i--) {
+                try {
+                    return read(files.get(i));
+                } catch (IOException | RuntimeException ex) {
+                    System.err.println("Skipping unreadable snapshot " + files.get(i) + ": " + ex);
+                }
+            }
+            return null;
+        }
+
+        private static Snapshot read(Path file) throws IOException {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                CRC32 crc = new CRC32();
+                ByteBuffer body = buf.duplicate();
+                body.limit(body.limit() - 4);
+                crc.update(body);
+                if (buf.getInt(buf.limit() - 4) != (int) crc.getValue()) throw new IOException("checksum mismatch");
+                // One bulk copy out of the mapping lets the string decoding below run against a plain array.
+                ByteBuffer in = ByteBuffer.allocate(buf.limit() - 4);
+                in.put((ByteBuffer) buf.duplicate().limit(buf.limit() - 4)).flip();
+                if (in.getInt() != MAGIC) throw new IOException("not an inventory snapshot");
+                short version = in.getShort();
+                if (version < 1 || version > VERSION) throw new IOException("unsupported snapshot version " + version);
+                long seq = in.getLong();
+                int count = in.getInt();
+                java.util.List<InventoryItem> items = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    String sku = TxnJournal.getStr(in), name = TxnJournal.getStr(in), category = TxnJournal.getStr(in);
+                    int qty = in.getInt();
+                    double price = in.getDouble();
+                    items.add(new InventoryItem(sku, name, category, qty, price, version >= 2 ? in.getInt() : 0));
+                }
+                return new Snapshot(seq, items);
+            }
+        }
+
+        // Deletes all but the newest KEEP snapshots and returns the oldest retained sequence (0 if none).
+        static long prune(Path dir) throws IOException {
+            java.util.List<Path> files = snapshots(dir);
+            for (int i = 0; i < files.size() - KEEP; i++) Files.deleteIfExists(files.get(i));
+            return files.isEmpty() ? 0 : seqOf(files.get(Math.max(0, files.size() - KEEP)));
+        }
+
+        private static java.util.List<Path> snapshots(Path dir) throws IOException {
+            java.util.List<Path> out = new ArrayList<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "snapshot-*.snap")) {
+                for (Path f : files) out.add(f);
+            }
+            out.sort(Comparator.comparingLong(SnapshotStore::seqOf));
+            return out;
+        }
+
+        private static long seqOf(Path snapshot) {
+            String name = snapshot.getFileName().toString();
+            return Long.parseLong(name.substring("snapshot-".length(), name.length() - ".snap".length()));
+        }
+    }
+
+    // ----------------------- Authentication -----------------------
+    // Accounts shared by the login dialog and the HTTP server, kept in users.txt in the data directory. Passwords
+    // are stored only as salted PBKDF2-HMAC-SHA256 hashes, each with the iteration count it was made with, so
+    // raising -Dinventory.passwordIterations applies to new and changed passwords without locking anyone out (and
+    // a weaker hash is redone on its next successful check). A check is deliberately slow, so verified credentials
+    // and issued tokens are cached for -Dinventory.sessionMinutes: after the first, a check is a keyed digest and a
+    // hash-map lookup whatever the cost setting. Any change to an account drops its cached sessions.
+    static class UserDirectory {
+        static final int ITERATIONS = Integer.getInteger("inventory.passwordIterations", 600_000);
+        private static final long SESSION_NANOS = TimeUnit.MINUTES.toNanos(Long.getLong("inventory.sessionMinutes", 30L));
+        private static final int SWEEP_OVER = 10_000; // sessions held before expired ones are swept
+        private static final java.util.regex.Pattern NAME = java.util.regex.Pattern.compile("[A-Za-z0-9._-]{1,32}");
+        private static final java.security.SecureRandom RANDOM = new java.security.SecureRandom();
+
+        static final class Account {
+            final User user;
+            final int iterations;
+            final byte[] salt, hash;
+            Account(User user, int iterations, byte[] salt, byte[] hash) { this.user = user; this.iterations = iterations; this.salt = salt; this.hash = hash; }
+        }
+
+        private static final class Session {
+            final User user;
+            final long expires; // System.nanoTime()
+            Session(User user) { this.user = user; this.expires = System.nanoTime() + SESSION_NANOS; }
+            boolean live() { return System.nanoTime() - expires < 0; }
+        }
+
+        private final Path file; // null keeps accounts in memory only
+        private final int iterations;
+        private final ConcurrentHashMap<String, Account> accounts = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, Session> verified = new ConcurrentHashMap<>(); // keyed by a digest of the credentials
+        private final ConcurrentHashMap<String, Session> tokens = new ConcurrentHashMap<>();
+        private final ThreadLocal<javax.crypto.Mac> digest; // keyed with a random per-process secret, so the cache holds nothing reusable
+
+        // In memory, with no accounts.
+        public UserDirectory() { this(null, ITERATIONS); }
+
+        UserDirectory(Path file, int iterations) {
+            this.file = file;
+            this.iterations = iterations;
+            byte[] secret = new byte[32];
+            RANDOM.nextBytes(secret);
+            digest = ThreadLocal.withInitial(() -> {
+                try {
+                    javax.crypto.Mac mac = javax.crypto.Mac.getInstance("HmacSHA256");
+                    mac.init(new javax.crypto.spec.SecretKeySpec(secret, "HmacSHA256"));
+                    return mac;
+                } catch (java.security.GeneralSecurityException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+        }
+
+        // Loads the accounts in file. If it does not exist yet the directory is empty, and nothing is written until
+        // createAdmin provisions the first account.
+        public static UserDirectory open(Path file) throws IOException { return open(file, ITERATIONS); }
+
+        // iterations is the cost new and rehashed passwords get.
+        static UserDirectory open(Path file, int iterations) throws IOException {
+            UserDirectory d = new UserDirectory(file, iterations);
+            if (!Files.exists(file)) return d;
+            int lineNo = 0;
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                lineNo++;
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] f = line.split("\t", -1);
+                try {
+                    Base64.Decoder b64 = Base64.getDecoder();
+                    d.accounts.put(f[0], new Account(new User(f[0], f[1], Boolean.parseBoolean(f[2])), Integer.parseInt(f[3]), b64.decode(f[4]), b64.decode(f[5])));
+                } catch (RuntimeException bad) {
+                    throw new IOException(file + " line " + lineNo + " is not a valid account");
+                }
+            }
+            return d;
+        }
+
+        public boolean isEmpty() { return accounts.isEmpty(); }
+
+        // First start: creates the admin account with this password. Returns false if there already are accounts.
+        public synchronized boolean createAdmin(String password) throws IOException {
+            if (!accounts.isEmpty()) return false;
+            accounts.put("admin", account(new User("admin", "Administrator", true), password));
+            try {
+                save();
+            } catch (IOException ex) {
+                accounts.clear();
+                throw ex;
+            }
+            return true;
+        }
+
+        // Whether an account still has the password earlier versions seeded and published: admin/admin123 or staff/staff123.
+        public boolean hasDemoPassword() {
+            return matches(accounts.get("admin"), "admin123") || matches(accounts.get("staff"), "staff123");
+        }
+
+        private static boolean matches(Account a, String password) {
+            return a != null && java.security.MessageDigest.isEqual(pbkdf2(password, a.salt, a.iterations), a.hash);
+        }
+
+        // The user these credentials belong to, or null. Only the first check of a password within a session
+        // period pays for the hash; unknown users pay for one too, so timing does not tell them apart.
+        public User authenticate(String username, String password) {
+            if (username == null || password == null) return null;
+            String key = credentialKey(username, password);
+            Session cached = verified.get(key);
+            if (cached != null && cached.live()) return cached.user;
+            Account a = accounts.get(username);
+            for (;;) {
+                byte[] hash = hash(password, a == null ? new byte[16] : a.salt, a == null ? iterations : a.iterations);
+                if (a == null || !java.security.MessageDigest.isEqual(hash, a.hash)) return null;
+                synchronized (this) { // as administration is, so nothing is cached for an account changed while we hashed
+                    Account now = accounts.get(username);
+                    if (now == a) {
+                        if (a.iterations < iterations) rehash(a, password);
+                        remember(verified, key, new Session(a.user));
+                        return a.user;
+                    }
+                    if (now == null) return null;
+                    a = now; // removed and re-added, or given a new password or hash: check against that instead
+                }
+            }
+        }
+
+        // A bearer token standing for user until it expires or the account changes.
+        public String openSession(User user) {
+            byte[] raw = new byte[32];
+            RANDOM.nextBytes(raw);
+            String token = Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+            remember(tokens, token, new Session(user));
+            return token;
+        }
+
+        // The user a token was issued to, or null if it is unknown or has expired.
+        public User session(String token) {
+            Session s = token == null ? null : tokens.get(token);
+            if (s == null) return null;
+            if (s.live()) return s.user;
+            tokens.remove(token, s);
+            return null;
+        }
+
+        public void closeSession(String token) { tokens.remove(token); }
+
+        static long sessionSeconds() { return TimeUnit.NANOSECONDS.toSeconds(SESSION_NANOS); }
+
+        // ---- administration; each change is written to the file before it returns ----
+
+        public java.util.List<User> users() {
+            java.util.List<User> out = new ArrayList<>();
+            for (Account a : accounts.values()) out.add(a.user);
+            out.sort(Comparator.comparing(u -> u.username));
+            return out;
+        }
+
+        // Returns false if the name is taken or not 1-32 letters, digits, '.', '_' or '-'.
+        public synchronized boolean addUser(String username, String fullName, boolean admin, String password) throws IOException {
+            if (username == null || !NAME.matcher(username).matches() || accounts.containsKey(username)) return false;
+            accounts.put(username, account(new User(username, clean(fullName), admin), password));
+            save();
+            return true;
+        }
+
+        public synchronized boolean setPassword(String username, String password) throws IOException {
+            Account a = accounts.get(username);
+            if (a == null) return false;
+            replace(a, account(a.user, password));
+            return true;
+        }
+
+        // Refuses to take admin rights from the last admin.
+        public synchronized boolean setAdmin(String username, boolean admin) throws IOException {
+            Account a = accounts.get(username);
+            if (a == null || (!admin && a.user.isAdmin && adminCount() == 1)) return false;
+            replace(a, new Account(new User(a.user.username, a.user.fullName, admin), a.iterations, a.salt, a.hash));
+            return true;
+        }
+
+        // Refuses to remove the last admin.
+        public synchronized boolean removeUser(String username) throws IOException {
+            Account a = accounts.get(username);
+            if (a == null || (a.user.isAdmin && adminCount() == 1)) return false;
+            accounts.remove(username);
+            forget(username);
+            save();
+            return true;
+        }
+
+        private int adminCount() {
+            int n = 0;
+            for (Account a : accounts.values()) if (a.user.isAdmin) n++;
+            return n;
+        }
+
+        // Same password, current cost; sessions stay valid.
+        private void rehash(Account a, String password) {
+            accounts.put(a.user.username, account(a.user, password));
+            try {
+                save();
+            } catch (IOException ex) {
+                accounts.put(a.user.username, a);
+                System.err.println("Could not save the stronger password hash for " + a.user.username + ": " + ex.getMessage());
+            }
+        }
+
+        private void replace(Account old, Account updated) throws IOException {
+            accounts.put(old.user.username, updated);
+            forget(old.user.username);
+            try {
+                save();
+            } catch (IOException ex) {
+                accounts.put(old.user.username, old);
+                throw ex;
+            }
+        }
+
+        private void forget(String username) {
+            verified.values().removeIf(s -> s.user.username.equals(username));
+            tokens.values().removeIf(s -> s.user.username.equals(username));
+        }
+
+        private Account account(User user, String password) {
+            byte[] salt = new byte[16];
+            RANDOM.nextBytes(salt);
+            return new Account(user, iterations, salt, hash(password, salt, iterations));
+        }
+
+        private static String clean(String s) { return s == null ? "" : s.replaceAll("[\\t\\r\\n]", " ").trim(); }
+
+        // Sweeps out expired sessions now and then once there are many, so each insert costs O(1) amortized.
+        private void remember(ConcurrentHashMap<String, Session> cache, String key, Session s) {
+            if (cache.put(key, s) == null && cache.size() >= SWEEP_OVER && (cache.size() & 1023) == 0) cache.values().removeIf(old -> !old.live());
+        }
+
+        private String credentialKey(String username, String password) {
+            javax.crypto.Mac mac = digest.get();
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return Base64.getEncoder().encodeToString(mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        // Every password this directory checks or stores is hashed here; tests override it to act mid-hash.
+        byte[] hash(String password, byte[] salt, int iterations) { return pbkdf2(password, salt, iterations); }
+
+        static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+            javax.crypto.spec.PBEKeySpec spec = new javax.crypto.spec.PBEKeySpec(password.toCharArray(), salt, iterations, 256);
+            try {
+                return javax.crypto.SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            } catch (java.security.GeneralSecurityException ex) {
+                throw new IllegalStateException(ex);
+            } finally {
+                spec.clearPassword();
+            }
+        }
+
+        // Rewritten whole through a temp file and renamed into place, readable by the owner only where the file system allows.
+        private void save() throws IOException {
+            if (file == null) return;
+            StringBuilder out = new StringBuilder("# Inventory users: name, full name, admin, PBKDF2 iterations, salt, hash. Edit through File > Manage Users.\n");
+            Base64.Encoder b64 = Base64.getEncoder();
+            for (User u : users()) {
+                Account a = accounts.get(u.username);
+                out.append(u.username).append('\t').append(u.fullName).append('\t').append(u.isAdmin).append('\t').append(a.iterations)
+                        .append('\t').append(b64.encodeToString(a.salt)).append('\t').append(b64.encodeToString(a.hash)).append('\n');
+            }
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path tmp = parent.resolve(file.getFileName() + ".tmp");
+            Files.write(tmp, out.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.setPosixFilePermissions(tmp, java.nio.file.attribute.PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException notPosix) {
+                // Windows: the user profile's ACLs apply
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    // Logs in, or on first start (no accounts yet) creates the admin account and logs in as it. Password hashing
+    // runs on a SwingWorker, with the buttons disabled, so the dialog keeps painting.
+    static class LoginDialog extends JDialog {
+        private boolean authenticated = false;
+        private User user;
+        private final JTextField tfUser = new JTextField(15);
+        private final JPasswordField pfPass = new JPasswordField(15);
+        private final JPasswordField pfConfirm = new JPasswordField(15); // first start only
+        private final JButton btnLogin = new JButton("Login");
+        private final JButton btnCancel = new JButton("Cancel");
+        private final UserDirectory users;
+        private final boolean setup;
+
+        public LoginDialog(Frame owner, UserDirectory users) {
+            super(owner, "Login", true);
+            this.users = users;
+            this.setup = users.isEmpty();
+            buildUI();
+        }
+
+        private void buildUI() {
+            JPanel form = new JPanel(new GridBagLayout());
+            form.setBorder(new EmptyBorder(12, 12, 12, 12));
+            GridBagConstraints gc = new GridBagConstraints();
+            gc.insets = new Insets(6,6,6,6);
+            gc.fill = GridBagConstraints.HORIZONTAL;
+            gc.gridx = 0; gc.gridy = 0; form.add(new JLabel("Username"), gc);
+            gc.gridx = 1; form.add(tfUser, gc);
+            gc.gridx = 0; gc.gridy = 1; form.add(new JLabel("Password"), gc);
+            gc.gridx = 1; form.add(pfPass, gc);
+            if (setup) {
+                setTitle("Create Administrator");
+                tfUser.setText("admin");
+                tfUser.setEditable(false);
+                btnLogin.setText("Create");
+                gc.gridx = 0; gc.gridy = 2; form.add(new JLabel("Confirm password"), gc);
+                gc.gridx = 1; form.add(pfConfirm, gc);
+            }
+
+            JPanel actions = new JPanel();
+            actions.add(btnLogin); actions.add(btnCancel);
+            gc.gridx = 0; gc.gridy = 3; gc.gridwidth = 2; form.add(actions, gc);
+
+            btnLogin.addActionListener(e -> authenticate());
+            btnCancel.addActionListener(e -> { authenticated = false; dispose(); });
+            getRootPane().setDefaultButton(btnLogin);
+
+            setContentPane(form);
+            pack();
+            setLocationRelativeTo(getOwner());
+        }
+
+        private void authenticate() {
+            String u = tfUser.getText().trim();
+            String p = new String(pfPass.getPassword());
+            if (setup) {
+                if (p.length() < 8) { JOptionPane.showMessageDialog(this, "Passwords need at least 8 characters"); return; }
+                if (!p.equals(new String(pfConfirm.getPassword()))) { JOptionPane.showMessageDialog(this, "The passwords do not match"); return; }
+            }
+            btnLogin.setEnabled(false);
+            btnCancel.setEnabled(false);
+            setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+            new SwingWorker<User, Void>() {
+                @Override protected User doInBackground() throws IOException {
+                    if (setup) users.createAdmin(p);
+                    return users.authenticate(u, p);
+                }
+
+                @Override protected void done() {
+                    btnLogin.setEnabled(true);
+                    btnCancel.setEnabled(true);
+                    setCursor(Cursor.getDefaultCursor());
+                    User found;
+                    try {
+                        found = get();
+                    } catch (InterruptedException | ExecutionException ex) {
+                        JOptionPane.showMessageDialog(LoginDialog.this, "Could not save users: " + (ex.getCause() != null ? ex.getCause().getMessage() : ex), "Save Failed", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                    if (found != null) {
+                        authenticated = true;
+                        user = found;
+                        dispose();
+                    } else {
+                        JOptionPane.showMessageDialog(LoginDialog.this, "Invalid credentials", "Login Failed", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            }.execute();
+        }
+
+        public boolean isAuthenticated() { return authenticated; }
+        public User getAuthenticatedUser() { return user; }
+    }
+
+    // Admin-only account management; every change is saved to the users file at once. Changes run on a
+    // SwingWorker, one at a time, since setting a password hashes it.
+    static class UserAdminDialog extends JDialog {
+        private final UserDirectory users;
+        private final User currentUser;
+        private final UsersTableModel tableModel = new UsersTableModel();
+        private final JTable table = new JTable(tableModel);
+        private final JPanel actions = new JPanel(new FlowLayout(FlowLayout.LEFT));
+
+        public UserAdminDialog(Frame owner, UserDirectory users, User currentUser) {
+            super(owner, "Manage Users", true);
+            this.users = users;
+            this.currentUser = currentUser;
+            JButton btnAdd = new JButton("Add...");
+            JButton btnPassword = new JButton("Reset Password...");
+            JButton btnAdmin = new JButton("Toggle Admin");
+            JButton btnRemove = new JButton("Remove");
+            JButton btnClose = new JButton("Close");
+            btnAdd.addActionListener(e -> doAdd());
+            btnPassword.addActionListener(e -> { User u = selected(); if (u != null) doPassword(u); });
+            btnAdmin.addActionListener(e -> { User u = selected(); if (u != null) doToggleAdmin(u); });
+            btnRemove.addActionListener(e -> { User u = selected(); if (u != null) doRemove(u); });
+            btnClose.addActionListener(e -> dispose());
+            actions.add(btnAdd); actions.add(btnPassword); actions.add(btnAdmin); actions.add(btnRemove); actions.add(btnClose);
+            JPanel root = new JPanel(new BorderLayout(6,6));
+            root.setBorder(new EmptyBorder(10,10,10,10));
+            JScrollPane sp = new JScrollPane(table);
+            sp.setPreferredSize(new Dimension(460, 220));
+            root.add(sp, BorderLayout.CENTER);
+            root.add(actions, BorderLayout.SOUTH);
+            setContentPane(root);
+            reload();
+            pack();
+            setLocationRelativeTo(owner);
+        }
+
+        private void reload() { tableModel.setUsers(users.users()); }
+
+        private User selected() {
+            int row = table.getSelectedRow();
+            if (row < 0) { JOptionPane.showMessageDialog(this, "Select a user first"); return null; }
+            return tableModel.getUserAt(table.convertRowIndexToModel(row));
+        }
+
+        private void doAdd() {
+            JTextField tfName = new JTextField(16), tfFull = new JTextField(16);
+            JPasswordField pf1 = new JPasswordField(16), pf2 = new JPasswordField(16);
+            JCheckBox cbAdmin = new JCheckBox("Administrator");
+            JPanel form = new JPanel(new GridLayout(0, 2, 6, 6));
+            form.add(new JLabel("Username")); form.add(tfName);
+            form.add(new JLabel("Full name")); form.add(tfFull);
+            form.add(new JLabel("Password")); form.add(pf1);
+            form.add(new JLabel("Confirm password")); form.add(pf2);
+            form.add(cbAdmin);
+            if (JOptionPane.showConfirmDialog(this, form, "Add User", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) return;
+            String password = checkedPassword(pf1, pf2);
+            if (password == null) return;
+            save(() -> users.addUser(tfName.getText().trim(), tfFull.getText(), cbAdmin.isSelected(), password),
+                    "Usernames are 1-32 letters, digits, '.', '_' or '-', and must be new");
+        }
+
+        private void doPassword(User u) {
+            JPasswordField pf1 = new JPasswordField(16), pf2 = new JPasswordField(16);
+            JPanel form = new JPanel(new GridLayout(0, 2, 6, 6));
+            form.add(new JLabel("New password")); form.add(pf1);
+            form.add(new JLabel("Confirm password")); form.add(pf2);
+            if (JOptionPane.showConfirmDialog(this, form, "Reset Password for " + u.username, JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) return;
+            String password = checkedPassword(pf1, pf2);
+            if (password != null) save(() -> users.setPassword(u.username, password), "No such user");
+        }
+
+        private void doToggleAdmin(User u) {
+            if (u.username.equals(currentUser.username)) { JOptionPane.showMessageDialog(this, "You cannot change your own rights"); return; }
+            save(() -> users.setAdmin(u.username, !u.isAdmin), "There must always be an admin");
+        }
+
+        private void doRemove(User u) {
+            if (u.username.equals(currentUser.username)) { JOptionPane.showMessageDialog(this, "You cannot remove yourself"); return; }
+            if (JOptionPane.showConfirmDialog(this, "Remove user " + u.username + "?", "Confirm", JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) return;
+            save(() -> users.removeUser(u.username), "There must always be an admin");
+        }
+
+        private String checkedPassword(JPasswordField pf1, JPasswordField pf2) {
+            String p1 = new String(pf1.getPassword()), p2 = new String(pf2.getPassword());
+            if (p1.length() < 8) { JOptionPane.showMessageDialog(this, "Passwords need at least 8 characters"); return null; }
+            if (!p1.equals(p2)) { JOptionPane.showMessageDialog(this, "The passwords do not match"); return null; }
+            return p1;
+        }
+
+        interface Change { boolean apply() throws IOException; }
+
+        private void save(Change change, String refused) {
+            setBusy(true);
+            new SwingWorker<Boolean, Void>() {
+                @Override protected Boolean doInBackground() throws IOException { return change.apply(); }
+
+                @Override protected void done() {
+                    setBusy(false);
+                    try {
+                        if (!get()) JOptionPane.showMessageDialog(UserAdminDialog.this, refused);
+                    } catch (InterruptedException | ExecutionException ex) {
+                        JOptionPane.showMessageDialog(UserAdminDialog.this, "Could not save users: " + (ex.getCause() != null ? ex.getCause().getMessage() : ex), "Save Failed", JOptionPane.ERROR_MESSAGE);
+                    }
+                    reload();
+                }
+            }.execute();
+        }
+
+        private void setBusy(boolean busy) {
+            for (Component c : actions.getComponents()) c.setEnabled(!busy);
+            setCursor(busy ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : Cursor.getDefaultCursor());
+        }
+    }
+
+    static class UsersTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"Username", "Full Name", "Admin"};
+        private java.util.List<User> rows = new ArrayList<>();
+
+        public void setUsers(java.util.List<User> users) {
+            rows = users;
+            fireTableDataChanged();
+        }
+
+        public User getUserAt(int row) { return rows.get(row); }
+
+        @Override public int getRowCount() { return rows.size(); }
+        @Override public int getColumnCount() { return COLUMNS.length; }
+        @Override public String getColumnName(int col) { return COLUMNS[col]; }
+        @Override public Class<?> getColumnClass(int col) { return col == 2 ? Boolean.class : String.class; }
+        @Override public boolean isCellEditable(int row, int col) { return false; }
+
+        @Override public Object getValueAt(int row, int col) {
+            User u = rows.get(row);
+            switch (col) {
+                case 0: return u.username;
+                case 1: return u.fullName;
+                default: return u.isAdmin;
+            }
+        }
+    }
+
+    // ----------------------- Main UI -----------------------
+    static class MainFrame extends JFrame {
+        private static final int SEARCH_LIMIT = 1000;
+        private static final int LOW_STOCK_ROWS = 50;
+        private static final int FRAME_MS = 16;
+        private static final int CATEGORY_MS = 500;
+        private static final java.awt.Color ERROR_COLOR = new java.awt.Color(0xB00020);
+        private final Warehouses warehouses;
+        private final UserDirectory users;
+        private InventoryModel model; // the selected location's shard; every action works on it
+        private final User currentUser;
+        private final JComboBox<String> cbLocation = new JComboBox<>();
+        private final JTable tblItems = new JTable();
+        private final JTable tblTxns = new JTable();
+        private final ItemsTableModel itemsModel;
+        private final TxnsTableModel txnsModel;
+
+        // Form fields
+        private final JTextField tfSku = new JTextField(12);
+        private final JTextField tfName = new JTextField(18);
+        private final JTextField tfCat = new JTextField(12);
+        private final JSpinner spQty = new JSpinner(new SpinnerNumberModel(0, 0, 1_000_000, 1));
+        private final JSpinner spPrice = new JSpinner(new SpinnerNumberModel(0.0, 0.0, 1_000_000.0, 1.0));
+        private final JSpinner spReorder = new JSpinner(new SpinnerNumberModel(0, 0, 1_000_000, 1));
+        // The item the form was filled from: its SKU, details version and quantity at that moment.
+        private String formSku;
+        private long formVersion;
+        private int formQty;
+
+        private final JLabel lblSummary = new JLabel();
+        private final JTextField tfSearch = new JTextField(24);
+        private final JLabel lblSearch = new JLabel();
+        private final CategoryTableModel categoryModel = new CategoryTableModel();
+        private final LowStockTableModel lowStockModel = new LowStockTableModel();
+        private final JLabel lblLowStock = new JLabel();
+        private final AnalyticsTableModel analyticsModel = new AnalyticsTableModel();
+        private final JLabel lblAnalytics = new JLabel("Press Refresh Analytics to load sell-through figures.");
+        private final AtomicBoolean lowStockPending = new AtomicBoolean(); // a refresh is already queued on the EDT
+        private ChangeStream.Subscription feed; // the selected location's change stream
+        private InventoryModel rowsSource;     // the model rowsFeed listens to
+        private RowsListener rowsFeed;         // its row additions and removals, in order
+        private PendingChanges pending;
+        // Fires once a frame after the first change it has not shown, so a burst of changes costs one table update.
+        private final javax.swing.Timer frame = new javax.swing.Timer(FRAME_MS, e -> showChanges(pending));
+        private final javax.swing.Timer categoryDelay = new javax.swing.Timer(CATEGORY_MS, e -> refreshCategories());
+        private final JLabel lblStatus = new JLabel(" ");
+        private final JLabel lblInFlight = new JLabel();
+        private int inFlight; // actions submitted and not yet done; EDT only
+        private final LowStockListener lowStockListener = e -> {
+            if (lowStockPending.compareAndSet(false, true)) SwingUtilities.invokeLater(this::updateLowStock);
+        };
+        private final ExecutorService reports = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "reports");
+            t.setDaemon(true);
+            return t;
+        });
+        private final ExecutorService summaries = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "summary");
+            t.setDaemon(true);
+            return t;
+        });
+        // Model calls from the form run here, one at a time in the order they were made, so the EDT never waits on
+        // a stripe lock or the journal, and a quick run of scans is applied in sequence.
+        private final ExecutorService actions = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "ui-actions");
+            t.setDaemon(true);
+            return t;
+        });
+
+        // What the change stream has delivered for one location that the EDT has yet to show; guarded by itself.
+        private static final class PendingChanges {
+            static final int MAX_SKUS = 1000; // beyond this (or as many row additions and removals) one event re-reads the table
+            final Set<String> skus = new HashSet<>();
+            final java.util.List<int[]> rowOps = new ArrayList<>(); // {row, -1} added, {row, last} removed, in order
+            int rows;          // the model's row count after the last of them
+            final java.util.List<TransactionRec> txns = new ArrayList<>();
+            boolean reload;    // too many changed to list
+            boolean txnsStale; // more were logged than a page holds, so the page is queried again
+            boolean queued;    // the frame timer is already set to show them
+        }
+
+        public MainFrame(User user, Warehouses warehouses, UserDirectory users) {
+            super("Inventory Management System");
+            this.currentUser = user;
+            this.warehouses = warehouses;
+            this.users = users;
+            this.model = warehouses.at(InventoryModel.MAIN);
+            int rows = follow(model.lastSeq() + 1); // before the views read the model, so nothing logged in between is missed
+            this.itemsModel = new ItemsTableModel(model, rows);
+            this.txnsModel = new TxnsTableModel(model);
+            setDefaultCloseOperation(EXIT_ON_CLOSE);
+            setSize(1000, 650);
+            setLocationRelativeTo(null);
+            frame.setRepeats(false);
+            categoryDelay.setRepeats(false);
+            buildMenuBar();
+            buildContent();
+            updateSummary();
+            refreshCategories();
+            model.addLowStockListener(lowStockListener);
+            model.analytics();
+        }
+
+        // Points every view at another location's shard; the others keep running untouched.
+        private void selectLocation(String location) {
+            InventoryModel next = warehouses.at(location);
+            if (next == null || next == model) return;
+            model.removeLowStockListener(lowStockListener);
+            model = next;
+            model.addLowStockListener(lowStockListener);
+            int rows = follow(model.lastSeq() + 1);
+            itemsModel.setModel(model, rows);
+            txnsModel.setModel(model);
+            clearForm();
+            applySearch();
+            updateSummary();
+            refreshCategories();
+            updateLowStock();
+            model.analytics();
+            analyticsModel.setRows(new ArrayList<>());
+            lblAnalytics.setText("Press Refresh Analytics to load " + model.location + "'s sell-through figures.");
+        }
+
+        // Subscribes the views to the selected location's changes from fromSeq on, dropping the previous location's,
+        // and returns the row count its row additions and removals start from.
+        private int follow(long fromSeq) {
+            if (feed != null) feed.close();
+            if (rowsSource != null) rowsSource.removeRowsListener(rowsFeed);
+            PendingChanges p = new PendingChanges();
+            pending = p;
+            feed = model.changes().subscribe("ui", fromSeq, false, batch -> onChanges(p, batch));
+            rowsFeed = new RowsListener() {
+                @Override public void rowAdded(int row) { onRows(p, row, -1); }
+                @Override public void rowRemoved(int row, int last) { onRows(p, row, last); }
+            };
+            rowsSource = model;
+            return p.rows = model.addRowsListener(rowsFeed);
+        }
+
+        // Under the model's rows monitor: queues the change to the row order for the next frame.
+        private void onRows(PendingChanges p, int row, int last) {
+            synchronized (p) {
+                p.rows = last < 0 ? row + 1 : last;
+                if (p.rowOps.size() >= PendingChanges.MAX_SKUS) p.reload = true;
+                if (!p.reload) p.rowOps.add(new int[] {row, last});
+                if (p.queued) return;
+                p.queued = true;
+            }
+            SwingUtilities.invokeLater(() -> { if (!frame.isRunning()) frame.start(); });
+        }
+
+        // On the stream's thread: folds the batch into what the EDT has yet to show and sets the frame timer,
+        // however many batches arrive before it fires.
+        private void onChanges(PendingChanges p, java.util.List<TransactionRec> batch) {
+            synchronized (p) {
+                for (TransactionRec r : batch) {
+                    if (p.skus.size() >= PendingChanges.MAX_SKUS) p.reload = true;
+                    if (!p.reload) p.skus.add(r.sku);
+                    if (p.txns.size() >= TxnsTableModel.PAGE_SIZE) p.txnsStale = true;
+                    if (!p.txnsStale) p.txns.add(r);
+                }
+                if (p.queued) return;
+                p.queued = true;
+            }
+            SwingUtilities.invokeLater(() -> { if (!frame.isRunning()) frame.start(); });
+        }
+
+        // Replays row additions and removals, notifies just the rows the changes touched and puts the new transactions
+        // on top of the newest page; the summary reads running totals. Nothing here copies the catalog or the log.
+        private void showChanges(PendingChanges p) {
+            Set<String> skus;
+            java.util.List<int[]> rowOps;
+            java.util.List<TransactionRec> txns;
+            boolean reload, txnsStale;
+            int rows;
+            synchronized (p) {
+                skus = new HashSet<>(p.skus);
+                rowOps = new ArrayList<>(p.rowOps);
+                txns = new ArrayList<>(p.txns);
+                rows = p.rows;
+                reload = p.reload;
+                txnsStale = p.txnsStale;
+                p.skus.clear(); p.rowOps.clear(); p.txns.clear();
+                p.reload = p.txnsStale = p.queued = false;
+            }
+            if (p != pending) return;
+            if (reload) itemsModel.reload(rows);
+            else {
+                for (int[] op : rowOps) {
+                    if (op[1] < 0) itemsModel.rowAdded(op[0]);
+                    else itemsModel.rowRemoved(op[0], op[1]);
+                }
+                itemsModel.itemsChanged(skus);
+            }
+            if (itemsModel.isFiltered()) applySearch();
+            if (txnsStale) txnsModel.sync();
+            else txnsModel.append(txns);
+            updateSummary();
+            updateLowStock();
+        }
+
+        private void doNewLocation() {
+            if (!currentUser.isAdmin) { error("Only Admin can add locations"); return; }
+            String name = JOptionPane.showInputDialog(this, "Name of the new store or warehouse:", "New Location", JOptionPane.PLAIN_MESSAGE);
+            if (name == null || name.trim().isEmpty()) return;
+            String location = name.trim();
+            // Creates its directory and opens a journal, so off the EDT like any other write.
+            runAction(() -> warehouses.addLocation(location), added -> {
+                if (added == null) { error("Location names are 1-40 letters, digits, spaces, '-' or '_', and must be new"); return; }
+                cbLocation.addItem(location);
+                cbLocation.setSelectedItem(location);
+                status("Added location " + location);
+            });
+        }
+
+        private void buildMenuBar() {
+            JMenuBar bar = new JMenuBar();
+            JMenu file = new JMenu("File");
+            JMenuItem printItems = new JMenuItem("Print Items Table...");
+            JMenuItem printTxns = new JMenuItem("Print Transactions Table...");
+            JMenuItem exportItems = new JMenuItem("Export Items...");
+            JMenuItem exportTxns = new JMenuItem("Export Transactions...");
+            JMenuItem importItems = new JMenuItem("Import Items...");
+            JMenuItem newLocation = new JMenuItem("New Location...");
+            JMenuItem manageUsers = new JMenuItem("Manage Users...");
+            JMenuItem exit = new JMenuItem("Exit");
+            printItems.addActionListener(timed("printItems", e -> printReport(ReportSource.items(model))));
+            printTxns.addActionListener(timed("printTransactions", e -> printReport(ReportSource.transactions(model))));
+            exportItems.addActionListener(timed("exportItems", e -> exportReport(ReportSource.items(model))));
+            exportTxns.addActionListener(timed("exportTransactions", e -> exportReport(ReportSource.transactions(model))));
+            importItems.addActionListener(timed("importItems", e -> doImport()));
+            newLocation.addActionListener(timed("newLocation", e -> doNewLocation()));
+            manageUsers.addActionListener(e -> {
+                if (!currentUser.isAdmin) { error("Only Admin can manage users"); return; }
+                new UserAdminDialog(this, users, currentUser).setVisible(true);
+            });
+            exit.addActionListener(e -> dispose());
+            file.add(printItems); file.add(printTxns); file.addSeparator();
+            file.add(exportItems); file.add(exportTxns); file.add(importItems); file.addSeparator();
+            file.add(newLocation); file.add(manageUsers); file.addSeparator(); file.add(exit);
+
+            JMenu help = new JMenu("Help");
+            JMenuItem about = new JMenuItem("About");
+            about.addActionListener(e -> JOptionPane.showMessageDialog(this,
+                    "Inventory Management System\nCRUD + Auth + Printable Reports\nLogged in as: " + currentUser.fullName,
+                    "About", JOptionPane.INFORMATION_MESSAGE));
+            help.add(about);
+
+            for (String l : warehouses.locations()) cbLocation.addItem(l);
+            cbLocation.setSelectedItem(model.location);
+            cbLocation.setMaximumSize(cbLocation.getPreferredSize());
+            cbLocation.addActionListener(timed("selectLocation", e -> selectLocation((String) cbLocation.getSelectedItem())));
+
+            bar.add(file);
+            bar.add(new JLabel("   Location: "));
+            bar.add(cbLocation);
+            bar.add(Box.createHorizontalGlue());
+            bar.add(new JLabel("  User: " + currentUser.fullName + (currentUser.isAdmin?" (Admin)":"")));
+            bar.add(help);
+            setJMenuBar(bar);
+        }
+
+        private void buildContent() {
+            JTabbedPane tabs = new JTabbedPane();
+            tabs.addTab("Inventory", inventoryPanel());
+            tabs.addTab("Transactions", transactionsPanel());
+            tabs.addTab("Reports", reportsPanel());
+            tabs.addTab("Diagnostics", diagnosticsPanel());
+            add(tabs, BorderLayout.CENTER);
+            JPanel statusBar = new JPanel(new BorderLayout(8,0));
+            statusBar.setBorder(BorderFactory.createCompoundBorder(BorderFactory.createMatteBorder(1,0,0,0, java.awt.Color.LIGHT_GRAY), new EmptyBorder(2,8,2,8)));
+            statusBar.add(lblStatus, BorderLayout.CENTER);
+            statusBar.add(lblInFlight, BorderLayout.EAST);
+            add(statusBar, BorderLayout.SOUTH);
+        }
+
+        // Wraps a UI action so the time it holds the EDT is recorded under its name; that includes any modal
+        // dialog it opens, since the action only returns once the dialog closes.
+        private ActionListener timed(String action, ActionListener l) {
+            LatencyHistogram edt = Metrics.REGISTRY.histogram("inventory_edt_action_seconds", "action=\"" + action + "\"",
+                    "Time each UI action holds the event dispatch thread.");
+            return e -> {
+                long start = System.nanoTime();
+                try {
+                    l.actionPerformed(e);
+                } finally {
+                    edt.record(System.nanoTime() - start);
+                }
+            };
+        }
+
+        // Metrics refresh once a second while this tab is on screen.
+        private JPanel diagnosticsPanel() {
+            JPanel root = new JPanel(new BorderLayout(8,8));
+            root.setBorder(new EmptyBorder(10,10,10,10));
+            MetricsTableModel metricsModel = new MetricsTableModel();
+            JTable tbl = new JTable(metricsModel);
+            tbl.setAutoCreateRowSorter(true);
+
+            JButton btnSave = new JButton("Save Snapshot...");
+            btnSave.addActionListener(e -> {
+                JFileChooser chooser = new JFileChooser();
+                chooser.setDialogTitle("Save Metrics Snapshot");
+                chooser.setSelectedFile(new File("inventory-metrics.prom"));
+                if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+                try {
+                    Metrics.REGISTRY.writeTo(chooser.getSelectedFile().toPath());
+                    status("Metrics written to " + chooser.getSelectedFile());
+                } catch (IOException ex) {
+                    error("Failed to write metrics: " + ex.getMessage());
+                }
+            });
+            String dumpFile = System.getProperty("inventory.metricsFile");
+            JPanel header = new JPanel(new FlowLayout(FlowLayout.LEFT));
+            header.add(btnSave);
+            header.add(new JLabel(dumpFile == null ? "Start with -Dinventory.metricsFile=<path> to write a snapshot periodically."
+                    : "Also written to " + dumpFile + " every " + metricsDumpSeconds() + "s."));
+
+            javax.swing.Timer refresh = new javax.swing.Timer(1000, e -> { if (root.isShowing()) metricsModel.refresh(); });
+            refresh.start();
+            metricsModel.refresh();
+
+            root.add(header, BorderLayout.NORTH);
+            root.add(new JScrollPane(tbl), BorderLayout.CENTER);
+            return root;
+        }
+
+        private JPanel inventoryPanel() {
+            JPanel root = new JPanel(new BorderLayout(8,8));
+            root.setBorder(new EmptyBorder(10,10,10,10));
+
+            // Table
+            tblItems.setModel(itemsModel);
+            tblItems.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+            JScrollPane sp = new JScrollPane(tblItems);
+
+            // Search
+            JPanel search = new JPanel(new BorderLayout(6,6));
+            search.add(new JLabel("Search:"), BorderLayout.WEST);
+            search.add(tfSearch, BorderLayout.CENTER);
+            search.add(lblSearch, BorderLayout.EAST);
+            tfSearch.setToolTipText("Name or SKU text, cat:<category>, qty<N, qty>=N ... (all terms must match)");
+            javax.swing.Timer searchDelay = new javax.swing.Timer(150, timed("search", e -> applySearch()));
+            searchDelay.setRepeats(false);
+            tfSearch.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+                public void insertUpdate(javax.swing.event.DocumentEvent e) { searchDelay.restart(); }
+                public void removeUpdate(javax.swing.event.DocumentEvent e) { searchDelay.restart(); }
+                public void changedUpdate(javax.swing.event.DocumentEvent e) { searchDelay.restart(); }
+            });
+            JPanel center = new JPanel(new BorderLayout(6,6));
+            center.add(search, BorderLayout.NORTH);
+            center.add(sp, BorderLayout.CENTER);
+
+            // Form
+            JPanel form = new JPanel(new GridBagLayout());
+            form.setBorder(BorderFactory.createTitledBorder("Item Details"));
+            GridBagConstraints gc = new GridBagConstraints();
+            gc.insets = new Insets(4,4,4,4);
+            gc.fill = GridBagConstraints.HORIZONTAL;
+            gc.gridx = 0; gc.gridy = 0; form.add(new JLabel("SKU"), gc);
+            gc.gridx = 1; form.add(tfSku, gc);
+            gc.gridx = 0; gc.gridy = 1; form.add(new JLabel("Name"), gc);
+            gc.gridx = 1; form.add(tfName, gc);
+            gc.gridx = 0; gc.gridy = 2; form.add(new JLabel("Category"), gc);
+            gc.gridx = 1; form.add(tfCat, gc);
+            gc.gridx = 0; gc.gridy = 3; form.add(new JLabel("Quantity"), gc);
+            gc.gridx = 1; form.add(spQty, gc);
+            gc.gridx = 0; gc.gridy = 4; form.add(new JLabel("Price"), gc);
+            gc.gridx = 1; form.add(spPrice, gc);
+            gc.gridx = 0; gc.gridy = 5; form.add(new JLabel("Reorder at"), gc);
+            gc.gridx = 1; form.add(spReorder, gc);
+            spReorder.setToolTipText("Alert when quantity falls to this level (0 = never)");
+
+            JButton btnNew = new JButton("Create");
+            JButton btnUpdate = new JButton("Update");
+            JButton btnDelete = new JButton("Delete");
+            JButton btnClear = new JButton("Clear");
+            JPanel actions = new JPanel();
+            actions.add(btnNew); actions.add(btnUpdate); actions.add(btnDelete); actions.add(btnClear);
+
+            gc.gridx = 0; gc.gridy = 6; gc.gridwidth = 2; form.add(actions, gc);
+
+            // Stock adjustments
+            JPanel stock = new JPanel();
+            stock.setBorder(BorderFactory.createTitledBorder("Stock"));
+            JSpinner spAdj = new JSpinner(new SpinnerNumberModel(1, 1, 1_000_000, 1));
+            JTextField tfNotes = new JTextField(16);
+            JButton btnAdd = new JButton("Add Stock");
+            JButton btnRemove = new JButton("Remove Stock");
+            JButton btnBatch = new JButton("Batch...");
+            JButton btnTransfer = new JButton("Transfer...");
+            stock.add(new JLabel("Qty:")); stock.add(spAdj);
+            stock.add(new JLabel("Notes:")); stock.add(tfNotes);
+            stock.add(btnAdd); stock.add(btnRemove); stock.add(btnBatch); stock.add(btnTransfer);
+
+            JPanel right = new JPanel(new BorderLayout(8,8));
+            right.add(form, BorderLayout.CENTER);
+            right.add(stock, BorderLayout.SOUTH);
+
+            // Events
+            btnNew.addActionListener(timed("createItem", e -> doCreate()));
+            btnUpdate.addActionListener(timed("updateItem", e -> doUpdate()));
+            btnDelete.addActionListener(timed("deleteItem", e -> doDelete()));
+            btnClear.addActionListener(e -> clearForm());
+            btnAdd.addActionListener(timed("addStock", e -> doAdjustStock(true, (Integer) spAdj.getValue(), tfNotes.getText())));
+            btnRemove.addActionListener(timed("removeStock", e -> doAdjustStock(false, (Integer) spAdj.getValue(), tfNotes.getText())));
+            btnBatch.addActionListener(timed("batch", e -> doBatch()));
+            btnTransfer.addActionListener(timed("transfer", e -> doTransfer((Integer) spAdj.getValue(), tfNotes.getText())));
+
+            tblItems.getSelectionModel().addListSelectionListener(e -> {
+                if (!e.getValueIsAdjusting()) fillFormFromSelection();
+            });
+
+            root.add(center, BorderLayout.CENTER);
+            root.add(right, BorderLayout.EAST);
+            return root;
+        }
+
+        private JPanel transactionsPanel() {
+            JPanel root = new JPanel(new BorderLayout(8,8));
+            root.setBorder(new EmptyBorder(10,10,10,10));
+            tblTxns.setModel(txnsModel);
+            JScrollPane sp = new JScrollPane(tblTxns);
+
+            // Filters
+            JTextField tfTxnSku = new JTextField(10);
+            JTextField tfTxnUser = new JTextField(8);
+            JComboBox<Object> cbType = new JComboBox<>();
+            cbType.addItem("Any");
+            for (TxnType t : TxnType.values()) cbType.addItem(t);
+            String[] ranges = {"All time", "Last hour", "Last 24 hours", "Last 7 days", "Last 30 days"};
+            long[] rangeMinutes = {0, 60, 24 * 60, 7 * 24 * 60, 30 * 24 * 60};
+            JComboBox<String> cbRange = new JComboBox<>(ranges);
+            JButton btnApply = new JButton("Apply");
+            JPanel filters = new JPanel(new FlowLayout(FlowLayout.LEFT));
+            filters.add(new JLabel("SKU:")); filters.add(tfTxnSku);
+            filters.add(new JLabel("User:")); filters.add(tfTxnUser);
+            filters.add(new JLabel("Type:")); filters.add(cbType);
+            filters.add(new JLabel("When:")); filters.add(cbRange);
+            filters.add(btnApply);
+
+            JButton btnNewer = new JButton("< Newer");
+            JButton btnOlder = new JButton("Older >");
+            JLabel lblPage = new JLabel();
+            Runnable pageChanged = () -> {
+                btnNewer.setEnabled(txnsModel.hasNewer());
+                btnOlder.setEnabled(txnsModel.hasOlder());
+                lblPage.setText("Page " + txnsModel.pageNumber() + "  ");
+            };
+            txnsModel.addTableModelListener(e -> pageChanged.run());
+            pageChanged.run();
+            btnApply.addActionListener(timed("filterTransactions", e -> {
+                String sku = tfTxnSku.getText().trim(), user = tfTxnUser.getText().trim();
+                long minutes = rangeMinutes[cbRange.getSelectedIndex()];
+                txnsModel.setQuery(new TxnQuery(minutes == 0 ? null : LocalDateTime.now().minusMinutes(minutes), null,
+                        sku.isEmpty() ? null : sku, user.isEmpty() ? null : user,
+                        cbType.getSelectedItem() instanceof TxnType ? (TxnType) cbType.getSelectedItem() : null));
+            }));
+            tfTxnSku.addActionListener(e -> btnApply.doClick());
+            tfTxnUser.addActionListener(e -> btnApply.doClick());
+            btnNewer.addActionListener(timed("newerTransactions", e -> txnsModel.newer()));
+            btnOlder.addActionListener(timed("olderTransactions", e -> txnsModel.older()));
+
+            JButton btnPrint = new JButton("Print Transactions...");
+            btnPrint.addActionListener(e -> printReport(ReportSource.transactions(model)));
+            JPanel paging = new JPanel(new FlowLayout(FlowLayout.LEFT));
+            paging.add(btnNewer); paging.add(lblPage); paging.add(btnOlder);
+            JPanel south = new JPanel(new BorderLayout());
+            south.add(paging, BorderLayout.WEST);
+            south.add(btnPrint, BorderLayout.EAST);
+
+            root.add(filters, BorderLayout.NORTH);
+            root.add(sp, BorderLayout.CENTER);
+            root.add(south, BorderLayout.SOUTH);
+            return root;
+        }
+
+        private JPanel reportsPanel() {
+            JPanel root = new JPanel(new BorderLayout(8,8));
+            root.setBorder(new EmptyBorder(10,10,10,10));
+            JPanel card = new JPanel();
+            card.setLayout(new BoxLayout(card, BoxLayout.Y_AXIS));
+            JLabel title = new JLabel("Inventory Summary Report");
+            title.setFont(title.getFont().deriveFont(Font.BOLD, 18f));
+            title.setAlignmentX(Component.LEFT_ALIGNMENT);
+
+            lblSummary.setAlignmentX(Component.LEFT_ALIGNMENT);
+            JButton btnRefresh = new JButton("Refresh");
+            btnRefresh.addActionListener(timed("refreshReports", e -> { updateSummary(); updateLowStock(); }));
+            JButton btnPrintReport = new JButton("Print This Report...");
+            btnPrintReport.addActionListener(e -> printComponent(card));
+
+            JPanel header = new JPanel(new FlowLayout(FlowLayout.LEFT));
+            header.add(btnRefresh);
+            header.add(btnPrintReport);
+            header.setAlignmentX(Component.LEFT_ALIGNMENT);
+
+            JTable tbl = tblItems; // reuse items table view in a read-only way for report printing if needed.
+
+            JTable tblCategories = new JTable(categoryModel);
+            tblCategories.setAutoCreateRowSorter(true);
+            JScrollPane spCategories = new JScrollPane(tblCategories);
+            spCategories.setPreferredSize(new Dimension(520, 160));
+            spCategories.setAlignmentX(Component.LEFT_ALIGNMENT);
+
+            card.add(title);
+            card.add(Box.createVerticalStrut(6));
+            card.add(lblSummary);
+            card.add(Box.createVerticalStrut(10));
+            card.add(new JLabel("By Category"));
+            card.add(Box.createVerticalStrut(4));
+            card.add(spCategories);
+            card.add(Box.createVerticalStrut(10));
+
+            JTable tblLowStock = new JTable(lowStockModel);
+            JScrollPane spLowStock = new JScrollPane(tblLowStock);
+            spLowStock.setPreferredSize(new Dimension(520, 160));
+            spLowStock.setAlignmentX(Component.LEFT_ALIGNMENT);
+            lblLowStock.setAlignmentX(Component.LEFT_ALIGNMENT);
+            card.add(lblLowStock);
+            card.add(Box.createVerticalStrut(4));
+            card.add(spLowStock);
+            card.add(Box.createVerticalStrut(10));
+            updateLowStock();
+
+            JTextArea tips = new JTextArea("Tips:\n- Use File > Print Items Table to get a tabular items report.\n- Use File > Print Transactions Table to get a movement/transactions report.\n- Use File > Export to save either report as CSV or PDF.\n- This summary card itself can be printed using the button above.");
+            tips.setEditable(false);
+            tips.setOpaque(false);
+            tips.setAlignmentX(Component.LEFT_ALIGNMENT);
+            card.add(tips);
+
+            JLabel analyticsTitle = new JLabel("Stock Movement");
+            analyticsTitle.setFont(analyticsTitle.getFont().deriveFont(Font.BOLD, 14f));
+            JButton btnAnalytics = new JButton("Refresh Analytics");
+            btnAnalytics.addActionListener(timed("refreshAnalytics", e -> refreshAnalytics()));
+            JPanel analyticsHeader = new JPanel(new FlowLayout(FlowLayout.LEFT));
+            analyticsHeader.add(analyticsTitle);
+            analyticsHeader.add(btnAnalytics);
+            analyticsHeader.add(lblAnalytics);
+            JTable tblAnalytics = new JTable(analyticsModel);
+            tblAnalytics.setAutoCreateRowSorter(true);
+            JPanel analytics = new JPanel(new BorderLayout(4,4));
+            analytics.add(analyticsHeader, BorderLayout.NORTH);
+            analytics.add(new JScrollPane(tblAnalytics), BorderLayout.CENTER);
+
+            JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(card), analytics);
+            split.setResizeWeight(0.6);
+            root.add(header, BorderLayout.NORTH);
+            root.add(split, BorderLayout.CENTER);
+            return root;
+        }
+
+        // ----------------------- Actions -----------------------
+        // Builds the sell-through table for the selected location off the EDT; the figures are kept current as
+        // transactions are logged, so this only reads them.
+        private void refreshAnalytics() {
+            InventoryModel shard = model;
+            runReport("Stock analytics", new ReportProgress(), () -> {
+                StockAnalytics a = shard.analytics();
+                java.util.List<StockAnalytics.Row> rows = a.report();
+                LocalDateTime at = a.classifiedAt();
+                String note = String.format("%s: %,d items. Velocity in units/day; days of cover at the 30-day rate; ABC by value sold over %d days%s.",
+                        shard.location, rows.size(), StockAnalytics.WINDOW,
+                        !a.isCaughtUp() ? ", still reading older history" : at == null ? "" : ", classified " + at.format(DateTimeFormatter.ofPattern("HH:mm")));
+                SwingUtilities.invokeLater(() -> {
+                    if (shard != model) return;
+                    analyticsModel.setRows(rows);
+                    lblAnalytics.setText(note);
+                });
+                return String.format("Analytics ready for %,d items", rows.size());
+            }, null);
+        }
+        private void doCreate() {
+            String sku = tfSku.getText().trim();
+            String name = tfName.getText().trim();
+            String cat = tfCat.getText().trim();
+            int qty = (Integer) spQty.getValue();
+            double price = ((Number) spPrice.getValue()).doubleValue();
+            int reorderAt = (Integer) spReorder.getValue();
+            if (sku.isEmpty() || name.isEmpty()) { error("SKU and Name are required"); return; }
+            InventoryModel shard = model;
+            runAction(() -> shard.addItem(new InventoryItem(sku, name, cat, qty, price, reorderAt), currentUser.username), ok -> {
+                if (!ok) { error("Item with SKU " + sku + " already exists"); return; }
+                if (shard == model && sku.equals(tfSku.getText().trim())) clearForm();
+                status("Created " + sku);
+            });
+        }
+
+        // Saves the form as an edit of the item it was filled from: the details only if nobody has saved others
+        // since, and the quantity as the change made in the form, on top of any stock moved in the meantime.
+        // A SKU typed in by hand is edited against the item as it is now.
+        private void doUpdate() {
+            String sku = tfSku.getText().trim();
+            InventoryItem current = model.findBySku(sku);
+            if (current == null) { error("Item " + sku + " not found"); return; }
+            boolean loaded = sku.equals(formSku);
+            saveEdit(sku, loaded ? formVersion : current.version, (Integer) spQty.getValue() - (loaded ? formQty : current.quantity));
+        }
+
+        private void saveEdit(String sku, long version, int qtyDelta) {
+            String name = tfName.getText().trim();
+            String cat = tfCat.getText().trim();
+            double price = ((Number) spPrice.getValue()).doubleValue();
+            int reorderAt = (Integer) spReorder.getValue();
+            InventoryModel shard = model;
+            runAction(() -> shard.updateItem(new InventoryItem(sku, name, cat, 0, price, reorderAt), version, qtyDelta, currentUser.username), result -> {
+                if (shard != model) { status(result.ok ? "Updated " + sku + " at " + shard.location : "Update of " + sku + " failed: " + result.error); return; }
+                boolean showing = sku.equals(tfSku.getText().trim());
+                if (!result.ok) {
+                    InventoryItem now = model.findBySku(sku);
+                    if (showing && now != null && now.version != version) resolveConflict(now, qtyDelta);
+                    else error("Update of " + sku + " failed: " + result.error);
+                    return;
+                }
+                if (showing) fillForm(model.findBySku(sku));
+                status("Updated " + sku);
+            });
+        }
+
+        // Another session saved the item while this form had it open, so none of this edit was applied.
+        // The user either takes the other version into the form or saves theirs over it.
+        private void resolveConflict(InventoryItem theirs, int qtyDelta) {
+            TransactionRec edit = model.lastEdit(theirs);
+            String who = edit == null ? "another session" : edit.performedBy + " at " + edit.timestamp.format(DateTimeFormatter.ofPattern("HH:mm:ss"));
+            String text = theirs.sku + " was changed by " + who + " while you were editing it, so your changes were not saved.\n\n"
+                    + "Now: " + theirs.name + " | " + theirs.category + " | qty " + theirs.quantity + String.format(" | ₹%,.2f", theirs.price)
+                    + " | reorder at " + theirs.reorderPoint + "\n\nLoad their version, or save yours over it?";
+            Object[] options = {"Load Theirs", "Save Mine", "Cancel"};
+            int choice = JOptionPane.showOptionDialog(this, text, "Edit Conflict", JOptionPane.YES_NO_CANCEL_OPTION,
+                    JOptionPane.WARNING_MESSAGE, null, options, options[0]);
+            if (choice == 0) fillForm(theirs);
+            else if (choice == 1) saveEdit(theirs.sku, theirs.version, qtyDelta);
+        }
+
+        private void doDelete() {
+            if (!currentUser.canDeleteItems()) { error(User.DELETE_DENIED); return; }
+            String sku = tfSku.getText().trim();
+            if (sku.isEmpty()) { error("Enter SKU to delete"); return; }
+            int res = JOptionPane.showConfirmDialog(this, "Delete item " + sku + "?", "Confirm", JOptionPane.YES_NO_OPTION);
+            if (res != JOptionPane.YES_OPTION) return;
+            InventoryModel shard = model;
+            runAction(() -> shard.deleteItem(sku, currentUser.username), ok -> {
+                if (!ok) { error("Delete of " + sku + " failed"); return; }
+                if (shard == model && sku.equals(tfSku.getText().trim())) clearForm();
+                status("Deleted " + sku);
+            });
+        }
+
+        private void doAdjustStock(boolean add, int qty, String notes) {
+            String sku = tfSku.getText().trim();
+            if (model.findBySku(sku) == null) { error("Select or enter a valid SKU first"); return; }
+            InventoryModel shard = model;
+            runAction(() -> add ? shard.addStock(sku, qty, currentUser.username, notes) : shard.removeStock(sku, qty, currentUser.username, notes), ok -> {
+                if (!ok) { error((add ? "Adding " : "Removing ") + qty + " x " + sku + " failed"); return; }
+                status((add ? "Added " : "Removed ") + qty + " x " + sku);
+            });
+        }
+
+        // Goods receipt or pick list entered as "SKU, Qty[, Notes]" lines and applied all-or-nothing.
+        private void doBatch() {
+            JTextArea taLines = new JTextArea(12, 36);
+            JRadioButton rbReceive = new JRadioButton("Receive (add stock)", true);
+            JRadioButton rbPick = new JRadioButton("Pick (remove stock)");
+            ButtonGroup mode = new ButtonGroup();
+            mode.add(rbReceive); mode.add(rbPick);
+            JPanel modes = new JPanel(new FlowLayout(FlowLayout.LEFT));
+            modes.add(rbReceive); modes.add(rbPick);
+            JPanel panel = new JPanel(new BorderLayout(6,6));
+            panel.add(new JLabel("One line per SKU:  SKU, Qty[, Notes]"), BorderLayout.NORTH);
+            panel.add(new JScrollPane(taLines), BorderLayout.CENTER);
+            panel.add(modes, BorderLayout.SOUTH);
+            if (JOptionPane.showConfirmDialog(this, panel, "Batch Stock Movement", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) return;
+
+            int sign = rbReceive.isSelected() ? 1 : -1;
+            java.util.List<StockLine> lines = new ArrayList<>();
+            String[] raw = taLines.getText().split("\\R");
+            for (int i = 0; i < raw.length; i++) {
+                if (raw[i].trim().isEmpty()) continue;
+                String[] f = raw[i].split(",", 3);
+                int qty;
+                try { qty = f.length < 2 ? 0 : Integer.parseInt(f[1].trim()); } catch (NumberFormatException ex) { qty = 0; }
+                if (qty <= 0) { error("Line " + (i + 1) + ": expected SKU, Qty with a positive quantity"); return; }
+                String notes = f.length > 2 ? f[2].trim() : (sign > 0 ? "Goods receipt" : "Pick list");
+                lines.add(new StockLine(f[0].trim(), sign * qty, notes));
+            }
+            InventoryModel shard = model;
+            runAction(() -> shard.applyBatch(lines, currentUser.username), result -> {
+                if (!result.ok) { error("Batch rejected, nothing was applied:\n" + result.error); return; }
+                status((sign > 0 ? "Received " : "Picked ") + result.lines + " lines");
+            });
+        }
+
+        // Creates or replaces every item listed in a CSV file (see CatalogImport), in the background; nothing is
+        // applied if any row is invalid. The views follow along through the change stream.
+        private void doImport() {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setDialogTitle("Import Items");
+            chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("CSV (*.csv)", "csv"));
+            if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+            Path file = chooser.getSelectedFile().toPath();
+            ReportProgress progress = new ReportProgress();
+            InventoryModel shard = model;
+            runReport("Importing " + file.getFileName(), progress, () -> {
+                java.util.List<InventoryItem> catalog = CatalogImport.read(file, progress);
+                ImportResult result = shard.importItems(catalog, currentUser.username, progress);
+                return String.format("Imported %,d items: %,d new, %,d updated", catalog.size(), result.created, result.updated);
+            }, null);
+        }
+
+        // Sends qty units of the form's SKU from this location to another, as one paired movement.
+        private void doTransfer(int qty, String notes) {
+            String sku = tfSku.getText().trim();
+            if (model.findBySku(sku) == null) { error("Select or enter a valid SKU first"); return; }
+            JComboBox<String> cbTo = new JComboBox<>();
+            for (String l : warehouses.locations()) if (!l.equals(model.location)) cbTo.addItem(l);
+            if (cbTo.getItemCount() == 0) { error("Add another location first (File > New Location...)"); return; }
+            JPanel panel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+            panel.add(new JLabel("Move " + qty + " x " + sku + " from " + model.location + " to"));
+            panel.add(cbTo);
+            if (JOptionPane.showConfirmDialog(this, panel, "Transfer Stock", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) return;
+            String from = model.location, to = (String) cbTo.getSelectedItem();
+            runAction(() -> warehouses.transfer(sku, qty, from, to, currentUser.username, notes.trim().isEmpty() ? "Transfer " + from + " to " + to : notes), result -> {
+                if (!result.ok) { error("Transfer rejected: " + result.error); return; }
+                status("Moved " + qty + " x " + sku + " to " + to);
+            });
+        }
+
+        // Runs a model call on the actions thread, then done with its result on the EDT; the form stays usable in
+        // between, and the status bar counts the calls still in flight. A call that throws is reported there.
+        private <T> void runAction(java.util.concurrent.Callable<T> call, java.util.function.Consumer<T> done) {
+            inFlight++;
+            showInFlight();
+            actions.execute(new SwingWorker<T, Void>() {
+                @Override protected T doInBackground() throws Exception { return call.call(); }
+
+                @Override protected void done() {
+                    inFlight--;
+                    showInFlight();
+                    T result;
+                    try {
+                        result = get();
+                    } catch (InterruptedException | ExecutionException ex) {
+                        error("Action failed: " + (ex.getCause() != null ? ex.getCause() : ex));
+                        return;
+                    }
+                    done.accept(result);
+                }
+            });
+        }
+
+        private void showInFlight() {
+            lblInFlight.setText(inFlight == 0 ? "" : inFlight + " pending");
+        }
+
+        private void fillFormFromSelection() {
+            int row = tblItems.getSelectedRow();
+            if (row < 0) return;
+            InventoryItem it = itemsModel.getItemAt(tblItems.convertRowIndexToModel(row));
+            if (it != null) fillForm(it);
+        }
+
+        private void fillForm(InventoryItem it) {
+            formSku = it.sku;
+            formVersion = it.version;
+            formQty = it.quantity;
+            tfSku.setText(it.sku);
+            tfName.setText(it.name);
+            tfCat.setText(it.category);
+            spQty.setValue(it.quantity);
+            spPrice.setValue(it.price);
+            spReorder.setValue(it.reorderPoint);
+        }
+
+        private void clearForm() {
+            tfSku.setText(""); tfName.setText(""); tfCat.setText(""); spQty.setValue(0); spPrice.setValue(0.0); spReorder.setValue(0);
+            formSku = null;
+            tblItems.clearSelection();
+        }
+
+        private void applySearch() {
+            String q = tfSearch.getText().trim();
+            if (q.isEmpty()) {
+                itemsModel.setFilter(null);
+                lblSearch.setText("");
+                return;
+            }
+            java.util.List<InventoryItem> results = model.search(q, SEARCH_LIMIT);
+            itemsModel.setFilter(results);
+            lblSearch.setText((results.size() >= SEARCH_LIMIT ? "first " + SEARCH_LIMIT + " matches" : results.size() + " match(es)")
+                    + (model.isIndexed() ? "" : " (indexing)"));
+        }
+
+        // Reads the lock-free running totals, O(locations) however large the catalogs are, so it can run every frame
+        // without holding up a mutation anywhere. The figures are for the selected location; the last line adds up
+        // the whole network. The category table needs the location's stripes, so it follows a little later.
+        private void updateSummary() {
+            Totals totals = model.liveTotals();
+            String text = String.format("<html><body>Location: %s<br>Generated: %s<br>Total Items: %d<br>Total Units in Stock: %d<br>Total Inventory Value: ₹%,.2f",
+                    model.location, model.now(), totals.items, totals.units, totals.value());
+            int locations = warehouses.locations().size();
+            if (locations > 1) {
+                Totals all = warehouses.liveTotals();
+                text += String.format("<br>All %d locations: %d units worth ₹%,.2f", locations, all.units, all.value());
+            }
+            lblSummary.setText(text + "</body></html>");
+            if (!categoryDelay.isRunning()) categoryDelay.start();
+        }
+
+        // Reads the selected location's categories on the summary thread, at most every CATEGORY_MS.
+        private void refreshCategories() {
+            InventoryModel shard = model;
+            summaries.execute(() -> {
+                TotalsSnapshot totals = shard.totals();
+                SwingUtilities.invokeLater(() -> { if (shard == model) categoryModel.setTotals(totals); });
+            });
+        }
+
+        // Reads the top of the model's urgency queue; crossings schedule this through the low-stock listener.
+        private void updateLowStock() {
+            lowStockPending.set(false);
+            int count = model.lowStockCount();
+            lowStockModel.setItems(model.mostUrgent(LOW_STOCK_ROWS));
+            lblLowStock.setText(count == 0 ? "Low Stock: none at or below reorder point"
+                    : "Low Stock: " + count + " item(s) at or below reorder point" + (count > LOW_STOCK_ROWS ? ", " + LOW_STOCK_ROWS + " most urgent shown" : ""));
+        }
+
+        // The status bar replaces modal message boxes, so a message never stops the next scan. Its first line
+        // shows with the time; the whole text is in the tooltip.
+        private void status(String msg) {
+            showStatus(msg, UIManager.getColor("Label.foreground"));
+        }
+
+        // Like status, in red and with a beep, since the operator may be looking at the goods rather than the screen.
+        private void error(String msg) {
+            showStatus(msg, ERROR_COLOR);
+            Toolkit.getDefaultToolkit().beep();
+        }
+
+        private void showStatus(String msg, java.awt.Color color) {
+            int nl = msg.indexOf('\n');
+            lblStatus.setText(LocalTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss")) + "  " + (nl < 0 ? msg : msg.substring(0, nl) + " ..."));
+            lblStatus.setToolTipText(nl < 0 ? null : "<html>" + msg.replace("&", "&amp;").replace("<", "&lt;").replace("\n", "<br>") + "</html>");
+            lblStatus.setForeground(color);
+        }
+
+        private void printReport(ReportSource src) {
+            java.awt.print.PrinterJob job = java.awt.print.PrinterJob.getPrinterJob();
+            job.setJobName(src.title);
+            ReportProgress progress = new ReportProgress();
+            job.setPrintable(new ReportPrintable(src, progress));
+            if (!job.printDialog()) return;
+            runReport("Printing " + src.title, progress, () -> {
+                job.print();
+                return "Printed " + src.title;
+            }, job::cancel);
+        }
+
+        private void exportReport(ReportSource src) {
+            javax.swing.filechooser.FileNameExtensionFilter csv = new javax.swing.filechooser.FileNameExtensionFilter("CSV (*.csv)", "csv");
+            javax.swing.filechooser.FileNameExtensionFilter pdf = new javax.swing.filechooser.FileNameExtensionFilter("PDF (*.pdf)", "pdf");
+            JFileChooser chooser = new JFileChooser();
+            chooser.setDialogTitle("Export " + src.title);
+            chooser.addChoosableFileFilter(csv);
+            chooser.addChoosableFileFilter(pdf);
+            chooser.setFileFilter(csv);
+            chooser.setSelectedFile(new File(src.title.toLowerCase(Locale.ROOT).replace(' ', '-') + ".csv"));
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+            String name = chooser.getSelectedFile().getName().toLowerCase(Locale.ROOT);
+            boolean asPdf = name.endsWith(".pdf") || (chooser.getFileFilter() == pdf && !name.endsWith(".csv"));
+            Path path = chooser.getSelectedFile().toPath();
+            if (!name.endsWith(asPdf ? ".pdf" : ".csv")) path = path.resolveSibling(path.getFileName() + (asPdf ? ".pdf" : ".csv"));
+            Path target = path;
+            ReportProgress progress = new ReportProgress();
+            runReport("Exporting " + src.title, progress, () -> {
+                if (asPdf) ReportExporter.writePdf(src, target, progress);
+                else ReportExporter.writeCsv(src, target, progress);
+                return String.format("Exported %,d rows to %s", src.rowCount(), target);
+            }, null);
+        }
+
+        // Runs work on the report executor behind a ProgressMonitor polled by a Swing timer. Cancel flags the
+        // progress (and calls onCancel), and the work stops at its next row; work that finishes anyway reports its result.
+        private void runReport(String title, ReportProgress progress, java.util.concurrent.Callable<String> work, Runnable onCancel) {
+            ProgressMonitor monitor = new ProgressMonitor(this, title, "", 0, 1000);
+            monitor.setMillisToDecideToPopup(300);
+            javax.swing.Timer poll = new javax.swing.Timer(150, e -> {
+                if (monitor.isCanceled() && !progress.cancelled) {
+                    progress.cancelled = true;
+                    if (onCancel != null) onCancel.run();
+                }
+                long total = progress.total, done = progress.done;
+                monitor.setProgress(total == 0 ? 0 : (int) Math.min(999, done * 1000 / total)); // 1000 would close the monitor
+                monitor.setNote(String.format("%,d of %,d %s", done, total, progress.unit));
+            });
+            poll.start();
+            reports.submit(() -> {
+                String message, failure = null;
+                try {
+                    message = work.call();
+                } catch (Exception ex) {
+                    message = null;
+                    if (!progress.cancelled) failure = title + " failed: " + ex.getMessage();
+                }
+                String text = message == null ? title + " canceled" : message, failed = failure;
+                SwingUtilities.invokeLater(() -> {
+                    poll.stop();
+                    monitor.close();
+                    if (failed != null) error(failed);
+                    else status(text);
+                });
+            });
+        }
+
+        // Paints on the EDT, as Swing requires; the card is scaled to the page width and sliced across as many pages as it needs.
+        private void printComponent(JComponent comp) {
+            try {
+                java.awt.print.PrinterJob job = java.awt.print.PrinterJob.getPrinterJob();
+                job.setJobName("Print Component");
+
+                job.setPrintable((graphics, pageFormat, pageIndex) -> {
+                    double scale = Math.min(1.0, pageFormat.getImageableWidth() / Math.max(1, comp.getWidth()));
+                    double slice = pageFormat.getImageableHeight() / scale;
+                    if (pageIndex * slice >= comp.getHeight()) return java.awt.print.Printable.NO_SUCH_PAGE;
+
+                    Graphics2D g2 = (Graphics2D) graphics;
+                    g2.translate(pageFormat.getImageableX(), pageFormat.getImageableY());
+                    g2.clip(new java.awt.geom.Rectangle2D.Double(0, 0, pageFormat.getImageableWidth(), pageFormat.getImageableHeight()));
+                    g2.scale(scale, scale);
+                    g2.translate(0, -pageIndex * slice);
+                    comp.printAll(g2);
+                    return java.awt.print.Printable.PAGE_EXISTS;
+                });
+
+                if (job.printDialog()) {
+                    job.print();
+                }
+            } catch (Exception ex) {
+                error("Printing failed: " + ex.getMessage());
+            }
+        }
+    }
+
+    // ----------------------- Table Models -----------------------
+    // Both models read rows straight from InventoryModel and format cells on demand, so a mutation
+    // only costs the fine-grained event for the rows it touched rather than a rebuild of the table.
+    static class ItemsTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"SKU", "Name", "Category", "Qty", "Price", "Reorder At"};
+        private InventoryModel model;
+        private int rowCount; // last size announced to listeners
+        private int shown;    // rows of the whole catalog as far as the replayed row changes go, filtered or not
+        private java.util.List<InventoryItem> filtered; // search results on display, null when showing every item
+
+        public ItemsTableModel(InventoryModel model) { this(model, model.itemCount()); }
+
+        // rows is the model's row count as of the first row change that will be replayed here.
+        public ItemsTableModel(InventoryModel model, int rows) {
+            this.model = model;
+            this.rowCount = this.shown = rows;
+        }
+
+        // Shows another location's catalog, unfiltered.
+        public void setModel(InventoryModel model, int rows) {
+            this.model = model;
+            shown = rows;
+            setFilter(null);
+        }
+
+        public InventoryItem getItemAt(int row) {
+            if (filtered == null) return model.itemAt(row);
+            return row < filtered.size() ? filtered.get(row) : null;
+        }
+
+        // Shows only the given items (null goes back to the whole catalog); the owner re-runs its search after mutations.
+        public void setFilter(java.util.List<InventoryItem> results) {
+            filtered = results;
+            rowCount = results == null ? shown : results.size();
+            fireTableDataChanged();
+        }
+
+        public boolean isFiltered() { return filtered != null; }
+
+        // Replays InventoryModel's row changes in the order it made them (see RowsListener).
+        public void rowAdded(int row) {
+            shown = row + 1;
+            if (filtered != null) return;
+            rowCount = shown;
+            fireTableRowsInserted(row, row);
+        }
+
+        public void rowRemoved(int row, int last) {
+            shown = last;
+            if (filtered != null) return;
+            rowCount = shown;
+            if (row != last) fireTableRowsUpdated(row, row);
+            fireTableRowsDeleted(last, last);
+        }
+
+        public void itemChanged(String sku) {
+            if (filtered != null) return;
+            int row = model.indexOfSku(sku);
+            if (row >= 0 && row < rowCount) fireTableRowsUpdated(row, row);
+        }
+
+        // One event per run of adjacent rows a batch touched, so rows between two far-apart edits are left alone.
+        public void itemsChanged(Collection<String> skus) {
+            if (filtered != null) return;
+            int[] touched = new int[skus.size()];
+            int n = 0;
+            for (String sku : skus) {
+                int row = model.indexOfSku(sku);
+                if (row >= 0 && row < rowCount) touched[n++] = row;
+            }
+            Arrays.sort(touched, 0, n);
+            for (int i = 0; i < n; ) {
+                int first = touched[i], last = first;
+                while (++i < n && touched[i] <= last + 1) last = touched[i];
+                fireTableRowsUpdated(first, last);
+            }
+        }
+
+        // After a bulk change: one event that re-reads every row; rows is the model's count as of the last change.
+        public void reload(int rows) {
+            shown = rows;
+            if (filtered != null) return;
+            rowCount = rows;
+            fireTableDataChanged();
+        }
+
+        @Override public int getRowCount() { return rowCount; }
+        @Override public int getColumnCount() { return COLUMNS.length; }
+        @Override public String getColumnName(int col) { return COLUMNS[col]; }
+        @Override public Class<?> getColumnClass(int col) { return col == 3 || col == 5 ? Integer.class : String.class; }
+        @Override public boolean isCellEditable(int row, int col) { return false; }
+
+        @Override public Object getValueAt(int row, int col) {
+            InventoryItem it = getItemAt(row);
+            if (it == null) return null;
+            switch (col) {
+                case 0: return it.sku;
+                case 1: return it.name;
+                case 2: return it.category;
+                case 3: return it.quantity;
+                case 4: return String.format(Locale.US, "%.2f", it.price);
+                default: return it.reorderPoint;
+            }
+        }
+    }
+
+    // One page of a transaction query, newest first. Older/newer walk a stack of page cursors, so only the
+    // visible page is ever fetched; append() puts new transactions at the top, and sync() re-reads the first page.
+    static class TxnsTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"ID", "Time", "SKU", "Item", "Type", "QtyΔ", "By", "Notes"};
+        private static final DateTimeFormatter TIME_FMT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+        static final int PAGE_SIZE = 200;
+        private InventoryModel model;
+        private TxnQuery query = TxnQuery.ALL;
+        private final Deque<Long> cursors = new ArrayDeque<>(); // before-cursor of each page up to the current one
+        private TxnPage page;
+
+        public TxnsTableModel(InventoryModel model) {
+            this.model = model;
+            setQuery(TxnQuery.ALL);
+        }
+
+        // Runs the current query against another location's log, from its newest page.
+        public void setModel(InventoryModel model) {
+            this.model = model;
+            setQuery(query);
+        }
+
+        public void setQuery(TxnQuery q) {
+            query = q;
+            cursors.clear();
+            cursors.push(Long.MAX_VALUE);
+            load();
+        }
+
+        public void older() {
+            if (page.next == 0) return;
+            cursors.push(page.next);
+            load();
+        }
+
+        public void newer() {
+            if (cursors.size() == 1) return;
+            cursors.pop();
+            load();
+        }
+
+        public boolean hasOlder() { return page.next != 0; }
+        public boolean hasNewer() { return cursors.size() > 1; }
+        public int pageNumber() { return cursors.size(); }
+
+        // Only the newest page changes as transactions are logged; older pages are stable.
+        public void sync() {
+            if (cursors.size() == 1) load();
+        }
+
+        // Newly logged transactions, oldest first: those the query matches go on top of the newest page, which keeps
+        // its size. The page may have been read after some of them were logged, so ones it already shows are skipped.
+        public void append(java.util.List<TransactionRec> txns) {
+            if (cursors.size() != 1) return;
+            long top = page.rows.isEmpty() ? 0 : page.rows.get(0).seq();
+            java.util.List<TransactionRec> rows = new ArrayList<>(PAGE_SIZE);
+            for (int i = txns.size() - 1; i >= 0 && rows.size() < PAGE_SIZE; i--) {
+                TransactionRec r = txns.get(i);
+                if (r.seq() > top && query.matches(r)) rows.add(r);
+            }
+            if (rows.isEmpty()) return;
+            int added = rows.size(), old = page.rows.size(), kept = Math.min(old, PAGE_SIZE - added);
+            if (kept < old) { // the oldest rows drop off the bottom first, so each event matches the rows on hand
+                page = new TxnPage(new ArrayList<>(page.rows.subList(0, kept)), page.next);
+                fireTableRowsDeleted(kept, old - 1);
+            }
+            rows.addAll(page.rows);
+            page = new TxnPage(rows, kept < old ? rows.get(rows.size() - 1).seq() : page.next);
+            fireTableRowsInserted(0, added - 1);
+        }
+
+        private void load() {
+            page = model.queryTransactions(query, cursors.peek(), PAGE_SIZE);
+            fireTableDataChanged();
+        }
+
+        @Override public int getRowCount() { return page.rows.size(); }
+        @Override public int getColumnCount() { return COLUMNS.length; }
+        @Override public String getColumnName(int col) { return COLUMNS[col]; }
+        @Override public Class<?> getColumnClass(int col) { return col == 5 ? Integer.class : col == 4 ? TxnType.class : String.class; }
+        @Override public boolean isCellEditable(int row, int col) { return false; }
+
+        @Override public Object getValueAt(int row, int col) {
+            TransactionRec t = page.rows.get(row);
+            switch (col) {
+                case 0: return t.id;
+                case 1: return t.timestamp.format(TIME_FMT);
+                case 2: return t.sku;
+                case 3: return t.itemName;
+                case 4: return t.type;
+                case 5: return t.qtyDelta;
+                case 6: return t.performedBy;
+                default: return t.notes;
+            }
+        }
+    }
+
+    static class CategoryTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"Category", "Items", "Units", "Value"};
+        private final java.util.List<Map.Entry<String, Totals>> rows = new ArrayList<>();
+
+        // Categories are few, so a full repaint per summary update is cheap.
+        public void setTotals(TotalsSnapshot totals) {
+            rows.clear();
+            rows.addAll(totals.byCategory.entrySet());
+            fireTableDataChanged();
+        }
+
+        @Override public int getRowCount() { return rows.size(); }
+        @Override public int getColumnCount() { return COLUMNS.length; }
+        @Override public String getColumnName(int col) { return COLUMNS[col]; }
+        @Override public Class<?> getColumnClass(int col) { return col == 0 ? String.class : col == 3 ? java.math.BigDecimal.class : Long.class; }
+        @Override public boolean isCellEditable(int row, int col) { return false; }
+
+        @Override public Object getValueAt(int row, int col) {
+            Map.Entry<String, Totals> e = rows.get(row);
+            switch (col) {
+                case 0: return e.getKey().isEmpty() ? "(none)" : e.getKey();
+                case 1: return (long) e.getValue().items;
+                case 2: return e.getValue().units;
+                default: return e.getValue().value();
+            }
+        }
+    }
+
+    static class AnalyticsTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"SKU", "Name", "ABC", "On Hand", "Per Day (7d)", "Per Day (30d)", "Per Day (90d)", "Days of Cover", "Value Sold (90d)"};
+        private java.util.List<StockAnalytics.Row> rows = new ArrayList<>();
+
+        public void setRows(java.util.List<StockAnalytics.Row> rows) {
+            this.rows = rows;
+            fireTableDataChanged();
+        }
+
+        @Override public int getRowCount() { return rows.size(); }
+        @Override public int getColumnCount() { return COLUMNS.length; }
+        @Override public String getColumnName(int col) { return COLUMNS[col]; }
+        @Override public Class<?> getColumnClass(int col) {
+            switch (col) {
+                case 0: case 1: case 2: return String.class;
+                case 3: return Integer.class;
+                case 8: return java.math.BigDecimal.class;
+                default: return Double.class;
+            }
+        }
+        @Override public boolean isCellEditable(int row, int col) { return false; }
+
+        @Override public Object getValueAt(int row, int col) {
+            StockAnalytics.Row r = rows.get(row);
+            switch (col) {
+                case 0: return r.item.sku;
+                case 1: return r.item.name;
+                case 2: return String.valueOf(r.abc);
+                case 3: return r.onHand;
+                case 4: return StockAnalytics.Row.perDay(r.sold7, 7);
+                case 5: return StockAnalytics.Row.perDay(r.sold30, 30);
+                case 6: return StockAnalytics.Row.perDay(r.sold90, StockAnalytics.WINDOW);
+                case 7: { Double cover = r.daysOfCover(); return cover == null ? Double.POSITIVE_INFINITY : cover; } // never sold: sorts last
+                default: return r.valueSold();
+            }
+        }
+    }
+
+    static class LowStockTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"SKU", "Name", "Qty", "Reorder At"};
+        private java.util.List<InventoryItem> rows = new ArrayList<>();
+
+        public void setItems(java.util.List<InventoryItem> items) {
+            rows = items;
+            fireTableDataChanged();
+        }
+
+        @Override public int getRowCount() { return rows.size(); }
+        @Override public int getColumnCount() { return COLUMNS.length; }
+        @Override public String getColumnName(int col) { return COLUMNS[col]; }
+        @Override public Class<?> getColumnClass(int col) { return col < 2 ? String.class : Integer.class; }
+        @Override public boolean isCellEditable(int row, int col) { return false; }
+
+        @Override public Object getValueAt(int row, int col) {
+            InventoryItem it = rows.get(row);
+            switch (col) {
+                case 0: return it.sku;
+                case 1: return it.name;
+                case 2: return it.quantity;
+                default: return it.reorderPoint;
+            }
+        }
+    }
+
+    // One row per instrument. Rates are per second since the previous refresh; latencies are in milliseconds.
+    static class MetricsTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"Metric", "Labels", "Count", "Rate/s", "Mean ms", "p50 ms", "p99 ms", "Max ms"};
+        private final java.util.List<Object[]> rows = new ArrayList<>();
+        private final Map<String, Long> lastCounts = new HashMap<>();
+        private long lastRefresh;
+
+        public void refresh() {
+            long now = System.nanoTime();
+            double seconds = lastRefresh == 0 ? 0 : (now - lastRefresh) / 1e9;
+            lastRefresh = now;
+            rows.clear();
+            for (Metrics.Instrument i : Metrics.REGISTRY.instruments()) {
+                Object[] row = new Object[COLUMNS.length];
+                row[0] = i.name;
+                row[1] = i.labels;
+                long count;
+                if (i.source instanceof LatencyHistogram) {
+                    LatencyHistogram.Snapshot s = ((LatencyHistogram) i.source).snapshot();
+                    count = s.count;
+                    row[4] = s.mean() / 1e6;
+                    row[5] = s.percentile(50) / 1e6;
+                    row[6] = s.percentile(99) / 1e6;
+                    row[7] = s.max / 1e6;
+                } else {
+                    count = Metrics.valueOf(i);
+                }
+                row[2] = count;
+                Long previous = lastCounts.put(i.key(), count);
+                if (!i.type.equals("gauge") && previous != null && seconds > 0) row[3] = (count - previous) / seconds;
+                rows.add(row);
+            }
+            fireTableDataChanged();
+        }
+
+        @Override public int getRowCount() { return rows.size(); }
+        @Override public int getColumnCount() { return COLUMNS.length; }
+        @Override public String getColumnName(int col) { return COLUMNS[col]; }
+        @Override public Class<?> getColumnClass(int col) { return col < 2 ? String.class : col == 2 ? Long.class : Double.class; }
+        @Override public boolean isCellEditable(int row, int col) { return false; }
+        @Override public Object getValueAt(int row, int col) { return rows.get(row)[col]; }
+    }
+
+    // ----------------------- Reports -----------------------
+    // A report is a row count fixed when it starts plus rows read by index straight from InventoryModel, so
+    // exports and print jobs hold one row (one page for PDF and printing) however much history there is.
+    // Items are a live view: an item changed mid-report shows as it is when its row is read.
+    static abstract class ReportSource {
+        final String title;
+        final String[] columns;
+        final int[] widths; // characters per column in the fixed-pitch print and PDF layouts
+
+        ReportSource(String title, String[] columns, int[] widths) { this.title = title; this.columns = columns; this.widths = widths; }
+
+        abstract long rowCount();
+        abstract String[] row(long index); // null when the row has gone since the count was taken
+
+        static ReportSource items(InventoryModel model) {
+            int count = model.itemCount();
+            return new ReportSource("Inventory Items", new String[] {"SKU", "Name", "Category", "Qty", "Price", "Reorder At"},
+                    new int[] {14, 32, 18, 9, 12, 10}) {
+                long rowCount() { return count; }
+                String[] row(long index) {
+                    InventoryItem it = model.itemAt((int) index);
+                    if (it == null) return null;
+                    return new String[] {it.sku, it.name, it.category, String.valueOf(it.quantity),
+                            String.format(Locale.US, "%.2f", it.price), String.valueOf(it.reorderPoint)};
+                }
+            };
+        }
+
+        static ReportSource transactions(InventoryModel model) {
+            long count = model.transactionCount();
+            DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+            return new ReportSource("Transactions", new String[] {"ID", "Time", "SKU", "Item", "Type", "QtyΔ", "By", "Notes"},
+                    new int[] {12, 19, 12, 24, 12, 7, 10, 24}) {
+                long rowCount() { return count; }
+                String[] row(long index) {
+                    TransactionRec t = model.transactionAt((int) index);
+                    if (t == null) return null;
+                    return new String[] {t.id, t.timestamp.format(fmt), t.sku, t.itemName, t.type.name(),
+                            String.valueOf(t.qtyDelta), t.performedBy, t.notes};
+                }
+            };
+        }
+
+        // One line of the fixed-pitch layout: each cell padded or cut to its column width, one space between columns.
+        String line(String[] cells) {
+            StringBuilder sb = new StringBuilder(lineChars());
+            for (int c = 0; c < widths.length; c++) {
+                String v = cells[c] == null ? "" : cells[c].replace('\n', ' ').replace('\r', ' ');
+                if (v.length() > widths[c]) v = v.substring(0, widths[c] - 1) + "~";
+                sb.append(v);
+                if (c < widths.length - 1) for (int i = v.length(); i <= widths[c]; i++) sb.append(' ');
+            }
+            return sb.toString();
+        }
+
+        int lineChars() {
+            int n = widths.length - 1;
+            for (int w : widths) n += w;
+            return n;
+        }
+    }
+
+    // Shared between a running report and the UI that watches it; the report stops at its next row once cancelled.
+    static class ReportProgress {
+        volatile long done;
+        volatile long total;
+        volatile String unit = "rows"; // what done and total count, for the progress note
+        volatile boolean cancelled;
+
+        void step(long done) {
+            this.done = done;
+            if (cancelled) throw new java.util.concurrent.CancellationException();
+        }
+    }
+
+    static class ReportExporter {
+        private static final float PAGE_WIDTH = 595, PAGE_HEIGHT = 842, MARGIN = 36; // A4 in points
+
+        // RFC 4180 CSV in UTF-8.
+        static void writeCsv(ReportSource src, Path file, ReportProgress progress) throws IOException {
+            long total = src.rowCount();
+            progress.total = total;
+            try (java.io.Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                writeCsvLine(out, src.columns);
+                for (long i = 0; i < total; i++) {
+                    String[] row = src.row(i);
+                    if (row != null) writeCsvLine(out, row);
+                    if ((i & 1023) == 0) progress.step(i);
+                }
+                progress.step(total);
+            } catch (IOException | RuntimeException ex) {
+                Files.deleteIfExists(file);
+                throw ex;
+            }
+        }
+
+        private static void writeCsvLine(java.io.Writer out, String[] cells) throws IOException {
+            for (int c = 0; c < cells.length; c++) {
+                if (c > 0) out.write(',');
+                String v = cells[c] == null ? "" : cells[c];
+                if (v.indexOf(',') >= 0 || v.indexOf('"') >= 0 || v.indexOf('\n') >= 0 || v.indexOf('\r') >= 0) {
+                    out.write('"');
+                    out.write(v.replace("\"", "\"\""));
+                    out.write('"');
+                } else {
+                    out.write(v);
+                }
+            }
+            out.write("\r\n");
+        }
+
+        // A plain PDF 1.4 file in Courier, written page by page: only the current page's content and one file
+        // offset per object are kept. Characters outside Latin-1 print as '?'.
+        static void writePdf(ReportSource src, Path file, ReportProgress progress) throws IOException {
+            long total = src.rowCount();
+            progress.total = total;
+            float fontSize = Math.min(9f, (PAGE_WIDTH - 2 * MARGIN) / (src.lineChars() * 0.6f));
+            float leading = fontSize * 1.25f;
+            int rowsPerPage = Math.max(1, (int) ((PAGE_HEIGHT - 2 * MARGIN) / leading) - 4); // title, blank, header, rule
+            long pages = Math.max(1, (total + rowsPerPage - 1) / rowsPerPage);
+            if (3 + 2 * pages > Integer.MAX_VALUE) throw new IOException("Report too large for one PDF");
+            long[] offsets = new long[3 + 2 * (int) pages + 1]; // object numbers start at 1
+            try (CountingOutput out = new CountingOutput(Files.newOutputStream(file))) {
+                out.ascii("%PDF-1.4\n");
+                offsets[1] = out.count;
+                out.ascii("1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+                offsets[3] = out.count;
+                out.ascii("3 0 obj\n<< /Type /Font /Subtype /Type1 /BaseFont /Courier /Encoding /WinAnsiEncoding >>\nendobj\n");
+                java.io.ByteArrayOutputStream content = new java.io.ByteArrayOutputStream(8192);
+                String header = src.line(src.columns);
+                StringBuilder rule = new StringBuilder();
+                for (int i = 0; i < src.lineChars(); i++) rule.append('-');
+                long row = 0;
+                for (int p = 0; p < pages; p++) {
+                    content.reset();
+                    pdfText(content, String.format(Locale.US, "BT /F1 %.2f Tf %.2f TL %.2f %.2f Td%n", fontSize, leading, MARGIN, PAGE_HEIGHT - MARGIN - fontSize));
+                    pdfLine(content, src.title + "    Page " + (p + 1) + " of " + pages);
+                    pdfLine(content, "");
+                    pdfLine(content, header);
+                    pdfLine(content, rule.toString());
+                    for (int r = 0; r < rowsPerPage && row < total; r++, row++) {
+                        String[] cells = src.row(row);
+                        if (cells != null) pdfLine(content, src.line(cells));
+                        if ((row & 1023) == 0) progress.step(row);
+                    }
+                    pdfText(content, "ET\n");
+                    int pageObj = 4 + 2 * p, contentObj = pageObj + 1;
+                    offsets[pageObj] = out.count;
+                    out.ascii(pageObj + " 0 obj\n<< /Type /Page /Parent 2 0 R /MediaBox [0 0 " + (int) PAGE_WIDTH + " " + (int) PAGE_HEIGHT
+                            + "] /Resources << /Font << /F1 3 0 R >> >> /Contents " + contentObj + " 0 R >>\nendobj\n");
+                    offsets[contentObj] = out.count;
+                    out.ascii(contentObj + " 0 obj\n<< /Length " + content.size() + " >>\nstream\n");
+                    content.writeTo(out);
+                    out.ascii("\nendstream\nendobj\n");
+                }
+                offsets[2] = out.count;
+                out.ascii("2 0 obj\n<< /Type /Pages /Count " + pages + " /Kids [");
+                for (int p = 0; p < pages; p++) out.ascii((4 + 2 * p) + " 0 R ");
+                out.ascii("] >>\nendobj\n");
+                long xref = out.count;
+                out.ascii("xref\n0 " + offsets.length + "\n0000000000 65535 f \n");
+                for (int i = 1; i < offsets.length; i++) out.ascii(String.format("%010d 00000 n \n", offsets[i]));
+                out.ascii("trailer\n<< /Size " + offsets.length + " /Root 1 0 R >>\nstartxref\n" + xref + "\n%%EOF\n");
+                progress.step(total);
+            } catch (IOException | RuntimeException ex) {
+                Files.deleteIfExists(file);
+                throw ex;
+            }
+        }
+
+        private static void pdfText(java.io.ByteArrayOutputStream out, String s) {
+            byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+            out.write(b, 0, b.length);
+        }
+
+        private static void pdfLine(java.io.ByteArrayOutputStream out, String s) {
+            out.write('(');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '(' || c == ')' || c == '\\') out.write('\\');
+                out.write(c < 0x20 || c > 0xFF ? '?' : c);
+            }
+            out.write(')');
+            pdfText(out, " Tj T*\n");
+        }
+
+        private static final class CountingOutput extends java.io.FilterOutputStream {
+            long count;
+            CountingOutput(java.io.OutputStream out) { super(new java.io.BufferedOutputStream(out, 1 << 16)); }
+            @Override public void write(int b) throws IOException { out.write(b); count++; }
+            @Override public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); count += len; }
+            void ascii(String s) throws IOException { write(s.getBytes(StandardCharsets.US_ASCII)); }
+        }
+    }
+
+    // Pages a ReportSource onto the printer in a fixed-pitch font sized to fit the page width. Pages are laid out
+    // on demand from the row index, so the print system may ask for any page, and ask again, without buffering.
+    static class ReportPrintable implements java.awt.print.Printable {
+        private final ReportSource src;
+        private final ReportProgress progress;
+        private final long total;
+
+        ReportPrintable(ReportSource src, ReportProgress progress) {
+            this.src = src;
+            this.progress = progress;
+            this.total = src.rowCount();
+            progress.total = total;
+        }
+
+        @Override public int print(Graphics graphics, java.awt.print.PageFormat pf, int pageIndex) {
+            if (progress.cancelled) return NO_SUCH_PAGE;
+            Graphics2D g = (Graphics2D) graphics;
+            float size = (float) Math.min(9, pf.getImageableWidth() / (src.lineChars() * 0.6));
+            g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 1).deriveFont(size));
+            FontMetrics fm = g.getFontMetrics();
+            int lineHeight = fm.getHeight();
+            int rowsPerPage = Math.max(1, (int) (pf.getImageableHeight() / lineHeight) - 4);
+            long pages = Math.max(1, (total + rowsPerPage - 1) / rowsPerPage);
+            if (pageIndex >= pages) return NO_SUCH_PAGE;
+
+            g.translate(pf.getImageableX(), pf.getImageableY());
+            g.setColor(Color.BLACK);
+            int y = fm.getAscent();
+            g.drawString(src.title + "    Page " + (pageIndex + 1) + " of " + pages, 0, y);
+            y += 2 * lineHeight;
+            String header = src.line(src.columns);
+            g.drawString(header, 0, y);
+            y += lineHeight / 2;
+            g.drawLine(0, y, fm.charWidth('0') * src.lineChars(), y);
+            y += lineHeight;
+            long first = (long) pageIndex * rowsPerPage;
+            for (long row = first; row < Math.min(total, first + rowsPerPage); row++) {
+                String[] cells = src.row(row);
+                if (cells != null) g.drawString(src.line(cells), 0, y);
+                y += lineHeight;
+            }
+            progress.done = Math.min(total, first + rowsPerPage);
+            return PAGE_EXISTS;
+        }
+    }
+
+    // ----------------------- Analytics -----------------------
+    // Sell-through per SKU, kept current as a subscriber of the model's change stream, so writers never wait for it.
+    // Each SKU that has had stock removed keeps a ring of daily buckets spanning WINDOW days: a record only adds to
+    // its day's bucket, and velocity over 7, 30 or 90 days is a sum over at most WINDOW buckets. It subscribes from
+    // the first transaction, so the stream first replays the journaled history the log no longer holds. ABC classes
+    // are recomputed in parallel every few minutes: A items make up the first 80% of the value sold over the window,
+    // B the next 15%, C the rest.
+    static class StockAnalytics implements Closeable {
+        static final int WINDOW = 90; // days
+        private static final long ABC_EVERY_MINUTES = Long.getLong("inventory.abcEveryMinutes", 15L);
+
+        // Units removed on each of the last WINDOW days for one SKU, indexed by epoch day % WINDOW.
+        static final class Movement {
+            private final int[] units = new int[WINDOW];
+            private long newestDay;
+            volatile char abc = 'C';
+
+            Movement(long day) { newestDay = day; }
+
+            synchronized void add(long day, int qty) {
+                if (day > newestDay) {
+                    for (long d = Math.max(newestDay + 1, day - WINDOW + 1); d <= day; d++) units[(int) (d % WINDOW)] = 0;
+                    newestDay = day;
+                }
+                if (day > newestDay - WINDOW) units[(int) (day % WINDOW)] += qty;
+            }
+
+            // Units removed over the given number of days, today included.
+            synchronized long sold(long today, int days) {
+                long sum = 0;
+                for (long d = Math.max(today - days + 1, newestDay - WINDOW + 1); d <= Math.min(today, newestDay); d++) sum += units[(int) (d % WINDOW)];
+                return sum;
+            }
+        }
+
+        // One line of the report: an item, its stock when the report was built, and what it sold.
+        static final class Row {
+            final InventoryItem item;
+            final int onHand; // fixed, so the table sorts on values that cannot change underneath it
+            final long sold7, sold30, sold90;
+            final char abc;
+
+            Row(InventoryItem item, long sold7, long sold30, long sold90, char abc) {
+                this.item = item; this.onHand = item.quantity; this.sold7 = sold7; this.sold30 = sold30; this.sold90 = sold90; this.abc = abc;
+            }
+
+            static double perDay(long units, int days) { return units / (double) days; }
+
+            // Days the stock on hand lasts at the 30-day rate, or null if nothing sold in that time.
+            Double daysOfCover() { return sold30 == 0 ? null : onHand / perDay(sold30, 30); }
+
+            java.math.BigDecimal valueSold() { return java.math.BigDecimal.valueOf(sold90 * item.priceMinor(), 2); }
+        }
+
+        private final InventoryModel model;
+        private final ConcurrentHashMap<String, Movement> movements = new ConcurrentHashMap<>();
+        private final long liveFrom; // the log's first record at start; older ones are replayed from the journal
+        private final ScheduledExecutorService classifier;
+        private volatile ChangeStream.Subscription feed;
+        private volatile LocalDateTime classifiedAt;
+
+        StockAnalytics(InventoryModel model) {
+            this.model = model;
+            liveFrom = model.txnLog.firstSeq();
+            classifier = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "abc-classifier-" + model.location);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        void start() {
+            feed = model.changes().subscribe("analytics", 1, false, this::take);
+            classifier.scheduleWithFixedDelay(this::classify, ABC_EVERY_MINUTES, ABC_EVERY_MINUTES, TimeUnit.MINUTES);
+        }
+
+        // Only stock removed as such within the window counts as sold; transfers, edits and deletions do not.
+        // The first classification runs as soon as the replayed history is in.
+        private void take(java.util.List<TransactionRec> batch) {
+            long oldest = LocalDate.now().toEpochDay() - WINDOW;
+            for (TransactionRec r : batch) {
+                if (r.type != TxnType.REMOVE_STOCK) continue;
+                long day = r.timestamp.toLocalDate().toEpochDay();
+                if (day > oldest) movements.computeIfAbsent(r.sku, k -> new Movement(day)).add(day, -r.qtyDelta);
+            }
+            if (classifiedAt == null && batch.get(batch.size() - 1).seq() >= liveFrom - 1) classify();
+        }
+
+        // Ranks every SKU that sold by value sold over the window at today's price, in parallel, and hands out classes.
+        void classify() {
+            long today = LocalDate.now().toEpochDay();
+            java.util.List<Map.Entry<String, Movement>> all = new ArrayList<>(movements.entrySet());
+            long[] value = new long[all.size()];
+            java.util.stream.IntStream.range(0, all.size()).parallel().forEach(i -> {
+                InventoryItem it = model.findBySku(all.get(i).getKey());
+                value[i] = it == null ? 0 : all.get(i).getValue().sold(today, WINDOW) * it.priceMinor();
+            });
+            Integer[] order = new Integer[all.size()];
+            long total = 0;
+            for (int i = 0; i < order.length; i++) { order[i] = i; total += value[i]; }
+            Arrays.parallelSort(order, (a, b) -> Long.compare(value[b], value[a]));
+            long running = 0;
+            for (Integer i : order) {
+                all.get(i).getValue().abc = total == 0 ? 'C' : running < total * 0.80 ? 'A' : running < total * 0.95 ? 'B' : 'C';
+                running += value[i];
+            }
+            classifiedAt = LocalDateTime.now();
+        }
+
+        public LocalDateTime classifiedAt() { return classifiedAt; }
+
+        public boolean isCaughtUp() {
+            ChangeStream.Subscription f = feed;
+            return f != null && f.position() >= liveFrom - 1;
+        }
+
+        // A row for every item in the catalog, built in parallel; items that never sold have no velocity and class C.
+        public java.util.List<Row> report() {
+            long today = LocalDate.now().toEpochDay();
+            return model.getAllItems().parallelStream().map(it -> {
+                Movement m = movements.get(it.sku);
+                return m == null ? new Row(it, 0, 0, 0, 'C') : new Row(it, m.sold(today, 7), m.sold(today, 30), m.sold(today, WINDOW), m.abc);
+            }).collect(Collectors.toList());
+        }
+
+        @Override public void close() {
+            if (feed != null) feed.close();
+            classifier.shutdownNow();
+        }
+    }
+
+    // ----------------------- Bulk Import -----------------------
+    // Reads an item catalog from UTF-8 CSV (RFC 4180), such as Export Items writes. The header names the columns in
+    // any order: SKU and Name are required, Category, Qty, Price and Reorder At default to empty or zero, and other
+    // columns are ignored. The file is read through a FileChannel in blocks cut at record boundaries (a newline
+    // outside quotes; newline and quote bytes never occur inside a UTF-8 sequence), and each block is decoded and
+    // parsed on the common fork-join pool while the next is read. A few blocks are in flight at most, so memory
+    // beyond the parsed items stays bounded however long the file is. A malformed row or a repeated SKU fails the
+    // whole file, naming its line, before anything reaches the model.
+    static class CatalogImport {
+        static final int BLOCK = 1 << 20;
+        private static final int SKU = 0, NAME = 1, CATEGORY = 2, QTY = 3, PRICE = 4, REORDER = 5;
+
+        static java.util.List<InventoryItem> read(Path file, ReportProgress progress) throws IOException {
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            int window = 2 * pool.getParallelism() + 1;
+            ArrayDeque<ForkJoinTask<Block>> pending = new ArrayDeque<>();
+            java.util.List<Block> blocks = new ArrayList<>();
+            Set<String> skus = new HashSet<>();
+            progress.unit = "bytes read";
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                progress.total = channel.size();
+                byte[] data = new byte[BLOCK];
+                int len = 0, scanned = 0; // bytes held in data, and how many of them were scanned for boundaries
+                int newlines = 0;         // in data[0, scanned)
+                long line = 1, read = 0;  // line of data[0], bytes read so far
+                boolean quoted = false;
+                int[] columns = null;
+                while (true) {
+                    for (int n = 0; len < data.length && n >= 0; ) {
+                        n = channel.read(ByteBuffer.wrap(data, len, data.length - len));
+                        if (n > 0) { len += n; read += n; }
+                        else if (n < 0) break;
+                    }
+                    boolean eof = len < data.length;
+                    int cut = 0, cutLines = 0;
+                    for (int i = scanned; i < len; i++) {
+                        byte b = data[i];
+                        if (b == '"') quoted = !quoted;
+                        else if (b == '\n') {
+                            newlines++;
+                            if (!quoted) { cut = i + 1; cutLines = newlines; }
+                        }
+                    }
+                    scanned = len;
+                    if (eof) { cut = len; cutLines = newlines; }
+                    if (cut == 0 && !eof) { data = Arrays.copyOf(data, data.length * 2); continue; } // a record longer than the buffer
+                    byte[] chunk = data;
+                    data = new byte[chunk.length];
+                    System.arraycopy(chunk, cut, data, 0, len - cut);
+                    len -= cut;
+                    scanned = len;
+                    newlines -= cutLines;
+                    Records records = null;
+                    if (columns == null) { // the header is read here so every block knows the columns
+                        records = new Records(new String(chunk, 0, cut, StandardCharsets.UTF_8), line);
+                        columns = header(records);
+                    }
+                    Records first = records;
+                    int[] cols = columns;
+                    int chunkLen = cut;
+                    long at = line;
+                    pending.add(pool.submit(() -> parse(first != null ? first
+                            : new Records(new String(chunk, 0, chunkLen, StandardCharsets.UTF_8), at), cols)));
+                    line += cutLines;
+                    progress.step(read);
+                    while (pending.size() >= window || (eof && !pending.isEmpty())) collect(pending.poll(), blocks, skus);
+                    if (eof) break;
+                }
+            } finally {
+                for (ForkJoinTask<Block> task : pending) task.cancel(true);
+            }
+            int total = 0;
+            for (Block b : blocks) total += b.items.size();
+            java.util.List<InventoryItem> out = new ArrayList<>(total);
+            for (Block b : blocks) out.addAll(b.items);
+            return out;
+        }
+
+        // Waits for a block and checks its SKUs against every earlier block, in file order.
+        private static void collect(ForkJoinTask<Block> task, java.util.List<Block> blocks, Set<String> skus) throws IOException {
+            Block block;
+            try {
+                block = task.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new java.io.InterruptedIOException("Import interrupted");
+            } catch (ExecutionException ex) { // the pool wraps the parser's IOException, possibly more than once
+                for (Throwable c = ex.getCause(); c != null; c = c.getCause()) if (c instanceof IOException) throw (IOException) c;
+                throw new IOException(ex.getCause());
+            }
+            blocks.add(block);
+            for (int i = 0; i < block.items.size(); i++) {
+                String sku = block.items.get(i).sku;
+                if (!skus.add(sku)) throw new IOException("Line " + block.lines[i] + ": SKU " + sku + " already appears on line " + firstLine(blocks, sku));
+            }
+        }
+
+        private static long firstLine(java.util.List<Block> blocks, String sku) {
+            for (Block b : blocks) for (int i = 0; i < b.items.size(); i++) if (b.items.get(i).sku.equals(sku)) return b.lines[i];
+            return 0;
+        }
+
+        // Maps each known column to its field index, -1 when the file has no such column.
+        private static int[] header(Records records) throws IOException {
+            int[] at = {-1, -1, -1, -1, -1, -1};
+            if (!records.next()) throw new IOException("The file is empty");
+            for (int f = records.fields.size() - 1; f >= 0; f--) { // the first of repeated names wins
+                String name = records.fields.get(f).replaceAll("[^A-Za-z]", "").toLowerCase(Locale.ROOT);
+                switch (name) {
+                    case "sku": at[SKU] = f; break;
+                    case "name": at[NAME] = f; break;
+                    case "category": at[CATEGORY] = f; break;
+                    case "qty": case "quantity": at[QTY] = f; break;
+                    case "price": at[PRICE] = f; break;
+                    case "reorderat": case "reorderpoint": at[REORDER] = f; break;
+                    default:
+                }
+            }
+            if (at[SKU] < 0 || at[NAME] < 0) throw records.error("The header must name SKU and Name columns");
+            return at;
+        }
+
+        private static Block parse(Records records, int[] at) throws IOException {
+            Block block = new Block();
+            while (records.next()) {
+                java.util.List<String> f = records.fields;
+                if (f.size() == 1 && f.get(0).trim().isEmpty()) continue; // blank line
+                String sku = field(f, at[SKU]).trim(), name = field(f, at[NAME]).trim();
+                if (sku.isEmpty() || name.isEmpty()) throw records.error("SKU and Name are required");
+                int qty = count(records, field(f, at[QTY]), "Qty");
+                int reorderAt = count(records, field(f, at[REORDER]), "Reorder At");
+                double price;
+                String p = field(f, at[PRICE]).trim();
+                try { price = p.isEmpty() ? 0 : Double.parseDouble(p); } catch (NumberFormatException ex) { price = -1; }
+                if (!(price >= 0 && price <= Double.MAX_VALUE)) throw records.error("Price must be a number from 0 up, not \"" + p + "\"");
+                block.add(new InventoryItem(sku, name, field(f, at[CATEGORY]).trim(), qty, price, reorderAt), records.line());
+            }
+            return block;
+        }
+
+        private static String field(java.util.List<String> fields, int index) {
+            return index >= 0 && index < fields.size() ? fields.get(index) : "";
+        }
+
+        private static int count(Records records, String value, String column) throws IOException {
+            String v = value.trim();
+            if (v.isEmpty()) return 0;
+            try {
+                int n = Integer.parseInt(v);
+                if (n >= 0) return n;
+            } catch (NumberFormatException ignored) {}
+            throw records.error(column + " must be a whole number from 0 up, not \"" + v + "\"");
+        }
+
+        // Parsed items of one block with the line each started on.
+        private static final class Block {
+            final java.util.List<InventoryItem> items = new ArrayList<>();
+            long[] lines = new long[1024];
+
+            void add(InventoryItem item, long line) {
+                if (items.size() == lines.length) lines = Arrays.copyOf(lines, lines.length * 2);
+                lines[items.size()] = line;
+                items.add(item);
+            }
+        }
+
+        // Splits text into records of fields; quoted fields may hold commas, doubled quotes and line breaks.
+        private static final class Records {
+            final java.util.List<String> fields = new ArrayList<>();
+            private final String text;
+            private int pos;
+            private long line, start; // current line, and the line the last record started on
+
+            Records(String text, long line) { this.text = text; this.line = line; }
+
+            long line() { return start; }
+
+            IOException error(String message) { return new IOException("Line " + start + ": " + message); }
+
+            // Reads the next record into fields; false once the text is used up.
+            boolean next() throws IOException {
+                fields.clear();
+                if (pos >= text.length()) return false;
+                start = line;
+                while (true) {
+                    int end;
+                    if (pos < text.length() && text.charAt(pos) == '"') {
+                        StringBuilder sb = new StringBuilder();
+                        int i = pos + 1;
+                        while (true) {
+                            int q = text.indexOf('"', i);
+                            if (q < 0) throw error("Unterminated quoted field");
+                            for (int j = i; j < q; j++) if (text.charAt(j) == '\n') line++;
+                            sb.append(text, i, q);
+                            if (q + 1 < text.length() && text.charAt(q + 1) == '"') { sb.append('"'); i = q + 2; }
+                            else { i = q + 1; break; }
+                        }
+                        fields.add(sb.toString());
+                        end = i;
+                        if (end < text.length() && text.charAt(end) == '\r') end++;
+                        if (end < text.length() && text.charAt(end) != ',' && text.charAt(end) != '\n')
+                            throw error("Unexpected text after a closing quote");
+                    } else {
+                        end = pos;
+                        while (end < text.length()) {
+                            char c = text.charAt(end);
+                            if (c == ',' || c == '\n') break;
+                            if (c == '"') throw error("Quote inside an unquoted field");
+                            end++;
+                        }
+                        int stop = end > pos && text.charAt(end - 1) == '\r' ? end - 1 : end;
+                        fields.add(text.substring(pos, stop));
+                    }
+                    if (end >= text.length()) { pos = end; return true; }
+                    pos = end + 1;
+                    if (text.charAt(end) == '\n') { line++; return true; }
+                }
+            }
+        }
+    }
+
+    // ----------------------- HTTP Server -----------------------
+    // Just enough JSON for the HTTP API: a writer for items, transactions and errors, and a parser for request
+    // bodies that yields Map, List, String, Double, Boolean or null.
+    static final class Json {
+        private static final DateTimeFormatter TIME = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+
+        static StringBuilder quote(StringBuilder out, String s) {
+            if (s == null) return out.append("null");
+            out.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"': out.append("\\\""); break;
+                    case '\\': out.append("\\\\"); break;
+                    case '\n': out.append("\\n"); break;
+                    case '\r': out.append("\\r"); break;
+                    case '\t': out.append("\\t"); break;
+                    default:
+                        if (c < 0x20) out.append(String.format("\\u%04x", (int) c));
+                        else out.append(c);
+                }
+            }
+            return out.append('"');
+        }
+
+        static String error(String message) { return quote(new StringBuilder("{\"error\":"), message).append('}').toString(); }
+
+        static StringBuilder item(StringBuilder out, InventoryItem it) {
+            out.append("{\"sku\":"); quote(out, it.sku);
+            out.append(",\"name\":"); quote(out, it.name);
+            out.append(",\"category\":"); quote(out, it.category);
+            out.append(",\"quantity\":").append(it.quantity);
+            out.append(",\"price\":").append(it.price);
+            out.append(",\"reorderPoint\":").append(it.reorderPoint);
+            return out.append(",\"version\":").append(it.version).append('}');
+        }
+
+        static StringBuilder txn(StringBuilder out, TransactionRec r) {
+            out.append("{\"id\":"); quote(out, r.id);
+            out.append(",\"timestamp\":"); quote(out, r.timestamp.format(TIME));
+            out.append(",\"sku\":"); quote(out, r.sku);
+            out.append(",\"itemName\":"); quote(out, r.itemName);
+            out.append(",\"type\":"); quote(out, r.type.name());
+            out.append(",\"qtyDelta\":").append(r.qtyDelta);
+            out.append(",\"performedBy\":"); quote(out, r.performedBy);
+            out.append(",\"notes\":"); quote(out, r.notes);
+            return out.append('}');
+        }
+
+        // Throws IllegalArgumentException on malformed input.
+        static Object parse(String text) {
+            Parser p = new Parser(text);
+            Object v = p.value();
+            p.skipSpace();
+            if (p.pos != text.length()) throw p.fail("trailing characters");
+            return v;
+        }
+
+        private static final class Parser {
+            final String s;
+            int pos;
+            Parser(String s) { this.s = s; }
+
+            Object value() {
+                skipSpace();
+                if (pos >= s.length()) throw fail("unexpected end");
+                char c = s.charAt(pos);
+                switch (c) {
+                    case '{': return object();
+                    case '[': return array();
+                    case '"': return string();
+                    case 't': return literal("true", Boolean.TRUE);
+                    case 'f': return literal("false", Boolean.FALSE);
+                    case 'n': return literal("null", null);
+                    default: return number();
+                }
+            }
+
+            private Map<String, Object> object() {
+                Map<String, Object> out = new LinkedHashMap<>();
+                pos++;
+                skipSpace();
+                if (peek() == '}') { pos++; return out; }
+                while (true) {
+                    skipSpace();
+                    if (peek() != '"') throw fail("expected a field name");
+                    String key = string();
+                    skipSpace();
+                    if (peek() != ':') throw fail("expected ':'");
+                    pos++;
+                    out.put(key, value());
+                    skipSpace();
+                    char c = peek();
+                    pos++;
+                    if (c == '}') return out;
+                    if (c != ',') throw fail("expected ',' or '}'");
+                }
+            }
+
+            private java.util.List<Object> array() {
+                java.util.List<Object> out = new ArrayList<>();
+                pos++;
+                skipSpace();
+                if (peek() == ']') { pos++; return out; }
+                while (true) {
+                    out.add(value());
+                    skipSpace();
+                    char c = peek();
+                    pos++;
+                    if (c == ']') return out;
+                    if (c != ',') throw fail("expected ',' or ']'");
+                }
+            }
+
+            private String string() {
+                StringBuilder out = new StringBuilder();
+                pos++;
+                while (true) {
+                    if (pos >= s.length()) throw fail("unterminated string");
+                    char c = s.charAt(pos++);
+                    if (c == '"') return out.toString();
+                    if (c != '\\') { out.append(c); continue; }
+                    if (pos >= s.length()) throw fail("unterminated string");
+                    char e = s.charAt(pos++);
+                    switch (e) {
+                        case '"': case '\\': case '/': out.append(e); break;
+                        case 'b': out.append('\b'); break;
+                        case 'f': out.append('\f'); break;
+                        case 'n': out.append('\n'); break;
+                        case 'r': out.append('\r'); break;
+                        case 't': out.append('\t'); break;
+                        case 'u':
+                            if (pos + 4 > s.length()) throw fail("bad escape");
+                            try { out.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16)); } catch (NumberFormatException ex) { throw fail("bad escape"); }
+                            pos += 4;
+                            break;
+                        default: throw fail("bad escape");
+                    }
+                }
+            }
+
+            private Double number() {
+                int start = pos;
+                while (pos < s.length() && "+-0123456789.eE".indexOf(s.charAt(pos)) >= 0) pos++;
+                if (start == pos) throw fail("unexpected character");
+                try { return Double.valueOf(s.substring(start, pos)); } catch (NumberFormatException ex) { throw fail("bad number"); }
+            }
+
+            private Object literal(String word, Object value) {
+                if (!s.startsWith(word, pos)) throw fail("unexpected character");
+                pos += word.length();
+                return value;
+            }
+
+            private char peek() { return pos < s.length() ? s.charAt(pos) : '\0'; }
+            void skipSpace() { while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++; }
+            IllegalArgumentException fail(String why) { return new IllegalArgumentException("Malformed JSON at " + pos + ": " + why); }
+        }
+    }
+
+    // java NAMANPROJECTS.InventoryApp --server [port]
+    // Headless JSON API over the same locations and data directory the desktop app uses, for scanners and POS
+    // terminals; each location's directory is locked, so only one of the two can have it open at a time. Every request authenticates against the UserDirectory, with HTTP Basic or a bearer token from
+    // POST /login, and acts as that user, so transactions are attributed as if made in the UI and deletes stay
+    // admin-only. Repeated Basic credentials hit the directory's session cache. Binds to loopback unless
+    // -Dinventory.serverHost says otherwise. Responses always carry a Content-Length, so clients keep connections
+    // alive and may send requests back to back.
+    //
+    //   POST   /login                             {"token","expiresIn"}; send "Authorization: Bearer <token>" after
+    //   POST   /logout                            ends the bearer token's session
+    //   GET    /locations                         {"locations":[...]}; the item and transaction endpoints act on Main
+    //                                             unless given ?location=<name>
+    //   GET    /items/{sku}                       the item, with the "version" of its details
+    //   POST   /items                             {"sku","name","category","quantity","price","reorderPoint"}
+    //   PUT    /items/{sku}                       same fields but "quantityDelta" instead of "quantity", plus the
+    //                                             "version" from GET; replaces the details only if nobody has changed
+    //                                             them since (409 otherwise), and 428 without a version
+    //   DELETE /items/{sku}                       admin only
+    //   POST   /items/{sku}/add | /remove         {"qty", "notes"}
+    //   GET    /transactions?sku=&user=&type=&from=&to=&before=&limit=
+    //                                             newest first; pass the returned "next" as before= for older ones
+    static class InventoryServer implements Closeable {
+        private static final int MAX_BODY = 64 * 1024;
+        private static final int MAX_PAGE = 1000;
+        private static final LatencyHistogram FIND = route("findBySku"), ADD_ITEM = route("addItem"), UPDATE_ITEM = route("updateItem"),
+                DELETE_ITEM = route("deleteItem"), ADD_STOCK = route("addStock"), REMOVE_STOCK = route("removeStock"),
+                TRANSACTIONS = route("transactions"), OTHER = route("other");
+        private static final LongAdder FAILURES = Metrics.REGISTRY.counter("inventory_http_failures_total", "",
+                "HTTP requests that failed with an unexpected exception.");
+
+        private static LatencyHistogram route(String name) {
+            return Metrics.REGISTRY.histogram("inventory_http_request_seconds", "route=\"" + name + "\"", "HTTP API request latency, from dispatch to the last response byte.");
+        }
+
+        private final Warehouses warehouses;
+        private final UserDirectory users;
+        private final HttpServer http;
+        final ExecutorService executor; // read by ServerBenchmark
+
+        InventoryServer(Warehouses warehouses, UserDirectory users, InetSocketAddress address) throws IOException {
+            this.warehouses = warehouses;
+            this.users = users;
+            this.executor = requestExecutor();
+            // Headers and body go out as separate writes; without TCP_NODELAY every keep-alive response stalls ~40ms on delayed ACKs.
+            if (System.getProperty("sun.net.httpserver.nodelay") == null) System.setProperty("sun.net.httpserver.nodelay", "true");
+            this.http = HttpServer.create(address, 256);
+            http.createContext("/", this::handle);
+            http.setExecutor(executor);
+        }
+
+        static void run(String[] args) throws IOException {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+            UserDirectory users = UserDirectory.open(dataDir().resolve("users.txt"));
+            if (users.isEmpty()) {
+                // Headless first start: there is nobody to prompt, so the admin password must be given up front.
+                String password = System.getProperty("inventory.adminPassword", "");
+                if (password.length() < 8) {
+                    System.err.println("No accounts in " + dataDir() + " yet: start once with -Dinventory.adminPassword=<at least 8 characters> to create the admin account.");
+                    System.exit(1);
+                }
+                users.createAdmin(password);
+                System.err.println("Created the admin account in " + dataDir().resolve("users.txt") + ".");
+            } else if (users.hasDemoPassword()) {
+                System.err.println("Refusing to serve: admin or staff still has its published demo password; change it under File > Manage Users first.");
+                System.exit(1);
+            }
+            Warehouses warehouses;
+            try {
+                warehouses = Warehouses.open(dataDir(), fsyncPolicy());
+            } catch (IOException ex) {
+                System.err.println("Cannot open inventory data in " + dataDir() + ": " + ex.getMessage());
+                System.exit(1);
+                return;
+            }
+            warehouses.registerMetrics(Metrics.REGISTRY);
+            String metricsFile = System.getProperty("inventory.metricsFile");
+            if (metricsFile != null) Metrics.dumpPeriodically(Paths.get(metricsFile), metricsDumpSeconds());
+            InventoryServer server = new InventoryServer(warehouses, users,
+                    new InetSocketAddress(System.getProperty("inventory.serverHost", "127.0.0.1"), port));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> { server.close(); warehouses.close(); }));
+            server.start();
+            System.out.println("Serving " + dataDir() + " on http://" + server.address().getHostString() + ":" + server.address().getPort() + "/");
+        }
+
+        // One virtual thread per request where the JDK has them (21+), looked up reflectively so the app still
+        // builds for Java 8; otherwise a cached pool of daemon threads.
+        static ExecutorService requestExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException ex) {
+                return Executors.newCachedThreadPool(r -> {
+                    Thread t = new Thread(r, "http");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+        }
+
+        void start() { http.start(); }
+        InetSocketAddress address() { return http.getAddress(); }
+
+        @Override public void close() {
+            http.stop(1);
+            executor.shutdown();
+        }
+
+        private void handle(HttpExchange ex) throws IOException {
+            long start = System.nanoTime();
+            LatencyHistogram timer = OTHER;
+            try {
+                byte[] body = readBody(ex);
+                if (body == null) { send(ex, 413, Json.error("Request body over " + MAX_BODY + " bytes")); return; }
+                User user = authenticate(ex);
+                if (user == null) {
+                    ex.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"inventory\", charset=\"UTF-8\"");
+                    send(ex, 401, Json.error("Authentication required"));
+                    return;
+                }
+                String method = ex.getRequestMethod();
+                String[] path = ex.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/+");
+                Map<String, String> q = query(ex.getRequestURI().getRawQuery());
+                String location = q.getOrDefault("location", InventoryModel.MAIN);
+                InventoryModel model = warehouses.at(location);
+                if (path[0].equals("login") && path.length == 1 && method.equals("POST")) {
+                    String token = users.openSession(user);
+                    send(ex, 200, "{\"token\":\"" + token + "\",\"expiresIn\":" + UserDirectory.sessionSeconds() + "}");
+                } else if (path[0].equals("logout") && path.length == 1 && method.equals("POST")) {
+                    String header = ex.getRequestHeaders().getFirst("Authorization");
+                    if (header.regionMatches(true, 0, "Bearer ", 0, 7)) users.closeSession(header.substring(7).trim());
+                    send(ex, 204, null);
+                } else if (path[0].equals("locations") && path.length == 1 && method.equals("GET")) {
+                    StringBuilder out = new StringBuilder("{\"locations\":[");
+                    java.util.List<String> names = warehouses.locations();
+                    for (int i = 0; i < names.size(); i++) {
+                        if (i > 0) out.append(',');
+                        Json.quote(out, names.get(i));
+                    }
+                    send(ex, 200, out.append("]}").toString());
+                } else if (model == null) {
+                    send(ex, 404, Json.error("Unknown location: " + location));
+                } else if (path[0].equals("items") && path.length == 1 && method.equals("POST")) {
+                    timer = ADD_ITEM;
+                    InventoryItem item = itemFrom(object(body), null);
+                    if (model.addItem(item, user.username)) send(ex, 201, Json.item(new StringBuilder(), item).toString());
+                    else send(ex, 409, Json.error("SKU already exists: " + item.sku));
+                } else if (path[0].equals("items") && path.length == 2) {
+                    String sku = path[1];
+                    switch (method) {
+                        case "GET":
+                            timer = FIND;
+                            sendItem(ex, model, 200, sku);
+                            break;
+                        case "PUT":
+                            timer = UPDATE_ITEM;
+                            Map<String, Object> req = object(body);
+                            // An unconditional replace would overwrite stock movements and edits made since the client read the item.
+                            if (req.get("version") == null) { send(ex, 428, Json.error("Send the \"version\" from GET /items/" + sku)); break; }
+                            if (req.containsKey("quantity")) throw new IllegalArgumentException("Send quantityDelta, not quantity, with a version");
+                            BatchResult result = model.updateItem(itemFrom(req, sku), versionField(req), intField(req, "quantityDelta", 0), user.username);
+                            if (result.ok) sendItem(ex, model, 200, sku);
+                            else send(ex, model.findBySku(sku) == null ? 404 : 409, Json.error(result.error));
+                            break;
+                        case "DELETE":
+                            timer = DELETE_ITEM;
+                            if (!user.canDeleteItems()) send(ex, 403, Json.error(User.DELETE_DENIED));
+                            else if (model.deleteItem(sku, user.username)) send(ex, 204, null);
+                            else send(ex, 404, Json.error("Unknown SKU: " + sku));
+                            break;
+                        default:
+                            send(ex, 405, Json.error("Method not allowed"));
+                    }
+                } else if (path[0].equals("items") && path.length == 3 && method.equals("POST") && (path[2].equals("add") || path[2].equals("remove"))) {
+                    boolean add = path[2].equals("add");
+                    timer = add ? ADD_STOCK : REMOVE_STOCK;
+                    Map<String, Object> req = object(body);
+                    int qty = intField(req, "qty", 0);
+                    if (qty <= 0) throw new IllegalArgumentException("qty must be a positive whole number");
+                    String notes = stringField(req, "notes");
+                    String sku = path[1];
+                    boolean ok = add ? model.addStock(sku, qty, user.username, notes) : model.removeStock(sku, qty, user.username, notes);
+                    if (ok) sendItem(ex, model, 200, sku);
+                    else if (model.findBySku(sku) == null) send(ex, 404, Json.error("Unknown SKU: " + sku));
+                    else send(ex, 409, Json.error("Not enough stock for " + sku));
+                } else if (path[0].equals("transactions") && path.length == 1 && method.equals("GET")) {
+                    timer = TRANSACTIONS;
+                    sendTransactions(ex, model, q);
+                } else {
+                    send(ex, 404, Json.error("No such endpoint"));
+                }
+            } catch (IllegalArgumentException | java.time.format.DateTimeParseException bad) {
+                sendError(ex, 400, bad.getMessage());
+            } catch (RuntimeException failure) {
+                FAILURES.increment();
+                System.err.println("HTTP " + ex.getRequestMethod() + " " + ex.getRequestURI().getPath() + " failed: " + failure);
+                sendError(ex, 500, "Internal error");
+            } finally {
+                ex.close();
+                timer.record(System.nanoTime() - start);
+            }
+        }
+
+        private User authenticate(HttpExchange ex) {
+            String header = ex.getRequestHeaders().getFirst("Authorization");
+            if (header != null && header.regionMatches(true, 0, "Bearer ", 0, 7)) return users.session(header.substring(7).trim());
+            if (header == null || !header.regionMatches(true, 0, "Basic ", 0, 6)) return null;
+            String decoded;
+            try {
+                decoded = new String(Base64.getDecoder().decode(header.substring(6).trim()), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException bad) {
+                return null;
+            }
+            int colon = decoded.indexOf(':');
+            return colon < 0 ? null : users.authenticate(decoded.substring(0, colon), decoded.substring(colon + 1));
+        }
+
+        private static void sendItem(HttpExchange ex, InventoryModel model, int status, String sku) throws IOException {
+            InventoryItem it = model.findBySku(sku);
+            if (it == null) send(ex, 404, Json.error("Unknown SKU: " + sku));
+            else send(ex, status, Json.item(new StringBuilder(), it).toString());
+        }
+
+        private static void sendTransactions(HttpExchange ex, InventoryModel model, Map<String, String> q) throws IOException {
+            TxnType type = q.containsKey("type") ? TxnType.valueOf(q.get("type").toUpperCase(Locale.ROOT)) : null;
+            TxnQuery query = new TxnQuery(q.containsKey("from") ? LocalDateTime.parse(q.get("from")) : null,
+                    q.containsKey("to") ? LocalDateTime.parse(q.get("to")) : null, q.get("sku"), q.get("user"), type);
+            long before = q.containsKey("before") ? Long.parseLong(q.get("before")) : Long.MAX_VALUE;
+            int limit = q.containsKey("limit") ? Integer.parseInt(q.get("limit")) : 100;
+            if (limit < 1 || limit > MAX_PAGE) throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE);
+            TxnPage page = model.queryTransactions(query, before, limit);
+            StringBuilder out = new StringBuilder("{\"transactions\":[");
+            for (int i = 0; i < page.rows.size(); i++) {
+                if (i > 0) out.append(',');
+                Json.txn(out, page.rows.get(i));
+            }
+            out.append("],\"next\":").append(page.next == 0 ? "null" : Long.toString(page.next)).append('}');
+            send(ex, 200, out.toString());
+        }
+
+        // Once the headers are out the status cannot change, so a failure after that only closes the exchange and
+        // the client sees the response cut short.
+        private static void sendError(HttpExchange ex, int status, String message) throws IOException {
+            if (ex.getResponseCode() == -1) send(ex, status, Json.error(message));
+        }
+
+        // Null body sends no content (204).
+        private static void send(HttpExchange ex, int status, String body) throws IOException {
+            if (body == null) {
+                ex.sendResponseHeaders(status, -1);
+                return;
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            ex.sendResponseHeaders(status, bytes.length);
+            try (java.io.OutputStream out = ex.getResponseBody()) { out.write(bytes); }
+        }
+
+        // The whole body, or null if it is larger than MAX_BODY. Reading it to the end lets the connection be reused.
+        private static byte[] readBody(HttpExchange ex) throws IOException {
+            java.io.ByteArrayOutputStream buf = new java.io.ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            try (java.io.InputStream in = ex.getRequestBody()) {
+                for (int n; (n = in.read(chunk)) > 0; ) {
+                    if (buf.size() + n > MAX_BODY) return null;
+                    buf.write(chunk, 0, n);
+                }
+            }
+            return buf.toByteArray();
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Map<String, Object> object(byte[] body) {
+            Object v = Json.parse(new String(body, StandardCharsets.UTF_8));
+            if (!(v instanceof Map)) throw new IllegalArgumentException("Expected a JSON object");
+            return (Map<String, Object>) v;
+        }
+
+        // The SKU comes from the path for updates and must then match the body, if the body names one.
+        private static InventoryItem itemFrom(Map<String, Object> req, String pathSku) {
+            String sku = stringField(req, "sku");
+            if (pathSku != null) {
+                if (sku != null && !sku.equals(pathSku)) throw new IllegalArgumentException("Body SKU does not match the URL");
+                sku = pathSku;
+            }
+            String name = stringField(req, "name");
+            if (sku == null || sku.trim().isEmpty() || name == null || name.trim().isEmpty()) throw new IllegalArgumentException("sku and name are required");
+            int quantity = intField(req, "quantity", 0);
+            Object price = req.get("price");
+            if (price != null && !(price instanceof Double)) throw new IllegalArgumentException("price must be a number");
+            double p = price == null ? 0 : (Double) price;
+            int reorderPoint = intField(req, "reorderPoint", 0);
+            if (quantity < 0 || p < 0 || reorderPoint < 0 || Double.isNaN(p) || Double.isInfinite(p)) throw new IllegalArgumentException("quantity, price and reorderPoint cannot be negative");
+            return new InventoryItem(sku.trim(), name.trim(), stringField(req, "category"), quantity, p, reorderPoint);
+        }
+
+        private static String stringField(Map<String, Object> req, String name) {
+            Object v = req.get(name);
+            if (v != null && !(v instanceof String)) throw new IllegalArgumentException(name + " must be a string");
+            return (String) v;
+        }
+
+        private static int intField(Map<String, Object> req, String name, int absent) {
+            Object v = req.get(name);
+            if (v == null) return absent;
+            if (!(v instanceof Double) || (Double) v != Math.rint((Double) v) || Math.abs((Double) v) > Integer.MAX_VALUE)
+                throw new IllegalArgumentException(name + " must be a whole number");
+            return ((Double) v).intValue();
+        }
+
+        private static long versionField(Map<String, Object> req) {
+            Object v = req.get("version");
+            if (!(v instanceof Double) || (Double) v != Math.rint((Double) v) || (Double) v < 0) throw new IllegalArgumentException("version must be a whole number");
+            return ((Double) v).longValue();
+        }
+
+        private static Map<String, String> query(String raw) {
+            Map<String, String> out = new HashMap<>();
+            if (raw == null) return out;
+            for (String pair : raw.split("&")) {
+                if (pair.isEmpty()) continue;
+                int eq = pair.indexOf('=');
+                try {
+                    String key = java.net.URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+                    String value = eq < 0 ? "" : java.net.URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+                    if (!value.isEmpty()) out.put(key, value);
+                } catch (java.io.UnsupportedEncodingException impossible) {
+                    throw new IllegalStateException(impossible);
+                }
+            }
+            return out;
+        }
     }
 }
 
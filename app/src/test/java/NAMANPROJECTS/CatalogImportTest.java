@@ -0,0 +1,82 @@
+package NAMANPROJECTS;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CatalogImportTest {
+    @TempDir Path dir;
+
+    // Filler rows up to just short of the first block boundary, then one record whose quoted name holds a newline
+    // newlineAt bytes from the boundary, so the boundary falls inside the quotes; then a last row.
+    private static StringBuilder straddling(int newlineAt) {
+        StringBuilder csv = new StringBuilder("SKU,Name,Category,Qty,Price\n");
+        for (int i = 0; csv.length() < InventoryApp.CatalogImport.BLOCK - 200; i++) csv.append("F-").append(i).append(",Filler ").append(i).append(",Cat,1,1.00\n");
+        csv.append("Q-1,\"first half");
+        while (csv.length() < InventoryApp.CatalogImport.BLOCK + newlineAt) csv.append('x');
+        csv.append('\n').append("second half");
+        while (csv.length() < InventoryApp.CatalogImport.BLOCK + 100) csv.append('y');
+        return csv.append("\",Cat,5,2.00\n");
+    }
+
+    private java.util.List<InventoryApp.InventoryItem> read(CharSequence csv) throws IOException {
+        Path file = dir.resolve("catalog.csv");
+        Files.write(file, csv.toString().getBytes(StandardCharsets.UTF_8));
+        return InventoryApp.CatalogImport.read(file, new InventoryApp.ReportProgress());
+    }
+
+    private static long lines(CharSequence s) { return s.chars().filter(c -> c == '\n').count(); }
+
+    @Test
+    void quotedNewlineBeforeTheBoundaryStaysInItsField() throws IOException {
+        checkStraddling(-10);
+    }
+
+    @Test
+    void quotedNewlineAfterTheBoundaryStaysInItsField() throws IOException {
+        checkStraddling(10);
+    }
+
+    private void checkStraddling(int newlineAt) throws IOException {
+        StringBuilder csv = straddling(newlineAt).append("Z-1,Last,Cat,1,1.00\n");
+        java.util.List<InventoryApp.InventoryItem> items = read(csv);
+        assertEquals(lines(csv) - 2, items.size()); // less the header and the record's second line
+        InventoryApp.InventoryItem split = items.get(items.size() - 2);
+        assertEquals("Q-1", split.sku);
+        assertTrue(split.name.startsWith("first half") && split.name.endsWith("y"));
+        assertEquals(1, lines(split.name));
+        assertEquals(5, split.quantity);
+        assertEquals("Z-1", items.get(items.size() - 1).sku);
+    }
+
+    @Test
+    void lineNumbersCountNewlinesInsideQuotes() {
+        StringBuilder csv = straddling(-10);
+        long badLine = lines(csv) + 1;
+        csv.append("Z-1,Last,Cat,lots,1.00\n");
+        IOException ex = assertThrows(IOException.class, () -> read(csv));
+        assertTrue(ex.getMessage().startsWith("Line " + badLine + ":"), ex.getMessage());
+    }
+
+    @Test
+    void repeatedSkuFailsTheWholeFile() {
+        IOException ex = assertThrows(IOException.class, () -> read("SKU,Name\nA-1,One\nA-2,Two\nA-1,Again\n"));
+        assertTrue(ex.getMessage().startsWith("Line 4:"), ex.getMessage());
+    }
+
+    @Test
+    void columnsAreFoundByName() throws IOException {
+        java.util.List<InventoryApp.InventoryItem> items = read("Price,Extra,name,SKU\r\n9.50,ignored,\"Boxed, \"\"large\"\"\",C-1\r\n");
+        assertEquals(1, items.size());
+        assertEquals("C-1", items.get(0).sku);
+        assertEquals("Boxed, \"large\"", items.get(0).name);
+        assertEquals(9.5, items.get(0).price);
+        assertEquals(0, items.get(0).quantity);
+    }
+}
@@ -0,0 +1,95 @@
+package NAMANPROJECTS;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InventoryIndexTest {
+    private InventoryApp.InventoryModel model;
+
+    @BeforeEach
+    void catalog() {
+        model = new InventoryApp.InventoryModel("Test"); // no demo data
+        model.addItem(new InventoryApp.InventoryItem("SKU-1001", "USB-C Cable 1m", "Accessories", 120, 199.00, 40), "test");
+        model.addItem(new InventoryApp.InventoryItem("SKU-1002", "Wireless Mouse", "Peripherals", 45, 899.00, 15), "test");
+        model.addItem(new InventoryApp.InventoryItem("SKU-1003", "Mechanical Keyboard", "Peripherals", 22, 3499.00, 25), "test");
+        model.addItem(new InventoryApp.InventoryItem("KB-7", "Keyboard Mouse Combo", "Bundles", 0, 1299.00, 5), "test");
+        assertTrue(model.isIndexed());
+    }
+
+    // The SKUs found, sorted.
+    private java.util.List<String> find(String query) {
+        return model.search(query, 100).stream().map(it -> it.sku).sorted().collect(Collectors.toList());
+    }
+
+    private static java.util.List<String> skus(String... skus) { return Arrays.asList(skus); }
+
+    @Test
+    void textMatchesAnywhereInTheName() {
+        assertEquals(skus("KB-7", "SKU-1002"), find("ouse"));
+        assertEquals(skus("KB-7", "SKU-1002"), find("MOUSE"));
+        assertEquals(skus("SKU-1003"), find("chanical"));
+        assertEquals(skus("SKU-1002"), find("less mou"));
+        assertEquals(skus("KB-7"), find("board mouse co"));
+        assertEquals(skus("SKU-1001"), find("b-c cab"));
+        assertEquals(Collections.emptyList(), find("less mouse x"));
+        assertEquals(Collections.emptyList(), find("mousse"));
+    }
+
+    @Test
+    void textStartsTheSku() {
+        assertEquals(skus("SKU-1001", "SKU-1002", "SKU-1003"), find("sku-100"));
+        assertEquals(skus("KB-7"), find("kb-"));
+    }
+
+    @Test
+    void termsAreAnded() {
+        assertEquals(skus("SKU-1002"), find("ouse cat:peripherals"));
+        assertEquals(skus("KB-7"), find("keyboard qty<1"));
+        assertEquals(skus("SKU-1003"), find("cat:Peripherals qty<45"));
+        assertEquals(skus("SKU-1002", "SKU-1003"), find("cat:peripherals qty>=22 qty<=45"));
+        assertEquals(skus("SKU-1002"), find("qty=45"));
+        assertEquals(skus("SKU-1001"), find("qty>45"));
+        assertEquals(Collections.emptyList(), find("qty>45 qty<45"));
+    }
+
+    @Test
+    void malformedQuantityIsTextNotZero() {
+        model.addItem(new InventoryApp.InventoryItem("Z-1", "Empty shelf", "Bundles", 0, 1.0), "test");
+        assertEquals(Collections.emptyList(), find("qty=abc"));
+        assertEquals(Collections.emptyList(), find("qty<1x"));
+        assertEquals(Collections.emptyList(), find("qty>"));
+        assertEquals(skus("KB-7", "Z-1"), find("qty=0"));
+        assertEquals(skus("KB-7", "Z-1"), find("qty=+0"));
+    }
+
+    @Test
+    void boundsPastIntDoNotWrap() {
+        java.util.List<String> all = skus("KB-7", "SKU-1001", "SKU-1002", "SKU-1003");
+        assertEquals(Collections.emptyList(), find("qty<-2147483648"));
+        assertEquals(Collections.emptyList(), find("qty>2147483647"));
+        assertEquals(Collections.emptyList(), find("qty<-99999999999999999999"));
+        assertEquals(all, find("qty<=2147483647"));
+        assertEquals(all, find("qty>-2147483649"));
+        assertEquals(all, find("qty<99999999999999999999"));
+        assertEquals(all, find("qty>=-99999999999999999999"));
+    }
+
+    @Test
+    void renamesAndDeletesLeaveTheIndex() {
+        InventoryApp.InventoryItem mouse = model.findBySku("SKU-1002");
+        assertTrue(model.updateItem(new InventoryApp.InventoryItem("SKU-1002", "Wireless Trackball", "Peripherals", 0, 899.00, 15), mouse.version, 0, "test").ok);
+        assertEquals(skus("KB-7"), find("ouse"));
+        assertEquals(skus("SKU-1002"), find("ackba"));
+        assertEquals(skus("SKU-1002"), find("less"));
+        assertTrue(model.deleteItem("SKU-1002", "test"));
+        assertEquals(Collections.emptyList(), find("less"));
+        assertEquals(Collections.emptyList(), find("ackba"));
+        assertEquals(skus("KB-7"), find("ouse"));
+    }
+}
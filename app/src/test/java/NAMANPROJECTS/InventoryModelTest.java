@@ -0,0 +1,189 @@
+package NAMANPROJECTS;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InventoryModelTest {
+    @TempDir Path dir;
+
+    // Every item's details and quantity, in SKU order, for comparing two models.
+    private static String state(InventoryApp.InventoryModel model) {
+        StringBuilder out = new StringBuilder();
+        model.getAllItems().stream().sorted((a, b) -> a.sku.compareTo(b.sku)).forEach(it -> out
+                .append(it.sku).append('|').append(it.name).append('|').append(it.category).append('|')
+                .append(it.quantity).append('|').append(it.price).append('|').append(it.reorderPoint).append('\n'));
+        return out.toString();
+    }
+
+    private static void mutate(InventoryApp.InventoryModel model, int from, int to) {
+        for (int i = from; i < to; i++) {
+            String sku = "T-" + (i % 50);
+            if (model.findBySku(sku) == null) model.addItem(new InventoryApp.InventoryItem(sku, "Test " + i, "Cat " + (i % 3), 100, 2.5, 10), "test");
+            else if (i % 3 == 0) model.removeStock(sku, 1, "test", "out");
+            else model.addStock(sku, 2, "test", "in");
+        }
+    }
+
+    private static Path newestSegment(Path data) throws IOException {
+        java.util.List<Path> segments = InventoryApp.TxnJournal.segments(data.resolve("journal"));
+        return segments.get(segments.size() - 1);
+    }
+
+    @Test
+    void reopenReplaysTheJournal() throws IOException {
+        InventoryApp.InventoryModel model = InventoryApp.InventoryModel.open(dir, InventoryApp.TxnJournal.FsyncPolicy.ALWAYS);
+        mutate(model, 0, 1_000);
+        String before = state(model);
+        int txns = model.transactionCount();
+        model.close();
+
+        InventoryApp.InventoryModel reopened = InventoryApp.InventoryModel.open(dir, InventoryApp.TxnJournal.FsyncPolicy.ALWAYS);
+        assertEquals(before, state(reopened));
+        assertEquals(txns, reopened.transactionCount());
+        reopened.close();
+    }
+
+    @Test
+    void tornTailIsTruncatedAndTheRestReplayed() throws IOException {
+        InventoryApp.InventoryModel model = InventoryApp.InventoryModel.open(dir, InventoryApp.TxnJournal.FsyncPolicy.ALWAYS);
+        mutate(model, 0, 200);
+        String before = state(model);
+        model.close();
+        Path segment = newestSegment(dir);
+        long intact = Files.size(segment);
+        byte[] bytes = Files.readAllBytes(segment);
+        // A crash mid-write: the start of one more frame, copied from the last one, and nothing after it.
+        Files.write(segment, Arrays.copyOfRange(bytes, bytes.length - 40, bytes.length - 20), StandardOpenOption.APPEND);
+
+        InventoryApp.InventoryModel reopened = InventoryApp.InventoryModel.open(dir, InventoryApp.TxnJournal.FsyncPolicy.ALWAYS);
+        assertEquals(before, state(reopened));
+        assertEquals(intact, Files.size(segment));
+        assertTrue(reopened.addStock("T-1", 5, "test", "after the crash"));
+        String after = state(reopened);
+        reopened.close();
+
+        InventoryApp.InventoryModel again = InventoryApp.InventoryModel.open(dir, InventoryApp.TxnJournal.FsyncPolicy.ALWAYS);
+        assertEquals(after, state(again));
+        again.close();
+    }
+
+    @Test
+    void snapshotPlusTailEqualsFullReplay() throws IOException {
+        Path snapshotted = dir.resolve("snapshotted"), replayed = dir.resolve("replayed");
+        InventoryApp.InventoryModel a = InventoryApp.InventoryModel.open(snapshotted, InventoryApp.TxnJournal.FsyncPolicy.BATCH);
+        InventoryApp.InventoryModel b = InventoryApp.InventoryModel.open(replayed, InventoryApp.TxnJournal.FsyncPolicy.BATCH);
+        mutate(a, 0, 3_000);
+        mutate(b, 0, 3_000);
+        a.snapshotNow();
+        mutate(a, 3_000, 4_000);
+        mutate(b, 3_000, 4_000);
+        String live = state(a);
+        a.close();
+        b.close();
+        try (java.util.stream.Stream<Path> files = Files.list(snapshotted)) {
+            assertTrue(files.anyMatch(f -> f.getFileName().toString().endsWith(".snap")));
+        }
+
+        InventoryApp.InventoryModel fromSnapshot = InventoryApp.InventoryModel.open(snapshotted, InventoryApp.TxnJournal.FsyncPolicy.BATCH);
+        InventoryApp.InventoryModel fromJournal = InventoryApp.InventoryModel.open(replayed, InventoryApp.TxnJournal.FsyncPolicy.BATCH);
+        assertEquals(live, state(fromSnapshot));
+        assertEquals(state(fromJournal), state(fromSnapshot));
+        fromSnapshot.close();
+        fromJournal.close();
+    }
+
+    @Test
+    void aDirectoryIsOpenedOnceAtATime() throws IOException {
+        InventoryApp.InventoryModel model = InventoryApp.InventoryModel.open(dir, InventoryApp.TxnJournal.FsyncPolicy.BATCH);
+        IOException ex = assertThrows(IOException.class, () -> InventoryApp.InventoryModel.open(dir, InventoryApp.TxnJournal.FsyncPolicy.BATCH));
+        assertTrue(ex.getMessage().contains("already open"), ex.getMessage());
+        assertThrows(IOException.class, () -> InventoryApp.Warehouses.open(dir, InventoryApp.TxnJournal.FsyncPolicy.BATCH));
+        model.close();
+
+        InventoryApp.InventoryModel reopened = InventoryApp.InventoryModel.open(dir, InventoryApp.TxnJournal.FsyncPolicy.BATCH);
+        reopened.close();
+    }
+
+    @Test
+    void editFromAStaleVersionIsRejected() {
+        InventoryApp.InventoryModel model = new InventoryApp.InventoryModel();
+        model.addItem(new InventoryApp.InventoryItem("V-1", "Original", "Cat", 10, 1.0), "test");
+        long read = model.findBySku("V-1").version;
+
+        assertTrue(model.updateItem(new InventoryApp.InventoryItem("V-1", "First edit", "Cat", 0, 2.0), read, 0, "alice").ok);
+        int txns = model.transactionCount();
+        InventoryApp.BatchResult second = model.updateItem(new InventoryApp.InventoryItem("V-1", "Second edit", "Cat", 0, 3.0), read, 0, "bob");
+        assertFalse(second.ok);
+        assertNotNull(second.error);
+        assertEquals("First edit", model.findBySku("V-1").name);
+        assertEquals(2.0, model.findBySku("V-1").price);
+        assertEquals(txns, model.transactionCount());
+
+        long current = model.findBySku("V-1").version;
+        assertNotEquals(read, current);
+        assertTrue(model.updateItem(new InventoryApp.InventoryItem("V-1", "Second edit", "Cat", 0, 3.0), current, 0, "bob").ok);
+        assertEquals("Second edit", model.findBySku("V-1").name);
+        assertFalse(model.updateItem(new InventoryApp.InventoryItem("NO-SUCH-SKU", "x", "Cat", 0, 1.0), 0, 0, "bob").ok);
+        model.close();
+    }
+
+    @Test
+    void editMovesStockByItsDeltaFromTheCurrentQuantity() {
+        InventoryApp.InventoryModel model = new InventoryApp.InventoryModel();
+        model.addItem(new InventoryApp.InventoryItem("V-1", "Original", "Cat", 10, 1.0), "test");
+        long read = model.findBySku("V-1").version;
+
+        assertTrue(model.addStock("V-1", 5, "clerk", "received while the edit was open"));
+        assertEquals(read, model.findBySku("V-1").version); // stock movements do not conflict with edits
+        assertTrue(model.updateItem(new InventoryApp.InventoryItem("V-1", "Renamed", "Cat", 999, 1.0), read, -3, "alice").ok);
+        InventoryApp.InventoryItem edited = model.findBySku("V-1");
+        assertEquals(12, edited.quantity); // 10 + 5 - 3; the quantity in the details is ignored
+        assertEquals("Renamed", edited.name);
+
+        InventoryApp.BatchResult tooMuch = model.updateItem(new InventoryApp.InventoryItem("V-1", "Again", "Cat", 0, 1.0), edited.version, -13, "alice");
+        assertFalse(tooMuch.ok);
+        assertEquals(12, model.findBySku("V-1").quantity);
+        assertEquals("Renamed", model.findBySku("V-1").name);
+        model.close();
+    }
+
+    @Test
+    void applyBatchIsAllOrNothing() {
+        InventoryApp.InventoryModel model = new InventoryApp.InventoryModel();
+        model.addItem(new InventoryApp.InventoryItem("B-1", "One", "Cat", 10, 1.0), "test");
+        model.addItem(new InventoryApp.InventoryItem("B-2", "Two", "Cat", 3, 1.0), "test");
+        String before = state(model);
+        int txns = model.transactionCount();
+
+        java.util.List<InventoryApp.StockLine> lines = new ArrayList<>();
+        lines.add(new InventoryApp.StockLine("B-1", 5, "in"));
+        lines.add(new InventoryApp.StockLine("B-2", -4, "more than there is"));
+        InventoryApp.BatchResult rejected = model.applyBatch(lines, "test");
+        assertFalse(rejected.ok);
+        assertNotNull(rejected.error);
+        assertEquals(before, state(model));
+        assertEquals(txns, model.transactionCount());
+
+        lines.set(1, new InventoryApp.StockLine("NO-SUCH-SKU", 1, "unknown"));
+        assertFalse(model.applyBatch(lines, "test").ok);
+        assertEquals(before, state(model));
+
+        lines.set(1, new InventoryApp.StockLine("B-2", -3, "all of it"));
+        InventoryApp.BatchResult applied = model.applyBatch(lines, "test");
+        assertTrue(applied.ok);
+        assertEquals(2, applied.lines);
+        assertEquals(15, model.findBySku("B-1").quantity);
+        assertEquals(0, model.findBySku("B-2").quantity);
+        assertEquals(txns + 2, model.transactionCount());
+        model.close();
+    }
+}
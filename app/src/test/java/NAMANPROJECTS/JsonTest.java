@@ -0,0 +1,55 @@
+package NAMANPROJECTS;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonTest {
+    private static Object parse(String text) { return InventoryApp.Json.parse(text); }
+
+    @Test
+    void scalars() {
+        assertEquals(Boolean.TRUE, parse("true"));
+        assertEquals(Boolean.FALSE, parse(" false "));
+        assertNull(parse("null"));
+        assertEquals(-12.5, parse("-12.5"));
+        assertEquals(1e3, parse("1E3"));
+        assertEquals("", parse("\"\""));
+    }
+
+    @Test
+    void escapes() {
+        assertEquals("a\"b\\c/d\b\f\n\r\t", parse("\"a\\\"b\\\\c\\/d\\b\\f\\n\\r\\t\""));
+        assertEquals("\u00e9\u20ac", parse("\"\\u00e9\\u20AC\""));
+        assertEquals("\ud83d\ude00", parse("\"\\ud83d\\ude00\"")); // a surrogate pair stays a pair
+    }
+
+    @Test
+    void nesting() {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> m = (Map<String, Object>) parse("{ \"a\" : [1, {\"b\":[]}, \"x\"], \"c\":{} ,\"a\":2}");
+        assertEquals(Arrays.asList("a", "c"), Arrays.asList(m.keySet().toArray()));
+        assertEquals(2.0, m.get("a")); // a repeated key keeps the last value
+        assertEquals(Collections.emptyMap(), m.get("c"));
+        assertEquals(Arrays.asList(1.0, Collections.singletonMap("b", Collections.emptyList()), "x"),
+                ((Map<?, ?>) parse("{\"a\":[1,{\"b\":[]},\"x\"]}")).get("a"));
+    }
+
+    @Test
+    void quoteRoundTrips() {
+        String s = "tab\there \"quoted\" back\\slash \u0001 line\nend";
+        assertEquals(s, parse(InventoryApp.Json.quote(new StringBuilder(), s).toString()));
+    }
+
+    @Test
+    void malformedInputIsRejected() {
+        for (String bad : new String[] {"", "   ", "{", "[1,", "[1 2]", "{\"a\" 1}", "{a:1}", "{\"a\":1,}", "\"open",
+                "\"bad \\x escape\"", "\"\\u12\"", "\"\\u12zz\"", "tru", "nul", "1.2.3", "--1", "{} {}", "[]]", "@"}) {
+            assertThrows(IllegalArgumentException.class, () -> parse(bad), bad);
+        }
+    }
+}
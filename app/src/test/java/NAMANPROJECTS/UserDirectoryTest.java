@@ -0,0 +1,131 @@
+package NAMANPROJECTS;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserDirectoryTest {
+    private static final int COST = 1_000; // cheap enough for a test, still a real PBKDF2 run
+
+    @TempDir Path dir;
+
+    // Runs an administrative change the next time it hashes a password, as if it landed while a login was hashing.
+    private static final class Racing extends InventoryApp.UserDirectory {
+        Runnable duringNextHash;
+
+        Racing() { super(null, COST); }
+
+        @Override
+        byte[] hash(String password, byte[] salt, int iterations) {
+            Runnable r = duringNextHash;
+            duringNextHash = null;
+            if (r != null) r.run();
+            return super.hash(password, salt, iterations);
+        }
+    }
+
+    private static InventoryApp.UserDirectory withStaff() throws IOException {
+        InventoryApp.UserDirectory users = new InventoryApp.UserDirectory(null, COST);
+        assertTrue(users.createAdmin("admin-secret"));
+        assertTrue(users.addUser("staff", "Staff Member", false, "staff-secret"));
+        return users;
+    }
+
+    @Test
+    void wrongPasswordIsRejected() throws IOException {
+        InventoryApp.UserDirectory users = withStaff();
+        assertNull(users.authenticate("staff", "staff-secreT"));
+        assertNull(users.authenticate("staff", ""));
+        assertNull(users.authenticate("staff", null));
+        assertEquals("staff", users.authenticate("staff", "staff-secret").username);
+        assertNull(users.authenticate("staff", "admin-secret")); // after a good login, so the cache is in play
+    }
+
+    @Test
+    void unknownUserIsRejected() throws IOException {
+        InventoryApp.UserDirectory users = withStaff();
+        assertNull(users.authenticate("nobody", "staff-secret"));
+        assertNull(users.authenticate(null, "staff-secret"));
+        assertTrue(users.removeUser("staff"));
+        assertNull(users.authenticate("staff", "staff-secret"));
+    }
+
+    @Test
+    void loginRehashesAtTheCurrentCost() throws IOException {
+        Path file = dir.resolve("users.tsv");
+        assertTrue(InventoryApp.UserDirectory.open(file, COST).createAdmin("admin-secret"));
+        assertEquals(COST, iterations(file, "admin"));
+
+        InventoryApp.UserDirectory stronger = InventoryApp.UserDirectory.open(file, 2 * COST);
+        assertNull(stronger.authenticate("admin", "wrong"));
+        assertEquals(COST, iterations(file, "admin")); // a failed login changes nothing
+        assertTrue(stronger.authenticate("admin", "admin-secret").isAdmin);
+        assertEquals(2 * COST, iterations(file, "admin"));
+
+        InventoryApp.UserDirectory reopened = InventoryApp.UserDirectory.open(file, 2 * COST);
+        assertNotNull(reopened.authenticate("admin", "admin-secret"));
+        assertNull(reopened.authenticate("admin", "wrong"));
+    }
+
+    private static int iterations(Path file, String username) throws IOException {
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] f = line.split("\t", -1);
+            if (f[0].equals(username)) return Integer.parseInt(f[3]);
+        }
+        throw new AssertionError(username + " is not in " + file);
+    }
+
+    @Test
+    void passwordChangedWhileHashingIsNotAccepted() throws IOException {
+        Racing users = new Racing();
+        assertTrue(users.createAdmin("admin-secret"));
+        assertTrue(users.addUser("staff", "Staff Member", false, "old-secret"));
+        users.duringNextHash = () -> {
+            try {
+                assertTrue(users.setPassword("staff", "new-secret"));
+            } catch (IOException ex) {
+                throw new AssertionError(ex);
+            }
+        };
+        assertNull(users.authenticate("staff", "old-secret"));
+        assertNull(users.authenticate("staff", "old-secret")); // and nothing was cached for it
+        assertEquals("staff", users.authenticate("staff", "new-secret").username);
+    }
+
+    @Test
+    void userRemovedWhileHashingIsNotAccepted() throws IOException {
+        Racing users = new Racing();
+        assertTrue(users.createAdmin("admin-secret"));
+        assertTrue(users.addUser("staff", "Staff Member", false, "staff-secret"));
+        users.duringNextHash = () -> {
+            try {
+                assertTrue(users.removeUser("staff"));
+            } catch (IOException ex) {
+                throw new AssertionError(ex);
+            }
+        };
+        assertNull(users.authenticate("staff", "staff-secret"));
+        assertNull(users.authenticate("staff", "staff-secret"));
+    }
+
+    @Test
+    void rightsChangedWhileHashingAreThoseReturned() throws IOException {
+        Racing users = new Racing();
+        assertTrue(users.createAdmin("admin-secret"));
+        assertTrue(users.addUser("staff", "Staff Member", false, "staff-secret"));
+        users.duringNextHash = () -> {
+            try {
+                assertTrue(users.setAdmin("staff", true));
+            } catch (IOException ex) {
+                throw new AssertionError(ex);
+            }
+        };
+        assertTrue(users.authenticate("staff", "staff-secret").isAdmin);
+    }
+}
@@ -0,0 +1,120 @@
+package NAMANPROJECTS;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WarehousesTest {
+    private static final String SKU = "SKU-1001"; // demo stock at Main
+
+    @TempDir Path dir;
+
+    private InventoryApp.Warehouses open() throws IOException {
+        return InventoryApp.Warehouses.open(dir, InventoryApp.TxnJournal.FsyncPolicy.BATCH);
+    }
+
+    private Path journal(String location) {
+        return (location.equals(InventoryApp.InventoryModel.MAIN) ? dir : dir.resolve("locations").resolve(location)).resolve("journal");
+    }
+
+    // Main with its demo catalog and an empty North, both with something journaled.
+    private void twoLocations() throws IOException {
+        InventoryApp.Warehouses w = open();
+        assertNotNull(w.addLocation("North"));
+        assertTrue(w.at("North").addItem(new InventoryApp.InventoryItem("N-1", "North only", "Cat", 1, 1.0), "test"));
+        w.close();
+    }
+
+    // Transfers qty of SKU from Main to North, then cuts the half lost's journal back to where it was before, as a
+    // crash between the two journals' writes would.
+    private void transferAndLoseHalf(int qty, String lost) throws IOException {
+        java.util.List<Path> before = InventoryApp.TxnJournal.segments(journal(lost));
+        Path newest = before.get(before.size() - 1);
+        long intact = Files.size(newest);
+
+        InventoryApp.Warehouses w = open();
+        assertTrue(w.transfer(SKU, qty, InventoryApp.InventoryModel.MAIN, "North", "test", "to North").ok);
+        w.close();
+
+        for (Path segment : InventoryApp.TxnJournal.segments(journal(lost))) if (!before.contains(segment)) Files.delete(segment);
+        assertTrue(Files.size(newest) > intact);
+        try (FileChannel ch = FileChannel.open(newest, StandardOpenOption.WRITE)) { ch.truncate(intact); }
+    }
+
+    @Test
+    void transferWithBothHalvesIsLeftAlone() throws IOException {
+        twoLocations();
+        InventoryApp.Warehouses w = open();
+        int stock = w.at(InventoryApp.InventoryModel.MAIN).findBySku(SKU).quantity;
+        assertTrue(w.transfer(SKU, 5, InventoryApp.InventoryModel.MAIN, "North", "test", null).ok);
+        int mainTxns = w.at(InventoryApp.InventoryModel.MAIN).transactionCount(), northTxns = w.at("North").transactionCount();
+        w.close();
+
+        w = open();
+        assertEquals(stock - 5, w.at(InventoryApp.InventoryModel.MAIN).findBySku(SKU).quantity);
+        assertEquals(5, w.at("North").findBySku(SKU).quantity);
+        assertEquals(mainTxns, w.at(InventoryApp.InventoryModel.MAIN).transactionCount());
+        assertEquals(northTxns, w.at("North").transactionCount());
+        w.close();
+    }
+
+    @Test
+    void lostInHalfIsReversedAtTheSourceOnce() throws IOException {
+        twoLocations();
+        InventoryApp.Warehouses w = open();
+        int stock = w.at(InventoryApp.InventoryModel.MAIN).findBySku(SKU).quantity;
+        int northTxns = w.at("North").transactionCount();
+        w.close();
+        transferAndLoseHalf(5, "North");
+
+        w = open();
+        InventoryApp.InventoryModel main = w.at(InventoryApp.InventoryModel.MAIN);
+        assertEquals(stock, main.findBySku(SKU).quantity);
+        assertNull(w.at("North").findBySku(SKU));
+        assertEquals(northTxns, w.at("North").transactionCount());
+        InventoryApp.TransactionRec reversal = main.transactionAt(main.transactionCount() - 1);
+        assertEquals(InventoryApp.TxnType.ADD_STOCK, reversal.type);
+        assertEquals(5, reversal.qtyDelta);
+        int mainTxns = main.transactionCount();
+        w.close();
+
+        w = open();
+        assertEquals(stock, w.at(InventoryApp.InventoryModel.MAIN).findBySku(SKU).quantity);
+        assertEquals(mainTxns, w.at(InventoryApp.InventoryModel.MAIN).transactionCount());
+        w.close();
+    }
+
+    @Test
+    void lostOutHalfIsReversedAtTheDestinationOnce() throws IOException {
+        twoLocations();
+        InventoryApp.Warehouses w = open();
+        int stock = w.at(InventoryApp.InventoryModel.MAIN).findBySku(SKU).quantity;
+        int mainTxns = w.at(InventoryApp.InventoryModel.MAIN).transactionCount();
+        w.close();
+        transferAndLoseHalf(5, InventoryApp.InventoryModel.MAIN);
+
+        w = open();
+        InventoryApp.InventoryModel north = w.at("North");
+        assertEquals(stock, w.at(InventoryApp.InventoryModel.MAIN).findBySku(SKU).quantity);
+        assertEquals(mainTxns, w.at(InventoryApp.InventoryModel.MAIN).transactionCount());
+        assertEquals(0, north.findBySku(SKU).quantity);
+        InventoryApp.TransactionRec reversal = north.transactionAt(north.transactionCount() - 1);
+        assertEquals(InventoryApp.TxnType.REMOVE_STOCK, reversal.type);
+        assertEquals(-5, reversal.qtyDelta);
+        int northTxns = north.transactionCount();
+        w.close();
+
+        w = open();
+        assertEquals(0, w.at("North").findBySku(SKU).quantity);
+        assertEquals(northTxns, w.at("North").transactionCount());
+        assertEquals(stock, w.at(InventoryApp.InventoryModel.MAIN).findBySku(SKU).quantity);
+        w.close();
+    }
+}
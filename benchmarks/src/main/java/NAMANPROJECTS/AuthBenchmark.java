@@ -0,0 +1,58 @@
+package NAMANPROJECTS;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+// java -cp benchmarks/target/benchmarks.jar NAMANPROJECTS.AuthBenchmark [sessions]
+// What a login costs at a few PBKDF2 iteration counts, and what a repeat check costs once credentials are cached
+// or a token was issued, with 1 to [sessions] sessions live: the hash cost grows with the setting, the cached
+// check does not grow with anything.
+public class AuthBenchmark {
+    static volatile Object sink; // keeps the lookup loops from being optimized away
+
+    public static void main(String[] args) {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        System.out.printf("Auth benchmark: up to %,d live sessions, default cost %,d iterations%n", sessions, InventoryApp.UserDirectory.ITERATIONS);
+        for (int iterations : new int[] {100_000, 310_000, InventoryApp.UserDirectory.ITERATIONS}) {
+            InventoryApp.UserDirectory users = new InventoryApp.UserDirectory(null, iterations);
+            InventoryApp.LatencyHistogram login = new InventoryApp.LatencyHistogram();
+            for (int i = 0; i < 6; i++) { // a fresh account each time, so every check hashes
+                try {
+                    users.addUser("bench" + i, "Bench", false, "bench-password");
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex); // in memory, never thrown
+                }
+                long start = System.nanoTime();
+                sink = users.authenticate("bench" + i, "bench-password");
+                if (i > 0) login.record(System.nanoTime() - start); // the first warms up the JIT
+            }
+            InventoryApp.LatencyHistogram.Snapshot s = login.snapshot();
+            System.out.printf("login at %,9d iterations: p50 %,7.1f ms   max %,7.1f ms%n", iterations, s.percentile(50) / 1e6, s.max / 1e6);
+        }
+        // Cheap hashes fill the cache quickly; a hit never touches the hash, so its cost does not depend on them.
+        InventoryApp.UserDirectory users = new InventoryApp.UserDirectory(null, 1);
+        String[] tokens = new String[sessions];
+        int live = 0;
+        for (int target = 1; target <= sessions; target *= 10) {
+            for (; live < target; live++) {
+                String name = "u" + live;
+                try {
+                    users.addUser(name, "", false, "pw-" + live);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                tokens[live] = users.openSession(users.authenticate(name, "pw-" + live));
+            }
+            Random rnd = new Random(42);
+            int n = 1_000_000;
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) { int u = rnd.nextInt(live); sink = users.authenticate("u" + u, "pw-" + u); }
+            double basic = (System.nanoTime() - start) / (double) n;
+            start = System.nanoTime();
+            for (int i = 0; i < n; i++) sink = users.session(tokens[rnd.nextInt(live)]);
+            double bearer = (System.nanoTime() - start) / (double) n;
+            System.out.printf("%,9d sessions: cached credentials %,6.0f ns/check   token %,6.0f ns/check%n", live, basic, bearer);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package NAMANPROJECTS;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+// java -cp benchmarks/target/benchmarks.jar NAMANPROJECTS.BatchBenchmark [lines] [linesPerBatch]
+// Line throughput of applyBatch against the same lines sent one by one through addStock/removeStock,
+// on an in-memory model and on a journaled model with fsync ALWAYS (a twentieth of the lines there).
+public class BatchBenchmark {
+    public static void main(String[] args) throws IOException {
+        int total = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int perBatch = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        String[] names = new String[10_000];
+        for (int i = 0; i < names.length; i++) names[i] = "B-" + i;
+        for (int round = 0; round < 2; round++) { // the first in-memory round warms up the JIT
+            report("in-memory", names, total, perBatch, null, round == 1);
+        }
+        report("fsync ALWAYS", names, total / 20, perBatch, InventoryApp.TxnJournal.FsyncPolicy.ALWAYS, true);
+    }
+
+    private static void report(String label, String[] names, int total, int perBatch, InventoryApp.TxnJournal.FsyncPolicy policy, boolean print) throws IOException {
+        Path dir = Files.createTempDirectory("inventory-batch-bench");
+        InventoryApp.InventoryModel single = seeded(names, policy, dir.resolve("single"));
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            if ((i & 1) == 0) single.addStock(names[i % names.length], 2, "bench", "line");
+            else single.removeStock(names[i % names.length], 1, "bench", "line");
+        }
+        double singleRate = total / ((System.nanoTime() - start) / 1e9);
+        single.close();
+
+        InventoryApp.InventoryModel batched = seeded(names, policy, dir.resolve("batched"));
+        java.util.List<InventoryApp.StockLine> lines = new ArrayList<>(perBatch);
+        start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            lines.add(new InventoryApp.StockLine(names[i % names.length], (i & 1) == 0 ? 2 : -1, "line"));
+            if (lines.size() == perBatch) { batched.applyBatch(lines, "bench"); lines = new ArrayList<>(perBatch); }
+        }
+        if (!lines.isEmpty()) batched.applyBatch(lines, "bench");
+        double batchRate = total / ((System.nanoTime() - start) / 1e9);
+        batched.close();
+        InventoryApp.HistoryStore.deleteTree(dir);
+        if (print) System.out.printf("%-13s single calls %,12.0f lines/sec   applyBatch(%d) %,12.0f lines/sec   %.1fx%n",
+                label, singleRate, perBatch, batchRate, batchRate / singleRate);
+    }
+
+    private static InventoryApp.InventoryModel seeded(String[] names, InventoryApp.TxnJournal.FsyncPolicy policy, Path dir) throws IOException {
+        InventoryApp.InventoryModel model = policy == null ? new InventoryApp.InventoryModel() : InventoryApp.InventoryModel.open(dir, policy);
+        for (String sku : names) model.addItem(new InventoryApp.InventoryItem(sku, "Bench " + sku, "Bench", 1_000, 1.0), "bench");
+        return model;
+    }
+}
@@ -0,0 +1,47 @@
+package NAMANPROJECTS;
+
+import java.time.LocalDateTime;
+import java.util.Random;
+
+// java -Xmx3g -cp benchmarks/target/benchmarks.jar NAMANPROJECTS.HistoryBenchmark [records]
+// Memory held per transaction record as live objects versus sealed into a HistoryStore, and the cost of reading one back.
+public class HistoryBenchmark {
+    static volatile long sink; // keeps the read loop from being optimized away
+
+    public static void main(String[] args) throws Exception {
+        int total = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        String[] skus = new String[10_000];
+        for (int i = 0; i < skus.length; i++) skus[i] = "H-" + i;
+        double objects = report("objects", null, skus, total);
+        double compact = report("compact", new InventoryApp.HistoryStore(null, InventoryApp.InventoryModel.MAIN), skus, total);
+        System.out.printf("%.1fx fewer bytes per record%n", objects / compact);
+    }
+
+    private static double report(String label, InventoryApp.HistoryStore history, String[] skus, int total) throws Exception {
+        String[] notes = { "Goods receipt", "Sale", null, "Cycle count" };
+        long before = usedHeap();
+        InventoryApp.TxnLog log = new InventoryApp.TxnLog(0, history);
+        for (int i = 1; i <= total; i++) {
+            String sku = skus[i % skus.length];
+            log.publish(log.claim(), new InventoryApp.TransactionRec("TXN-" + i, LocalDateTime.now(), sku, "Bench " + sku,
+                    (i & 1) == 0 ? InventoryApp.TxnType.ADD_STOCK : InventoryApp.TxnType.REMOVE_STOCK, (i & 1) == 0 ? 2 : -1, "bench", notes[i & 3]));
+        }
+        if (history != null) history.awaitSealed();
+        long heap = usedHeap() - before, offHeap = history == null ? 0 : history.bytes();
+        double perRecord = (heap + offHeap) / (double) log.size();
+        Random rnd = new Random(42);
+        long sum = 0, start = System.nanoTime();
+        for (int i = 0; i < 1_000_000; i++) sum += log.get(1 + rnd.nextInt(total)).qtyDelta;
+        double readNs = (System.nanoTime() - start) / 1e6;
+        sink = sum;
+        System.out.printf("%-8s %,d records: heap %,d MB  off-heap %,d MB  %.1f bytes/record  random get %.0f ns%n",
+                label, log.size(), heap >> 20, offHeap >> 20, perRecord, readNs);
+        return perRecord;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) { System.gc(); Thread.sleep(100); }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,41 @@
+package NAMANPROJECTS;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// java -Xmx4g -cp benchmarks/target/benchmarks.jar NAMANPROJECTS.ImportBenchmark [rows]
+// Parses a generated catalog CSV, imports it into a fresh model (new items), imports it again (updates) and
+// exports the catalog back to CSV, in memory and journaled with the BATCH fsync policy.
+public class ImportBenchmark {
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path dir = Files.createTempDirectory("inventory-import-bench");
+        Path csv = dir.resolve("catalog.csv");
+        try (java.io.Writer out = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+            out.write("SKU,Name,Category,Qty,Price,Reorder At\r\n");
+            for (int i = 0; i < rows; i++)
+                out.write("IMP-" + i + ",\"Import item " + i + ", boxed\",Cat " + (i % 50) + "," + (i % 1000) + "," + (i % 5000) + ".50," + (i % 20) + "\r\n");
+        }
+        System.out.printf("%,d rows, %,d MB of CSV%n", rows, Files.size(csv) >> 20);
+        for (int round = 0; round < 3; round++) { // the first in-memory round warms up the JIT
+            boolean journaled = round == 2;
+            InventoryApp.InventoryModel model = journaled ? InventoryApp.InventoryModel.open(dir.resolve("data"), InventoryApp.TxnJournal.FsyncPolicy.BATCH) : new InventoryApp.InventoryModel();
+            long start = System.nanoTime();
+            java.util.List<InventoryApp.InventoryItem> catalog = InventoryApp.CatalogImport.read(csv, new InventoryApp.ReportProgress());
+            long parsed = System.nanoTime();
+            model.importItems(catalog, "bench", null);
+            long created = System.nanoTime();
+            model.importItems(InventoryApp.CatalogImport.read(csv, new InventoryApp.ReportProgress()), "bench", null);
+            long updated = System.nanoTime();
+            InventoryApp.ReportExporter.writeCsv(InventoryApp.ReportSource.items(model), dir.resolve("export.csv"), new InventoryApp.ReportProgress());
+            long exported = System.nanoTime();
+            model.close();
+            if (round > 0) System.out.printf("%-9s parse %,6.0f ms   create %,6.0f ms   parse+update %,6.0f ms   export %,6.0f ms   (%,.0f rows/sec parsed and created)%n",
+                    journaled ? "journaled" : "in-memory", (parsed - start) / 1e6, (created - parsed) / 1e6, (updated - created) / 1e6,
+                    (exported - updated) / 1e6, rows / ((created - start) / 1e9));
+        }
+        InventoryApp.HistoryStore.deleteTree(dir);
+    }
+}
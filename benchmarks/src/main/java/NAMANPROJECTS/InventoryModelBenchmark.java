@@ -0,0 +1,114 @@
+package NAMANPROJECTS;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Model-only paths the UI depends on, at catalog sizes from 1k to 1M items. Run headless; add -prof gc for allocation rates:
+//   java -jar benchmarks/target/benchmarks.jar InventoryModelBenchmark -prof gc
+// The *Contended methods run at 4 threads; -t N runs them at N, and ThreadScaling sweeps them from 1 to 32.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class InventoryModelBenchmark {
+
+    static String sku(int i) { return "BENCH-" + i; }
+
+    static InventoryApp.InventoryModel catalog(int items) {
+        InventoryApp.InventoryModel model = new InventoryApp.InventoryModel();
+        for (int i = 0; i < items; i++) {
+            model.addItem(new InventoryApp.InventoryItem(sku(i), "Bench item " + i, "Category " + (i % 20), 1_000, 1 + i % 500, 100), "bench");
+        }
+        return model;
+    }
+
+    // Read paths share one catalog for the whole run.
+    @State(Scope.Benchmark)
+    public static class Catalog {
+        @Param({"1000", "10000", "100000", "1000000"})
+        int items;
+        InventoryApp.InventoryModel model;
+        InventoryApp.TxnQuery oneSku;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            model = catalog(items);
+            for (int i = 0; i < 200_000; i++) model.addStock(sku(i % items), 1, "bench", null);
+            oneSku = new InventoryApp.TxnQuery(null, null, sku(items / 2), null, null);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() { model.close(); }
+    }
+
+    // Every mutation appends to the transaction log, so the mutating benchmarks start each iteration on a fresh catalog.
+    @State(Scope.Benchmark)
+    public static class MutableCatalog {
+        @Param({"1000", "10000", "100000", "1000000"})
+        int items;
+        InventoryApp.InventoryModel model;
+        String[] skus;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            model = catalog(items);
+            skus = new String[items];
+            for (int i = 0; i < items; i++) skus[i] = sku(i);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() { model.close(); }
+    }
+
+    private static boolean addOrRemove(MutableCatalog c) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        String sku = c.skus[rnd.nextInt(c.skus.length)];
+        return rnd.nextBoolean() ? c.model.addStock(sku, 1, "bench", null) : c.model.removeStock(sku, 1, "bench", null);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean addRemoveStock(MutableCatalog c) { return addOrRemove(c); }
+
+    @Benchmark
+    @Threads(4)
+    public boolean addRemoveStockContended(MutableCatalog c) { return addOrRemove(c); }
+
+    @Benchmark
+    @Threads(1)
+    public Object getAllItems(Catalog c) { return c.model.getAllItems(); }
+
+    @Benchmark
+    @Threads(4)
+    public Object getAllItemsContended(Catalog c) { return c.model.getAllItems(); }
+
+    @Benchmark
+    @Threads(1)
+    public Object totalInventoryValue(Catalog c) { return c.model.totalInventoryValue(); }
+
+    @Benchmark
+    @Threads(4)
+    public Object totalInventoryValueContended(Catalog c) { return c.model.totalInventoryValue(); }
+
+    // What the Transactions tab fetches: the newest page of the whole log, and of one SKU's history.
+    @Benchmark
+    public Object newestTransactions(Catalog c) {
+        return c.model.queryTransactions(InventoryApp.TxnQuery.ALL, Long.MAX_VALUE, InventoryApp.TxnsTableModel.PAGE_SIZE);
+    }
+
+    @Benchmark
+    public Object skuTransactions(Catalog c) {
+        return c.model.queryTransactions(c.oneSku, Long.MAX_VALUE, InventoryApp.TxnsTableModel.PAGE_SIZE);
+    }
+
+    // Walks the whole log the way a transactions export does.
+    @Benchmark
+    public void copyAllTransactions(Catalog c, Blackhole bh) {
+        int n = c.model.transactionCount();
+        for (int i = 0; i < n; i++) bh.consume(c.model.transactionAt(i));
+    }
+}
@@ -0,0 +1,40 @@
+package NAMANPROJECTS;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAdder;
+
+// java -cp benchmarks/target/benchmarks.jar NAMANPROJECTS.JournalBenchmark [seconds] [threads]
+// Sustained mutations/sec through a journaled model for each fsync policy, alternating addStock/removeStock.
+public class JournalBenchmark {
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        System.out.printf("Journal benchmark: %d thread(s), %ds per policy%n", threads, seconds);
+        for (InventoryApp.TxnJournal.FsyncPolicy policy : InventoryApp.TxnJournal.FsyncPolicy.values()) {
+            Path dir = Files.createTempDirectory("inventory-journal-bench");
+            InventoryApp.InventoryModel model = InventoryApp.InventoryModel.open(dir, policy);
+            LongAdder ops = new LongAdder();
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                String sku = "SKU-100" + (1 + t % 3);
+                workers[t] = new Thread(() -> {
+                    while (System.nanoTime() < deadline) {
+                        model.addStock(sku, 1, "bench", "in");
+                        model.removeStock(sku, 1, "bench", "out");
+                        ops.add(2);
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread w : workers) w.join();
+            model.close();
+            long bytes = 0;
+            for (Path segment : InventoryApp.TxnJournal.segments(dir.resolve("journal"))) bytes += Files.size(segment);
+            System.out.printf("  %-6s %,12.0f mutations/sec  (journal %,d bytes, %.1f bytes/record)%n",
+                    policy, ops.sum() / (double) seconds, bytes, bytes / (double) Math.max(1, model.transactionCount()));
+            InventoryApp.HistoryStore.deleteTree(dir);
+        }
+    }
+}
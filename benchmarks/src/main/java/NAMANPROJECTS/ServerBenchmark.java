@@ -0,0 +1,83 @@
+package NAMANPROJECTS;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// java -cp benchmarks/target/benchmarks.jar NAMANPROJECTS.ServerBenchmark [seconds] [connections]
+// Load generator for the HTTP API: each connection is a keep-alive client thread sending 80% lookups and 20%
+// stock changes to an in-process server over loopback. Reports requests/sec and latency percentiles.
+public class ServerBenchmark {
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        System.setProperty("http.maxConnections", Integer.toString(connections)); // pooled keep-alive connections per host
+        InventoryApp.Warehouses warehouses = InventoryApp.Warehouses.inMemory();
+        InventoryApp.InventoryModel model = warehouses.at(InventoryApp.InventoryModel.MAIN);
+        String[] skus = new String[10_000];
+        for (int i = 0; i < skus.length; i++) {
+            skus[i] = "HTTP-" + i;
+            model.addItem(new InventoryApp.InventoryItem(skus[i], "Bench " + i, "Bench", 1_000_000, 1.0), "bench");
+        }
+        InventoryApp.UserDirectory users = new InventoryApp.UserDirectory();
+        users.addUser("bench", "Benchmark", false, "bench-password");
+        InventoryApp.InventoryServer server = new InventoryApp.InventoryServer(warehouses, users, new InetSocketAddress("127.0.0.1", 0));
+        server.start();
+        String base = "http://127.0.0.1:" + server.address().getPort();
+        String auth = "Basic " + Base64.getEncoder().encodeToString("bench:bench-password".getBytes(StandardCharsets.UTF_8));
+        System.out.printf("HTTP benchmark: %d connection(s), %ds, request threads: %s%n", connections, seconds,
+                server.executor.getClass().getSimpleName());
+
+        InventoryApp.LatencyHistogram latency = new InventoryApp.LatencyHistogram();
+        AtomicLong errors = new AtomicLong();
+        AtomicBoolean measuring = new AtomicBoolean(), stop = new AtomicBoolean();
+        Thread[] clients = new Thread[connections];
+        for (int c = 0; c < connections; c++) {
+            long seed = c;
+            clients[c] = new Thread(() -> {
+                Random rnd = new Random(seed);
+                byte[] buf = new byte[8192];
+                while (!stop.get()) {
+                    String sku = skus[rnd.nextInt(skus.length)];
+                    int pick = rnd.nextInt(10);
+                    long start = System.nanoTime();
+                    try {
+                        java.net.HttpURLConnection conn = (java.net.HttpURLConnection) new java.net.URL(base + "/items/" + sku
+                                + (pick < 8 ? "" : pick == 8 ? "/add" : "/remove")).openConnection();
+                        conn.setRequestProperty("Authorization", auth);
+                        if (pick >= 8) {
+                            conn.setRequestMethod("POST");
+                            conn.setDoOutput(true);
+                            try (java.io.OutputStream out = conn.getOutputStream()) { out.write("{\"qty\":1}".getBytes(StandardCharsets.UTF_8)); }
+                        }
+                        int status = conn.getResponseCode();
+                        try (java.io.InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream()) {
+                            while (in != null && in.read(buf) > 0) { } // drained, so the connection goes back to the pool
+                        }
+                        if (status != 200) errors.incrementAndGet();
+                    } catch (IOException ex) {
+                        errors.incrementAndGet();
+                    }
+                    if (measuring.get()) latency.record(System.nanoTime() - start);
+                }
+            }, "http-client-" + c);
+            clients[c].start();
+        }
+        Thread.sleep(Math.min(3_000, seconds * 300L)); // warm-up
+        measuring.set(true);
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        measuring.set(false);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        stop.set(true);
+        for (Thread t : clients) t.join();
+        server.close();
+        InventoryApp.LatencyHistogram.Snapshot s = latency.snapshot();
+        System.out.printf("%,.0f requests/sec   p50 %.2f ms   p99 %.2f ms   p99.9 %.2f ms   max %.2f ms   errors %d%n",
+                s.count / elapsed, s.percentile(50) / 1e6, s.percentile(99) / 1e6, s.percentile(99.9) / 1e6, s.max / 1e6, errors.get());
+    }
+}
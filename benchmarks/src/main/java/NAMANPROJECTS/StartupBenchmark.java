@@ -0,0 +1,31 @@
+package NAMANPROJECTS;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// java -Xmx3g -cp benchmarks/target/benchmarks.jar NAMANPROJECTS.StartupBenchmark [skus] [transactions]
+// Builds a journaled catalog, snapshots it with a short tail behind it, and times a cold InventoryModel.open.
+public class StartupBenchmark {
+    public static void main(String[] args) throws Exception {
+        int skus = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long txns = args.length > 1 ? Long.parseLong(args[1]) : 5_000_000L;
+        Path dir = Files.createTempDirectory("inventory-startup-bench");
+        InventoryApp.InventoryModel model = InventoryApp.InventoryModel.open(dir, InventoryApp.TxnJournal.FsyncPolicy.NONE);
+        for (int i = 0; i < skus; i++) model.addItem(new InventoryApp.InventoryItem("B-" + i, "Bench item " + i, "Cat " + (i % 50), 1_000, 10.0), "bench");
+        for (long t = 0; t < txns; t++) {
+            String sku = "B-" + (t % skus);
+            if ((t & 1) == 0) model.addStock(sku, 1, "bench", null); else model.removeStock(sku, 1, "bench", null);
+        }
+        model.snapshotNow();
+        for (int t = 0; t < 10_000; t++) model.addStock("B-" + t % skus, 1, "bench", "tail");
+        model.close();
+
+        long start = System.nanoTime();
+        InventoryApp.InventoryModel reopened = InventoryApp.InventoryModel.open(dir, InventoryApp.TxnJournal.FsyncPolicy.NONE);
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("Cold start: %,d items, %,d transactions replayed, %.0f ms%n",
+                reopened.itemCount(), reopened.transactionCount(), elapsed / 1e6);
+        reopened.close();
+        InventoryApp.HistoryStore.deleteTree(dir);
+    }
+}
@@ -0,0 +1,96 @@
+package NAMANPROJECTS;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.swing.JTable;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// The table refresh path after a mutation: the change event, rebuilding the cells of the visible rows, and painting
+// them. The tables are never shown, so they are built and painted on the benchmark thread into an offscreen image.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class TableRefreshBenchmark {
+    private static final int VIEW_WIDTH = 1200, VIEW_HEIGHT = 800;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    int items;
+
+    InventoryApp.InventoryModel model;
+    InventoryApp.ItemsTableModel itemsModel;
+    InventoryApp.TxnsTableModel txnsModel;
+    JTable itemsTable;
+    BufferedImage screen;
+    java.util.List<String> batch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        model = InventoryModelBenchmark.catalog(items);
+        for (int i = 0; i < 10_000; i++) model.addStock(InventoryModelBenchmark.sku(i % items), 1, "bench", null);
+        itemsModel = new InventoryApp.ItemsTableModel(model);
+        txnsModel = new InventoryApp.TxnsTableModel(model);
+        itemsTable = new JTable(itemsModel);
+        itemsTable.setSize(VIEW_WIDTH, items * itemsTable.getRowHeight());
+        itemsTable.doLayout();
+        screen = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        batch = new ArrayList<>();
+        for (int i = 0; i < 100; i++) batch.add(InventoryModelBenchmark.sku(i * (items / 100)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() { model.close(); }
+
+    // The cells JTable asks for when a screenful of rows is repainted.
+    @Benchmark
+    public void visibleRowCells(Blackhole bh) {
+        int rows = VIEW_HEIGHT / itemsTable.getRowHeight();
+        int first = ThreadLocalRandom.current().nextInt(Math.max(1, items - rows));
+        for (int r = first; r < first + rows && r < items; r++) {
+            for (int c = 0; c < itemsModel.getColumnCount(); c++) bh.consume(itemsModel.getValueAt(r, c));
+        }
+    }
+
+    // One stock change, then repainting the viewport that shows it.
+    @Benchmark
+    public BufferedImage itemChangedAndPaint() {
+        int row = ThreadLocalRandom.current().nextInt(items);
+        String sku = InventoryModelBenchmark.sku(row);
+        model.addStock(sku, 1, "bench", null);
+        itemsModel.itemChanged(sku);
+        return paintAround(model.indexOfSku(sku));
+    }
+
+    // The single event a 100-line batch raises.
+    @Benchmark
+    public void batchChangedEvent() {
+        itemsModel.itemsChanged(batch);
+    }
+
+    // Reloading the Transactions tab's first page after a mutation.
+    @Benchmark
+    public int transactionsSync() {
+        txnsModel.sync();
+        return txnsModel.getRowCount();
+    }
+
+    private BufferedImage paintAround(int row) {
+        Graphics2D g = screen.createGraphics();
+        try {
+            int top = Math.max(0, row * itemsTable.getRowHeight() - VIEW_HEIGHT / 2);
+            g.translate(0, -top);
+            g.setClip(0, top, VIEW_WIDTH, VIEW_HEIGHT);
+            itemsTable.paint(g);
+        } finally {
+            g.dispose();
+        }
+        return screen;
+    }
+}
@@ -0,0 +1,43 @@
+package NAMANPROJECTS;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Runs the contended InventoryModelBenchmark methods at 1, 2, 4, ... 32 threads (JMH's -t takes a single count) and
+// prints ops/sec per thread count side by side. The thread count overrides the methods' @Threads.
+//   java -cp benchmarks/target/benchmarks.jar NAMANPROJECTS.ThreadScaling [items] [include regex]
+public class ThreadScaling {
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+
+    public static void main(String[] args) throws Exception {
+        String items = args.length > 0 ? args[0] : "10000";
+        String include = args.length > 1 ? args[1] : InventoryModelBenchmark.class.getSimpleName() + "\\.\\w+Contended";
+        Map<String, double[]> scores = new LinkedHashMap<>();
+        for (int t = 0; t < THREADS.length; t++) {
+            Options opts = new OptionsBuilder()
+                    .include(include)
+                    .param("items", items)
+                    .threads(THREADS[t])
+                    .build();
+            Collection<RunResult> results = new Runner(opts).run();
+            for (RunResult r : results) {
+                String name = r.getParams().getBenchmark();
+                scores.computeIfAbsent(name.substring(name.lastIndexOf('.') + 1), k -> new double[THREADS.length])[t] = r.getPrimaryResult().getScore();
+            }
+        }
+        System.out.printf("%nops/sec at %s items, %d CPU(s)%n%-32s", items, Runtime.getRuntime().availableProcessors(), "");
+        for (int threads : THREADS) System.out.printf("%14s", threads + " thread(s)");
+        System.out.println();
+        for (Map.Entry<String, double[]> e : scores.entrySet()) {
+            System.out.printf("%-32s", e.getKey());
+            for (double score : e.getValue()) System.out.printf("%,14.0f", score);
+            System.out.println();
+        }
+    }
+}